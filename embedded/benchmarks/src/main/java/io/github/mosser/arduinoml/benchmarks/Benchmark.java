@@ -0,0 +1,289 @@
+package io.github.mosser.arduinoml.benchmarks;
+
+import io.github.mosser.arduinoml.kernel.json.JsonReader;
+import io.github.mosser.arduinoml.kernel.json.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end benchmark of the embedded DSLs, from a model to its Wiring code.
+ *
+ * Every script of GroovuinoML/scripts and every example of the Java DSL is run:
+ *  - cold: each run is a fresh JVM, spawned on the class path of this one. The time from the spawn to main() is
+ *    reported as the startup phase, and the wall-clock time of the whole process as the total.
+ *  - warm: the runs are repeated in this JVM, after some warm-up runs that are not measured.
+ * Runs are broken down into init (loading the front end), compile (Groovy only), eval, validation and generation.
+ * Results are written as JSON, in microseconds (min, median, mean and max over the runs of each phase).
+ *
+ * Usage: Benchmark [--cold | --warm] [--runs n] [--warmup n] [--scripts directory] [--output file.json] [workload...]
+ * where a workload is e.g. groovy/DualCheck or java/dualCheckAlarm (all of them when none is given).
+ */
+public class Benchmark {
+
+	private static final String[] PHASES = {"startup", "init", "compile", "eval", "validation", "generation", "total"};
+
+	private boolean cold = true;
+	private boolean warm = true;
+	private int runs = 10;
+	private int warmup = 200;
+	private File scripts = new File("../groovy/GroovuinoML/scripts");
+	private File output;
+	private final List<String> selected = new ArrayList<>();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("--single")) {
+			single(args);
+			return;
+		}
+		Benchmark benchmark = new Benchmark();
+		benchmark.parse(args);
+		benchmark.run();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--cold": warm = false; break;
+				case "--warm": cold = false; break;
+				case "--runs": runs = Integer.parseInt(argument(args, i++)); break;
+				case "--warmup": warmup = Integer.parseInt(argument(args, i++)); break;
+				case "--scripts": scripts = new File(argument(args, i++)); break;
+				case "--output": output = new File(argument(args, i++)); break;
+				default:
+					if (args[i].startsWith("--")) {
+						throw new IllegalArgumentException("Unknown option: " + args[i]);
+					}
+					selected.add(args[i]);
+			}
+		}
+		if (!cold && !warm) {
+			throw new IllegalArgumentException("--cold and --warm cannot be used together");
+		}
+		if (runs <= 0 || warmup < 0) {
+			throw new IllegalArgumentException("--runs needs a positive number, --warmup a non-negative one");
+		}
+	}
+
+	private static String argument(String[] args, int option) {
+		if (option + 1 >= args.length) {
+			throw new IllegalArgumentException("Missing value after " + args[option]);
+		}
+		return args[option + 1];
+	}
+
+	/***************
+	 ** Workloads **
+	 ***************/
+
+	private List<String> workloads() throws ClassNotFoundException {
+		if (!selected.isEmpty()) {
+			return selected;
+		}
+		List<String> workloads = new ArrayList<>();
+		File[] files = scripts.listFiles((dir, name) -> name.endsWith(".groovy"));
+		if (files == null) {
+			throw new IllegalArgumentException("No scripts directory at " + scripts);
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			workloads.add("groovy/" + file.getName().replaceFirst("\\.groovy$", ""));
+		}
+		for (String example : JavaWorkload.examples()) {
+			workloads.add("java/" + example);
+		}
+		return workloads;
+	}
+
+	private static Workload workload(String name, File scripts) {
+		if (name.startsWith("groovy/")) {
+			File script = new File(scripts, name.substring("groovy/".length()) + ".groovy");
+			if (!script.isFile()) {
+				throw new IllegalArgumentException("Unknown script: " + script);
+			}
+			return new GroovyWorkload(script);
+		}
+		if (name.startsWith("java/")) {
+			return new JavaWorkload(name.substring("java/".length()));
+		}
+		throw new IllegalArgumentException("Unknown workload: [" + name + "], expected groovy/<script> or java/<example>");
+	}
+
+	/*************
+	 ** Running **
+	 *************/
+
+	private void run() throws Exception {
+		List<String> workloads = workloads();
+		StringWriter json = new StringWriter();
+		JsonWriter out = new JsonWriter(json);
+		out.beginObject();
+		out.name("java").value(System.getProperty("java.version"));
+		out.name("vm").value(System.getProperty("java.vm.name"));
+		out.name("os").value(System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		out.name("processors").value(Runtime.getRuntime().availableProcessors());
+		out.name("runs").value(runs);
+		out.name("warmup").value(warmup);
+		out.name("unit").value("us");
+		out.name("results").beginArray();
+		for (String name : workloads) {
+			if (cold) {
+				report(out, name, "cold", cold(name));
+			}
+			if (warm) {
+				report(out, name, "warm", warm(name));
+			}
+		}
+		out.endArray();
+		out.endObject();
+		out.flush();
+
+		if (output == null) {
+			System.out.println(json);
+		} else {
+			try (Writer file = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+				file.write(json.toString());
+				file.write("\n");
+			}
+			System.err.println("Results written to " + output);
+		}
+	}
+
+	// phase -> nanoseconds of each run
+	private Map<String, List<Long>> warm(String name) throws Exception {
+		Workload workload = workload(name, scripts);
+		Map<String, List<Long>> samples = new LinkedHashMap<>();
+		// the front end is only loaded once, by the first run
+		samples.put("init", new ArrayList<>(Collections.singletonList(workload.run().get("init"))));
+		for (int i = 0; i < warmup; i++) {
+			workload.run();
+		}
+		for (int i = 0; i < runs; i++) {
+			Map<String, Long> phases = workload.run();
+			long total = 0;
+			for (long nanos : phases.values()) {
+				total += nanos;
+			}
+			phases.put("total", total);
+			add(samples, phases);
+		}
+		return samples;
+	}
+
+	private Map<String, List<Long>> cold(String name) throws IOException, InterruptedException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		Map<String, List<Long>> samples = new LinkedHashMap<>();
+		for (int i = 0; i < runs; i++) {
+			long spawned = System.currentTimeMillis();
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					Benchmark.class.getName(), "--single", name, scripts.getPath(), Long.toString(spawned))
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			StringWriter result = new StringWriter();
+			try (Reader in = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+				char[] buffer = new char[1024];
+				for (int n; (n = in.read(buffer)) >= 0; ) {
+					result.write(buffer, 0, n);
+				}
+			}
+			if (process.waitFor() != 0) {
+				throw new IllegalStateException("Cold run of " + name + " failed");
+			}
+			Map<String, Long> phases = readPhases(new StringReader(result.toString()));
+			phases.put("total", System.nanoTime() - start);
+			add(samples, phases);
+		}
+		return samples;
+	}
+
+	// child JVM of a cold run: Benchmark --single workload scriptsDirectory spawnTimeMillis
+	private static void single(String[] args) throws Exception {
+		long startup = System.currentTimeMillis() - Long.parseLong(args[3]);
+		Map<String, Long> phases = new LinkedHashMap<>();
+		phases.put("startup", Math.max(startup, 0) * 1_000_000);
+		phases.putAll(workload(args[1], new File(args[2])).run());
+
+		Writer json = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		JsonWriter out = new JsonWriter(json);
+		out.beginObject();
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			out.name(phase.getKey()).value(micros(phase.getValue()));
+		}
+		out.endObject();
+		out.flush();
+	}
+
+	private static Map<String, Long> readPhases(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		Map<String, Long> phases = new LinkedHashMap<>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String phase = reader.nextName();
+			phases.put(phase, reader.nextInt() * 1_000L);
+		}
+		reader.endObject();
+		return phases;
+	}
+
+	private static void add(Map<String, List<Long>> samples, Map<String, Long> phases) {
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			samples.computeIfAbsent(phase.getKey(), k -> new ArrayList<>()).add(phase.getValue());
+		}
+	}
+
+	/*************
+	 ** Results **
+	 *************/
+
+	private static void report(JsonWriter out, String name, String mode, Map<String, List<Long>> samples)
+			throws IOException {
+		out.beginObject();
+		out.name("workload").value(name);
+		out.name("mode").value(mode);
+		out.name("phases").beginObject();
+		StringBuilder summary = new StringBuilder(String.format("%-28s %-4s", name, mode));
+		for (String phase : PHASES) {
+			List<Long> values = samples.get(phase);
+			if (values == null) {
+				continue;
+			}
+			List<Long> sorted = new ArrayList<>(values);
+			Collections.sort(sorted);
+			long sum = 0;
+			for (long value : sorted) {
+				sum += value;
+			}
+			int median = micros(sorted.get(sorted.size() / 2));
+			out.name(phase).beginObject();
+			out.name("min").value(micros(sorted.get(0)));
+			out.name("median").value(median);
+			out.name("mean").value(micros(sum / sorted.size()));
+			out.name("max").value(micros(sorted.get(sorted.size() - 1)));
+			out.name("samples").value(sorted.size());
+			out.endObject();
+			summary.append(String.format(" %s=%d", phase, median));
+		}
+		out.endObject();
+		out.endObject();
+		System.err.println(summary);
+	}
+
+	private static int micros(long nanos) {
+		return (int) Math.min(nanos / 1_000, Integer.MAX_VALUE);
+	}
+}
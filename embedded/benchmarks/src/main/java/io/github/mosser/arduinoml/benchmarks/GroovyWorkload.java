@@ -0,0 +1,39 @@
+package io.github.mosser.arduinoml.benchmarks;
+
+import groovy.lang.Script;
+import io.github.mosser.arduinoml.kernel.App;
+import main.groovy.groovuinoml.dsl.GroovuinoMLDSL;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * A GroovuinoML script: compiled by the GroovyShell, then evaluated in a fresh binding.
+ */
+class GroovyWorkload extends Workload {
+
+	private final File script;
+	private GroovuinoMLDSL dsl;
+
+	GroovyWorkload(File script) {
+		super("groovy/" + script.getName().replaceFirst("\\.groovy$", ""));
+		this.script = script;
+	}
+
+	@Override
+	void init() {
+		dsl = new GroovuinoMLDSL();
+	}
+
+	@Override
+	App build(Map<String, Long> phases) throws Exception {
+		long start = System.nanoTime();
+		Script compiled = dsl.parse(script);
+		phases.put("compile", System.nanoTime() - start);
+
+		start = System.nanoTime();
+		App app = dsl.build(compiled, script.toString());
+		phases.put("eval", System.nanoTime() - start);
+		return app;
+	}
+}
@@ -0,0 +1,53 @@
+package io.github.mosser.arduinoml.benchmarks;
+
+import io.github.mosser.arduinoml.kernel.App;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An example of the Java DSL, i.e. one of the static App methods of Main (embedded/java).
+ *
+ * Main lives in the default package, so its examples are found and called by reflection.
+ */
+class JavaWorkload extends Workload {
+
+	private static final String EXAMPLES = "Main";
+
+	private final String example;
+	private Method method;
+
+	JavaWorkload(String example) {
+		super("java/" + example);
+		this.example = example;
+	}
+
+	static List<String> examples() throws ClassNotFoundException {
+		List<String> examples = new ArrayList<>();
+		for (Method method : Class.forName(EXAMPLES).getDeclaredMethods()) {
+			if (Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 0
+					&& method.getReturnType() == App.class) {
+				examples.add(method.getName());
+			}
+		}
+		examples.sort(null);
+		return examples;
+	}
+
+	@Override
+	void init() throws Exception {
+		method = Class.forName(EXAMPLES).getDeclaredMethod(example);
+		method.setAccessible(true);
+	}
+
+	@Override
+	App build(Map<String, Long> phases) throws Exception {
+		long start = System.nanoTime();
+		App app = (App) method.invoke(null);
+		phases.put("eval", System.nanoTime() - start);
+		return app;
+	}
+}
@@ -0,0 +1,59 @@
+package io.github.mosser.arduinoml.benchmarks;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.generator.ToWiring;
+import io.github.mosser.arduinoml.kernel.utils.Validator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One front-end path from a model to its Wiring code, timed phase by phase.
+ *
+ * A workload is named after its front end, e.g. groovy/DualCheck or java/dualCheckAlarm. Its init phase (loading
+ * the front end) only happens on the first run of a JVM, the following runs only build, validate and generate.
+ */
+abstract class Workload {
+
+	// keeps the generated code alive, so that the JIT cannot drop the generation
+	static long sink;
+
+	private final String name;
+	private boolean initialized = false;
+
+	Workload(String name) {
+		this.name = name;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	// phase name -> nanoseconds, in the order of the path
+	Map<String, Long> run() throws Exception {
+		Map<String, Long> phases = new LinkedHashMap<>();
+		long start = System.nanoTime();
+		if (!initialized) {
+			init();
+			initialized = true;
+			phases.put("init", System.nanoTime() - start);
+		}
+		App app = build(phases);
+
+		start = System.nanoTime();
+		Validator.validatePinUsage(app);
+		phases.put("validation", System.nanoTime() - start);
+
+		start = System.nanoTime();
+		ToWiring generator = new ToWiring();
+		app.accept(generator);
+		sink += generator.getResult().toString().length();
+		phases.put("generation", System.nanoTime() - start);
+		return phases;
+	}
+
+	abstract void init() throws Exception;
+
+	// builds the App, recording the phases of the front end
+	abstract App build(Map<String, Long> phases) throws Exception;
+}
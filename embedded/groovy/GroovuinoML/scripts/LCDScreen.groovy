@@ -8,7 +8,7 @@ state "on" means "red_led" becomes "high"
 
 initial "off"
 
-from "off" to "on" when "button" becomes "high"
-from "on" to "off" when "button" becomes "high"
+from "off" to "on" when "button" edge "rising"
+from "on" to "off" when "button" edge "rising"
 
 export "LCDScreen"
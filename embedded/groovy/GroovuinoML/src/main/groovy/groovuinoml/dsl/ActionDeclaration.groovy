@@ -0,0 +1,24 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+import io.github.mosser.arduinoml.kernel.behavioral.Action
+import io.github.mosser.arduinoml.kernel.structural.Actuator
+
+// ... actuator becomes signal
+@CompileStatic
+class ActionDeclaration {
+	private final StateDeclaration state
+	private final Actuator actuator
+
+	ActionDeclaration(StateDeclaration state, Actuator actuator) {
+		this.state = state
+		this.actuator = actuator
+	}
+
+	StateDeclaration becomes(Object signal) {
+		Action action = new Action()
+		action.setActuator(actuator)
+		action.setValue(state.model.signal(signal))
+		state.add(action)
+	}
+}
@@ -0,0 +1,34 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor
+
+// analog "name" pin "A0" [every ms]
+@CompileStatic
+class AnalogDeclaration {
+	private final GroovuinoMLModel model
+	private final String name
+	private AnalogSensor sensor
+
+	AnalogDeclaration(GroovuinoMLModel model, String name) {
+		this.model = model
+		this.name = name
+	}
+
+	AnalogDeclaration pin(String pin) {
+		sensor = model.createAnalogSensor(name, pin)
+		this
+	}
+
+	// sampling period, in milliseconds
+	void every(Integer period) {
+		if (sensor == null) {
+			throw new IllegalStateException("Missing pin of analog sensor " + name + ", expected: analog \"" + name
+					+ "\" pin \"A0\" every " + period)
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("Illegal sampling period of " + name + ": [" + period + "]")
+		}
+		sensor.setSamplingPeriod(period)
+	}
+}
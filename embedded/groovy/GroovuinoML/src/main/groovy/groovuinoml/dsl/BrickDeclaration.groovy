@@ -0,0 +1,29 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+
+// sensor "name" pin n | actuator "name" pin n
+@CompileStatic
+class BrickDeclaration {
+	private final GroovuinoMLModel model
+	private final String name
+	private final boolean sensor
+
+	BrickDeclaration(GroovuinoMLModel model, String name, boolean sensor) {
+		this.model = model
+		this.name = name
+		this.sensor = sensor
+	}
+
+	void pin(Integer n) {
+		if (sensor) {
+			model.createSensor(name, n)
+		} else {
+			model.createActuator(name, n)
+		}
+	}
+
+	void onPin(Integer n) {
+		pin(n)
+	}
+}
@@ -0,0 +1,55 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+import io.github.mosser.arduinoml.kernel.behavioral.Threshold
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor
+import io.github.mosser.arduinoml.kernel.structural.Sensor
+
+// ... sensor becomes signal | ... sensor edge rising|falling | ... analog (above|below) value[, hysteresis]
+@CompileStatic
+class ConditionDeclaration {
+	private final TransitionDeclaration transition
+	private final Sensor sensor
+	private final TransitionDeclaration.Operator operator
+
+	ConditionDeclaration(TransitionDeclaration transition, Sensor sensor, TransitionDeclaration.Operator operator) {
+		this.transition = transition
+		this.sensor = sensor
+		this.operator = operator
+	}
+
+	TransitionDeclaration becomes(Object signal) {
+		transition.combine(operator, transition.model.expressions.condition(sensor, transition.model.signal(signal)))
+	}
+	
+	// fires once, at the iteration where the sensor changes
+	TransitionDeclaration edge(Object edge) {
+		transition.combine(operator, transition.model.expressions.edge(sensor, transition.model.edge(edge)))
+	}
+	
+	TransitionDeclaration above(Integer value) {
+		above(value, 0)
+	}
+	
+	// true above value, false again below value - hysteresis
+	TransitionDeclaration above(Integer value, Integer hysteresis) {
+		threshold(Threshold.Direction.ABOVE, value, hysteresis)
+	}
+	
+	TransitionDeclaration below(Integer value) {
+		below(value, 0)
+	}
+	
+	// true below value, false again above value + hysteresis
+	TransitionDeclaration below(Integer value, Integer hysteresis) {
+		threshold(Threshold.Direction.BELOW, value, hysteresis)
+	}
+	
+	private TransitionDeclaration threshold(Threshold.Direction direction, Integer value, Integer hysteresis) {
+		if (!(sensor instanceof AnalogSensor)) {
+			throw new IllegalArgumentException("Sensor " + sensor.getName() + " is not an analog sensor")
+		}
+		transition.combine(operator, transition.model.expressions.threshold((AnalogSensor) sensor, direction, value,
+				hysteresis))
+	}
+}
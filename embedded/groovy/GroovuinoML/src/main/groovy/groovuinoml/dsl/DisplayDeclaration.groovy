@@ -0,0 +1,27 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+import io.github.mosser.arduinoml.kernel.structural.Brick
+
+// display brick on_bus n [prefixed "text"]
+@CompileStatic
+class DisplayDeclaration {
+	private final GroovuinoMLModel model
+	private final Brick brick
+	private int bus
+
+	DisplayDeclaration(GroovuinoMLModel model, Brick brick) {
+		this.model = model
+		this.brick = brick
+	}
+
+	DisplayDeclaration on_bus(Integer bus) {
+		this.bus = bus
+		model.createLCD(brick, "", bus)
+		this
+	}
+
+	void prefixed(String prefix) {
+		model.createLCD(brick, prefix, bus)
+	}
+}
@@ -1,69 +1,40 @@
 package main.groovy.groovuinoml.dsl
 
-import io.github.mosser.arduinoml.kernel.behavioral.TimeUnit
-import org.codehaus.groovy.control.CompilerConfiguration
-import org.codehaus.groovy.control.customizers.SecureASTCustomizer
-import io.github.mosser.arduinoml.kernel.structural.SIGNAL
+import io.github.mosser.arduinoml.kernel.App
+import io.github.mosser.arduinoml.kernel.metrics.Metrics
+import io.github.mosser.arduinoml.kernel.metrics.Phase
 
+// single-threaded front end of the command line tools, see GroovuinoMLEngine for concurrent use
 class GroovuinoMLDSL {
 	private GroovyShell shell
-	private CompilerConfiguration configuration
 	private GroovuinoMLBinding binding
-	private GroovuinoMLBasescript basescript
 	
 	GroovuinoMLDSL() {
-		binding = new GroovuinoMLBinding()
-		binding.setGroovuinoMLModel(new GroovuinoMLModel(binding));
-		configuration = getDSLConfiguration()
-		configuration.setScriptBaseClass("main.groovy.groovuinoml.dsl.GroovuinoMLBasescript")
-		shell = new GroovyShell(configuration)
-		
-		binding.setVariable("high", SIGNAL.HIGH)
-		binding.setVariable("low", SIGNAL.LOW)
-		for (TimeUnit unit : TimeUnit.values()) {
-			binding.setVariable(unit.name().toLowerCase(), unit);
-		}
+		binding = GroovuinoMLEngine.newBinding()
+		shell = new GroovyShell(GroovuinoMLEngine.CONFIGURATION)
 	}
 	
-	private static CompilerConfiguration getDSLConfiguration() {
-		def secure = new SecureASTCustomizer()
-		secure.with {
-			//disallow closure creation
-			closuresAllowed = false
-			//disallow method definitions
-			methodDefinitionAllowed = true
-			//empty white list => forbid imports
-			importsWhitelist = [
-				'java.lang.*'
-			]
-			staticImportsWhitelist = []
-			staticStarImportsWhitelist= []
-			//language tokens disallowed
-//			tokensBlacklist= []
-			//language tokens allowed
-			tokensWhitelist= []
-			//types allowed to be used  (including primitive types)
-			constantTypesClassesWhiteList= [
-				int, Integer, Number, Integer.TYPE, String, Object
-			]
-			//classes who are allowed to be receivers of method calls
-			receiversClassesWhiteList= [
-				int, Number, Integer, String, Object
-			]
-		}
-		
-		def configuration = new CompilerConfiguration()
-		configuration.addCompilationCustomizers(secure)
-		
-		return configuration
+	void eval(File scriptFile) {
+		Script script = parse(scriptFile)
+		GroovuinoMLEngine.run(script, binding)
 	}
 	
-	void eval(File scriptFile) {
+	/**
+	 * Evaluates a script in a fresh binding and returns the App it exports, without generating its code.
+	 */
+	App build(File scriptFile) {
+		return build(parse(scriptFile), scriptFile.toString())
+	}
+	
+	// compilation and evaluation are separated so that they can be measured on their own
+	Script parse(File scriptFile) {
+		Phase compilation = Metrics.start("compile", scriptFile.name)
 		Script script = shell.parse(scriptFile)
-		
-		binding.setScript(script)
-		script.setBinding(binding)
-		
-		script.run()
+		compilation.count("chars", scriptFile.length()).close()
+		return script
+	}
+	
+	App build(Script script, String scriptName) {
+		return GroovuinoMLEngine.build(script, scriptName)
 	}
 }
@@ -0,0 +1,219 @@
+package main.groovy.groovuinoml.dsl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.SecureASTCustomizer;
+import org.codehaus.groovy.reflection.ClassInfo;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.TimeUnit;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
+import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
+
+/**
+ * Thread-safe entry point of the DSL, for services evaluating many scripts concurrently in the same JVM.
+ *
+ * A GroovyShell is not meant to be shared, so each compilation borrows one shell from a pool; every shell uses the
+ * same compiler configuration. The script then runs on the calling thread, with a binding and a model of its own.
+ *
+ * Each compiled script leaves its class in the class loader of its shell. After a given number of compilations,
+ * a shell is replaced by a fresh one. The old shell counts the evaluations of its scripts still running on other
+ * threads, and its classes are removed from the Groovy runtime only once the last of them is done. The old class
+ * loader can then be collected, so that the metaspace of a long-running service stays flat.
+ */
+public class GroovuinoMLEngine {
+
+	// shared by every shell of every engine, never changed once built
+	static final CompilerConfiguration CONFIGURATION = configuration();
+
+	private static final int RECYCLE_AFTER = 100;
+
+	private final BlockingQueue<Shell> shells;
+	private final int recycleAfter;
+
+	// one shell per processor, recycled every RECYCLE_AFTER compilations
+	public GroovuinoMLEngine() {
+		this(Runtime.getRuntime().availableProcessors(), RECYCLE_AFTER);
+	}
+
+	public GroovuinoMLEngine(int shells, int recycleAfter) {
+		if (shells < 1 || recycleAfter < 1) {
+			throw new IllegalArgumentException("An engine needs at least one shell, recycled after one compilation or more");
+		}
+		this.shells = new ArrayBlockingQueue<>(shells);
+		for (int i = 0; i < shells; i++) {
+			this.shells.add(new Shell());
+		}
+		this.recycleAfter = recycleAfter;
+	}
+
+	/**
+	 * Evaluates a script and returns what it exports, i.e. the Wiring code of its app.
+	 */
+	public String compile(String scriptText, String scriptName) {
+		return evaluate(scriptText, scriptName, GroovuinoMLEngine::compile);
+	}
+
+	/**
+	 * Evaluates a script and returns the App it exports, without generating its code.
+	 */
+	public App build(String scriptText, String scriptName) {
+		return evaluate(scriptText, scriptName, script -> build(script, scriptName));
+	}
+
+	// compiles on a borrowed shell, then runs the script with the shell given back to the pool
+	private <T> T evaluate(String scriptText, String scriptName, Function<Script, T> evaluation) {
+		Shell shell = borrow();
+		Shell next = shell;
+		Script script;
+		try {
+			Phase compilation = Metrics.start("compile", scriptName);
+			script = shell.groovy.parse(scriptText, scriptName);
+			compilation.count("chars", scriptText.length()).close();
+			shell.classes.add(script.getClass());
+			shell.acquire();
+			if (shell.classes.size() >= recycleAfter) {
+				shell.retireWhenIdle();
+				next = new Shell();
+			}
+		} finally {
+			shells.add(next);
+		}
+		try {
+			return evaluation.apply(script);
+		} finally {
+			shell.release();
+		}
+	}
+
+	private Shell borrow() {
+		try {
+			return shells.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a GroovuinoML shell", e);
+		}
+	}
+
+	private static class Shell {
+		final GroovyShell groovy = new GroovyShell(GroovuinoMLEngine.class.getClassLoader(), new Binding(), CONFIGURATION);
+		// classes compiled by this shell, so that the runtime can forget them
+		final List<Class<?>> classes = new ArrayList<>();
+		// evaluations of these classes still running
+		private int running;
+		private boolean retiring;
+
+		synchronized void acquire() {
+			running++;
+		}
+
+		synchronized void release() {
+			if (--running == 0 && retiring) {
+				retire();
+			}
+		}
+
+		// out of the pool for good: no evaluation starts anymore, the last one to end retires the shell
+		synchronized void retireWhenIdle() {
+			retiring = true;
+			if (running == 0) {
+				retire();
+			}
+		}
+
+		private void retire() {
+			for (Class<?> compiled : classes) {
+				InvokerHelper.removeClass(compiled);
+				// Groovy 2.3 keeps a softly referenced ClassInfo per class, which only goes under memory pressure
+				ClassInfo.getClassInfo(compiled).finalizeRef();
+			}
+			groovy.getClassLoader().clearCache();
+			classes.clear();
+		}
+	}
+
+	/***************************
+	 ** Evaluating one script **
+	 ***************************/
+
+	// runs a compiled script in a fresh binding, returns what it prints (the code of the app it exports)
+	static String compile(Script script) {
+		GroovuinoMLBinding fresh = newBinding();
+		StringWriter output = new StringWriter();
+		fresh.setVariable("out", new PrintWriter(output));
+		run(script, fresh);
+		return output.toString();
+	}
+
+	// runs a compiled script in a fresh binding, returns the App it exports
+	static App build(Script script, String scriptName) {
+		GroovuinoMLBinding fresh = newBinding();
+		fresh.getGroovuinoMLModel().setGenerating(false);
+		fresh.setVariable("out", new PrintWriter(new StringWriter()));
+		run(script, fresh);
+		App app = fresh.getGroovuinoMLModel().getExportedApp();
+		if (app == null) {
+			throw new IllegalArgumentException("Script " + scriptName + " does not export any application");
+		}
+		return app;
+	}
+
+	// the "build" phase includes the generation of the code, when the script exports its app
+	static void run(Script script, GroovuinoMLBinding binding) {
+		binding.setScript(script);
+		script.setBinding(binding);
+		Phase build = Metrics.start("build", null);
+		script.run();
+		build.count(binding.getGroovuinoMLModel().getExportedApp()).close();
+	}
+
+	// each evaluation gets its own binding and model
+	static GroovuinoMLBinding newBinding() {
+		GroovuinoMLBinding binding = new GroovuinoMLBinding();
+		binding.setGroovuinoMLModel(new GroovuinoMLModel(binding));
+
+		binding.setVariable("high", SIGNAL.HIGH);
+		binding.setVariable("low", SIGNAL.LOW);
+		binding.setVariable("rising", EDGE.RISING);
+		binding.setVariable("falling", EDGE.FALLING);
+		for (TimeUnit unit : TimeUnit.values()) {
+			binding.setVariable(unit.name().toLowerCase(), unit);
+		}
+		return binding;
+	}
+
+	private static CompilerConfiguration configuration() {
+		SecureASTCustomizer secure = new SecureASTCustomizer();
+		// no closures, no imports but java.lang, only literals and calls on basic types
+		secure.setClosuresAllowed(false);
+		secure.setMethodDefinitionAllowed(true);
+		secure.setImportsWhitelist(Arrays.asList("java.lang.*"));
+		secure.setStaticImportsWhitelist(Collections.<String>emptyList());
+		secure.setStaticStarImportsWhitelist(Collections.<String>emptyList());
+		secure.setTokensWhitelist(Collections.<Integer>emptyList());
+		secure.setConstantTypesClassesWhiteList(Arrays.<Class>asList(int.class, Integer.class, Number.class,
+				Integer.TYPE, String.class, Object.class));
+		secure.setReceiversClassesWhiteList(Arrays.<Class>asList(int.class, Number.class, Integer.class, String.class,
+				Object.class));
+
+		CompilerConfiguration configuration = new CompilerConfiguration();
+		configuration.addCompilationCustomizers(secure);
+		configuration.setScriptBaseClass("main.groovy.groovuinoml.dsl.GroovuinoMLBasescript");
+		return configuration;
+	}
+}
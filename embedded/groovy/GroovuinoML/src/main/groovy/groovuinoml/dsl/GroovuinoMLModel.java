@@ -8,16 +8,29 @@ import io.github.mosser.arduinoml.kernel.behavioral.*;
 import io.github.mosser.arduinoml.kernel.generator.ToWiring;
 import io.github.mosser.arduinoml.kernel.generator.Visitor;
 import io.github.mosser.arduinoml.kernel.structural.Actuator;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
 import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
 import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
 import io.github.mosser.arduinoml.kernel.structural.Sensor;
 import io.github.mosser.arduinoml.kernel.structural.LCDDisplay;
+import io.github.mosser.arduinoml.kernel.utils.Validator;
 
 public class GroovuinoMLModel {
 	private List<Brick> bricks;
 	private List<State> states;
 	private State initialState;
 	private LCDDisplay LCDDisplay;
+	private App exportedApp;
+	// false when only the App is wanted, export then skips the generation of its code
+	private boolean generating = true;
+	
+	// typed symbol tables, used to resolve names without going through the binding
+	private Map<String, Sensor> sensors = new HashMap<String, Sensor>();
+	private Map<String, Actuator> actuators = new HashMap<String, Actuator>();
+	private Map<String, State> statesByName = new HashMap<String, State>();
+	// conditions used by several transitions are built once
+	private final ExpressionFactory expressions = new ExpressionFactory();
 	
 	private Binding binding;
 	
@@ -32,38 +45,58 @@ public class GroovuinoMLModel {
 		sensor.setName(name);
 		sensor.setPin(pinNumber);
 		this.bricks.add(sensor);
+		this.sensors.put(name, sensor);
 		this.binding.setVariable(name, sensor);
 //		System.out.println("> sensor " + name + " on pin " + pinNumber);
 	}
 	
+	// pin "A0" to "A5", sampled every AnalogSensor.DEFAULT_PERIOD ms until told otherwise
+	public AnalogSensor createAnalogSensor(String name, String pin) {
+		if (!pin.matches("A[0-5]")) {
+			throw new IllegalArgumentException("Illegal analog pin of " + name + ": [" + pin + "]");
+		}
+		AnalogSensor sensor = new AnalogSensor();
+		sensor.setName(name);
+		sensor.setPin(Validator.convertPin(pin));
+		this.bricks.add(sensor);
+		this.sensors.put(name, sensor);
+		this.binding.setVariable(name, sensor);
+		return sensor;
+	}
+	
 	public void createActuator(String name, Integer pinNumber) {
 		Actuator actuator = new Actuator();
 		actuator.setName(name);
 		actuator.setPin(pinNumber);
 		this.bricks.add(actuator);
+		this.actuators.put(name, actuator);
 		this.binding.setVariable(name, actuator);
 	}
 	
-	public void createState(String name, List<Action> actions) {
+	public State createState(String name, List<Action> actions) {
 		State state = new State();
 		state.setName(name);
 		state.setActions(actions);
 		this.states.add(state);
+		this.statesByName.put(name, state);
 		this.binding.setVariable(name, state);
+		return state;
 	}
 	
-	public void createTransition(State from, State to, Expression expression) {
+	public SignalTransition createTransition(State from, State to, Expression expression) {
 		SignalTransition transition = new SignalTransition();
 		transition.setNext(to);
 		transition.setExpression(expression);
 		from.addTransition(transition);
+		return transition;
 	}
 
-	public void createTransition(State from, State to, int delay) {
+	public TimeTransition createTransition(State from, State to, int delay) {
 		TimeTransition transition = new TimeTransition();
 		transition.setNext(to);
 		transition.setDelay(delay);
 		from.addTransition(transition);
+		return transition;
 	}
 
 	public void createLCD(Brick brick, String prefix, int bus) {
@@ -78,14 +111,100 @@ public class GroovuinoMLModel {
 		this.initialState = state;
 	}
 	
-	@SuppressWarnings("rawtypes")
-	public Object generateCode(String appName) {
+	/*
+	 * Symbol resolution: a reference is either the element itself (bare identifier in the script, found in
+	 * the binding) or its name as a String.
+	 */
+	
+	public Sensor sensor(Object ref) {
+		return lookup(ref, Sensor.class, sensors, "sensor");
+	}
+	
+	public Actuator actuator(Object ref) {
+		return lookup(ref, Actuator.class, actuators, "actuator");
+	}
+	
+	public Brick brick(Object ref) {
+		if (ref instanceof Brick) {
+			return (Brick) ref;
+		}
+		Brick brick = sensors.containsKey(ref) ? sensors.get(ref) : actuators.get(ref);
+		if (brick == null) {
+			throw new IllegalArgumentException("Unknown brick: [" + ref + "]");
+		}
+		return brick;
+	}
+	
+	public State state(Object ref) {
+		return lookup(ref, State.class, statesByName, "state");
+	}
+	
+	public SIGNAL signal(Object ref) {
+		if (ref instanceof SIGNAL) {
+			return (SIGNAL) ref;
+		}
+		try {
+			return SIGNAL.valueOf(String.valueOf(ref).toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException("Unknown signal: [" + ref + "]");
+		}
+	}
+	
+	public EDGE edge(Object ref) {
+		if (ref instanceof EDGE) {
+			return (EDGE) ref;
+		}
+		try {
+			return EDGE.valueOf(String.valueOf(ref).toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException("Unknown edge: [" + ref + "]");
+		}
+	}
+	
+	private static <T> T lookup(Object ref, Class<T> kind, Map<String, T> table, String what) {
+		if (kind.isInstance(ref)) {
+			return kind.cast(ref);
+		}
+		T element = table.get(String.valueOf(ref));
+		if (element == null) {
+			throw new IllegalArgumentException("Unknown " + what + ": [" + ref + "]");
+		}
+		return element;
+	}
+	
+	public App buildApp(String appName) {
 		App app = new App();
 		app.setName(appName);
 		app.setBricks(this.bricks);
 		app.setStates(this.states);
 		app.setInitial(this.initialState);
 		app.setLCDDisplay(this.LCDDisplay);
+		// "and" and "or" are folded as they are read, long guards are balanced once complete
+		this.expressions.balance(app);
+		this.exportedApp = app;
+		return app;
+	}
+	
+	public ExpressionFactory getExpressions() {
+		return this.expressions;
+	}
+	
+	// the App built by the last export, if any
+	public App getExportedApp() {
+		return this.exportedApp;
+	}
+	
+	public void setGenerating(boolean generating) {
+		this.generating = generating;
+	}
+	
+	// null when the model only builds the app
+	@SuppressWarnings("rawtypes")
+	public Object generateCode(String appName) {
+		App app = buildApp(appName);
+		if (!generating) {
+			return null;
+		}
 		Visitor codeGenerator = new ToWiring();
 		app.accept(codeGenerator);
 		
@@ -0,0 +1,33 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+import io.github.mosser.arduinoml.kernel.behavioral.Action
+
+// state "name" means actuator becomes signal [and actuator becomes signal]*n
+@CompileStatic
+class StateDeclaration {
+	private final GroovuinoMLModel model
+	private final List<Action> actions
+
+	StateDeclaration(GroovuinoMLModel model, List<Action> actions) {
+		this.model = model
+		this.actions = actions
+	}
+
+	ActionDeclaration means(Object actuator) {
+		new ActionDeclaration(this, model.actuator(actuator))
+	}
+
+	ActionDeclaration and(Object actuator) {
+		means(actuator)
+	}
+
+	StateDeclaration add(Action action) {
+		actions.add(action)
+		this
+	}
+
+	GroovuinoMLModel getModel() {
+		model
+	}
+}
@@ -0,0 +1,66 @@
+package main.groovy.groovuinoml.dsl
+
+import groovy.transform.CompileStatic
+import io.github.mosser.arduinoml.kernel.behavioral.Expression
+import io.github.mosser.arduinoml.kernel.behavioral.ExpressionFactory
+import io.github.mosser.arduinoml.kernel.behavioral.Or
+import io.github.mosser.arduinoml.kernel.behavioral.SignalTransition
+import io.github.mosser.arduinoml.kernel.behavioral.State
+
+// from state to state (when sensor (becomes signal | edge rising|falling | above|below value) [and|or ...]*n | after delay)
+@CompileStatic
+class TransitionDeclaration {
+	enum Operator {WHEN, AND, OR}
+
+	private final GroovuinoMLModel model
+	private final State from
+	private State target
+	private SignalTransition transition
+
+	TransitionDeclaration(GroovuinoMLModel model, State from) {
+		this.model = model
+		this.from = from
+	}
+
+	TransitionDeclaration to(Object state) {
+		target = model.state(state)
+		this
+	}
+
+	ConditionDeclaration when(Object sensor) {
+		new ConditionDeclaration(this, model.sensor(sensor), Operator.WHEN)
+	}
+
+	ConditionDeclaration and(Object sensor) {
+		new ConditionDeclaration(this, model.sensor(sensor), Operator.AND)
+	}
+
+	ConditionDeclaration or(Object sensor) {
+		new ConditionDeclaration(this, model.sensor(sensor), Operator.OR)
+	}
+
+	void after(Integer delay) {
+		model.createTransition(from, target, delay)
+	}
+
+	GroovuinoMLModel getModel() {
+		model
+	}
+
+	// "and" binds tighter than "or": it is applied to the right operand of a previous "or"
+	// expressions are shared, so the "or" is rebuilt instead of being changed
+	TransitionDeclaration combine(Operator operator, Expression condition) {
+		ExpressionFactory expressions = model.expressions
+		if (operator == Operator.WHEN) {
+			transition = model.createTransition(from, target, condition)
+		} else if (operator == Operator.OR) {
+			transition.setExpression(expressions.or(transition.expression, condition))
+		} else if (transition.expression instanceof Or) {
+			Or or = (Or) transition.expression
+			transition.setExpression(expressions.or(or.leftExpression, expressions.and(or.rightExpression, condition)))
+		} else {
+			transition.setExpression(expressions.and(transition.expression, condition))
+		}
+		this
+	}
+}
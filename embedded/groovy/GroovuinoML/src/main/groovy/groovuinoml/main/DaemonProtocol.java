@@ -0,0 +1,94 @@
+package main.groovy.groovuinoml.main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+/**
+ * Wire format shared by the daemon and its client, over a loopback socket.
+ *
+ * A connection opens with the token of the daemon, as a text: the daemon writes a fresh random token to a file
+ * only its user can read (see tokenFile), so that other local users can neither run scripts nor stop it.
+ * A request is then a command byte followed by length-prefixed UTF-8 texts (at most MAX_TEXT bytes each):
+ *   FILE   path            (the daemon reads the script itself)
+ *   SOURCE name, content   (the client sends the script)
+ *   STOP                   (shuts the daemon down)
+ * A response is a status byte (OK or ERROR) followed by one text: the Wiring code or the error message.
+ */
+final class DaemonProtocol {
+	static final int DEFAULT_PORT = 4815;
+
+	static final byte FILE = 'F';
+	static final byte SOURCE = 'S';
+	static final byte STOP = 'Q';
+
+	static final byte OK = 0;
+	static final byte ERROR = 1;
+
+	// longer texts are rejected before being allocated
+	static final int MAX_TEXT = 16 * 1024 * 1024;
+
+	private DaemonProtocol() {}
+
+	// ~/.groovuinoml/daemon-<port>.token
+	static Path tokenFile(int port) {
+		return Paths.get(System.getProperty("user.home"), ".groovuinoml", "daemon-" + port + ".token");
+	}
+
+	// a new token, in a file created readable by its owner only (on POSIX file systems)
+	static String writeToken(int port) throws IOException {
+		byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		StringBuilder token = new StringBuilder();
+		for (byte b : random) {
+			token.append(String.format("%02x", b));
+		}
+		Path file = tokenFile(port);
+		boolean posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+		try {
+			if (posix) {
+				Files.createDirectory(file.getParent(), PosixFilePermissions.asFileAttribute(
+						PosixFilePermissions.fromString("rwx------")));
+			} else {
+				Files.createDirectory(file.getParent());
+			}
+		} catch (FileAlreadyExistsException e) {
+			// kept as is
+		}
+		Files.deleteIfExists(file);
+		if (posix) {
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(file);
+		}
+		Files.write(file, token.toString().getBytes(StandardCharsets.UTF_8));
+		return token.toString();
+	}
+
+	static String readToken(int port) throws IOException {
+		return new String(Files.readAllBytes(tokenFile(port)), StandardCharsets.UTF_8).trim();
+	}
+
+	static void writeText(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readText(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_TEXT) {
+			throw new IOException("Invalid text length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
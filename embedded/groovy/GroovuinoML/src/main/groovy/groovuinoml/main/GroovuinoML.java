@@ -1,19 +1,31 @@
 package main.groovy.groovuinoml.main;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
 import main.groovy.groovuinoml.dsl.GroovuinoMLDSL;
 
 /**
  * This main takes one argument: the path to the Groovy script file to execute.
  * This Groovy script file must follow GroovuinoML DSL's rules.
+ * With "--daemon [port]", it starts a compilation daemon instead (see GroovuinoMLDaemon), and with
+ * "--watch directory [output]" it recompiles the scripts of a directory as they change (see GroovuinoMLWatcher).
  * 
  * "We've Got A Groovy Thing Goin'"!
  * 
  * @author Thomas Moreau
  */
 public class GroovuinoML {
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && "--daemon".equals(args[0])) {
+			GroovuinoMLDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && "--watch".equals(args[0])) {
+			GroovuinoMLWatcher.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		GroovuinoMLDSL dsl = new GroovuinoMLDSL();
 		if(args.length > 0) {
 			dsl.eval(new File(args[0]));
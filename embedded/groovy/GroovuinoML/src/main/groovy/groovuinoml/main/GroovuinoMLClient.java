@@ -0,0 +1,62 @@
+package main.groovy.groovuinoml.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Thin client for GroovuinoMLDaemon: sends script paths, prints the Wiring code sent back. It authenticates with
+ * the token the daemon wrote in the home directory of the user (see DaemonProtocol).
+ * It does not load Groovy at all, so it starts as fast as a plain JVM can.
+ *
+ * Usage: GroovuinoMLClient [--port n] [--stop] script.groovy...
+ */
+public class GroovuinoMLClient {
+	public static void main(String[] args) throws IOException {
+		int port = DaemonProtocol.DEFAULT_PORT;
+		boolean stop = false;
+		int first = 0;
+		while (first < args.length && args[first].startsWith("--")) {
+			if ("--port".equals(args[first])) {
+				port = Integer.parseInt(args[++first]);
+			} else if ("--stop".equals(args[first])) {
+				stop = true;
+			}
+			first++;
+		}
+
+		int failures = 0;
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DaemonProtocol.writeText(out, DaemonProtocol.readToken(port));
+			for (int i = first; i < args.length; i++) {
+				out.writeByte(DaemonProtocol.FILE);
+				DaemonProtocol.writeText(out, new File(args[i]).getAbsolutePath());
+				out.flush();
+				byte status = in.readByte();
+				String text = DaemonProtocol.readText(in);
+				if (status == DaemonProtocol.OK) {
+					System.out.print(text);
+				} else {
+					System.err.println(text);
+					failures++;
+				}
+			}
+			if (stop) {
+				out.writeByte(DaemonProtocol.STOP);
+				out.flush();
+				in.readByte();
+				DaemonProtocol.readText(in);
+			}
+		}
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+}
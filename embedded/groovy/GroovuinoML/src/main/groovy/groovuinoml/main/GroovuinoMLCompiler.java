@@ -0,0 +1,168 @@
+package main.groovy.groovuinoml.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.generator.ToJava;
+import main.groovy.groovuinoml.dsl.GroovuinoMLDSL;
+
+/**
+ * Ahead-of-time compiler for a catalog of GroovuinoML scripts.
+ *
+ * Each script is evaluated once, at build time, and its App is turned into a plain Java factory class (see ToJava).
+ * The factories and a Catalog class indexing them are compiled and packaged into a jar that only needs the kernel
+ * at run time: no Groovy, no closures, no binding lookups.
+ *
+ * Usage: GroovuinoMLCompiler scriptsDirectory output.jar [package]
+ * Then:  java -cp output.jar:kernel-jvm-1.0.jar package.Catalog DualCheck
+ */
+public class GroovuinoMLCompiler {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("/!\\ Usage: GroovuinoMLCompiler scriptsDirectory output.jar [package]");
+			return;
+		}
+		String packageName = args.length > 2 ? args[2] : "groovuinoml.catalog";
+		compile(Paths.get(args[0]), Paths.get(args[1]), packageName);
+	}
+
+	public static void compile(Path scripts, Path jar, String packageName) throws IOException {
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(scripts)) {
+			files = listing.filter(p -> p.toString().endsWith(".groovy")).sorted().collect(Collectors.toList());
+		}
+
+		Path work = Files.createTempDirectory("groovuinoml-aot");
+		Path sources = Files.createDirectories(work.resolve("src").resolve(packageName.replace('.', File.separatorChar)));
+		Path classes = Files.createDirectories(work.resolve("classes"));
+
+		// script name -> factory class name
+		Map<String, String> factories = new LinkedHashMap<>();
+		GroovuinoMLDSL dsl = new GroovuinoMLDSL();
+		for (Path file : files) {
+			String scriptName = file.getFileName().toString().replaceFirst("\\.groovy$", "");
+			String className = identifier(scriptName) + "Factory";
+			App app = dsl.build(file.toFile());
+			ToJava generator = new ToJava(packageName, className);
+			app.accept(generator);
+			write(sources.resolve(className + ".java"), generator.getResult().toString());
+			factories.put(scriptName, className);
+		}
+		write(sources.resolve("Catalog.java"), catalog(packageName, factories));
+
+		javac(sources, classes);
+		jar(classes, jar, packageName + ".Catalog");
+		delete(work);
+		System.out.println(factories.size() + " application(s) compiled into " + jar);
+	}
+
+	private static String catalog(String packageName, Map<String, String> factories) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(packageName).append(";\n\n");
+		sb.append("import io.github.mosser.arduinoml.kernel.App;\n");
+		sb.append("import io.github.mosser.arduinoml.kernel.generator.ToWiring;\n\n");
+		sb.append("/**\n * Catalog of the applications compiled ahead of time, do not edit.\n */\n");
+		sb.append("public final class Catalog {\n\n");
+		sb.append("\tprivate Catalog() {}\n\n");
+		sb.append("\tpublic static String[] names() {\n\t\treturn new String[]{");
+		sb.append(factories.keySet().stream().map(n -> "\"" + n + "\"").collect(Collectors.joining(", ")));
+		sb.append("};\n\t}\n\n");
+		sb.append("\tpublic static App create(String name) {\n\t\tswitch (name) {\n");
+		for (Map.Entry<String, String> e : factories.entrySet()) {
+			sb.append("\t\t\tcase \"").append(e.getKey()).append("\": return ").append(e.getValue()).append(".create();\n");
+		}
+		sb.append("\t\t\tdefault: throw new IllegalArgumentException(\"Unknown application: [\" + name + \"]\");\n");
+		sb.append("\t\t}\n\t}\n\n");
+		sb.append("\t// prints the Wiring code of the given applications\n");
+		sb.append("\tpublic static void main(String[] args) {\n");
+		sb.append("\t\tfor (String name : args.length > 0 ? args : names()) {\n");
+		sb.append("\t\t\tToWiring generator = new ToWiring();\n");
+		sb.append("\t\t\tcreate(name).accept(generator);\n");
+		sb.append("\t\t\tSystem.out.println(generator.getResult());\n");
+		sb.append("\t\t}\n\t}\n}\n");
+		return sb.toString();
+	}
+
+	private static void javac(Path sources, Path classes) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException("Ahead-of-time compilation needs a JDK, not a JRE");
+		}
+		String kernel = new File(App.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+		List<String> arguments = new ArrayList<>(Arrays.asList(
+				"-source", "1.8", "-target", "1.8", "-nowarn", "-cp", kernel, "-d", classes.toString()));
+		try (Stream<Path> listing = Files.list(sources)) {
+			listing.forEach(p -> arguments.add(p.toString()));
+		}
+		if (compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+			throw new IllegalStateException("Compilation of the generated factories failed");
+		}
+	}
+
+	private static void jar(Path classes, Path jar, String mainClass) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+		if (jar.getParent() != null) {
+			Files.createDirectories(jar.getParent());
+		}
+		List<Path> entries;
+		try (Stream<Path> walk = Files.walk(classes)) {
+			entries = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+		try (OutputStream file = Files.newOutputStream(jar); JarOutputStream out = new JarOutputStream(file, manifest)) {
+			for (Path entry : entries) {
+				out.putNextEntry(new JarEntry(classes.relativize(entry).toString().replace(File.separatorChar, '/')));
+				out.write(Files.readAllBytes(entry));
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void delete(Path directory) throws IOException {
+		List<Path> entries;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			entries = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+		for (Path entry : entries) {
+			Files.delete(entry);
+		}
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String identifier(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (char c : name.toCharArray()) {
+			sb.append(Character.isJavaIdentifierPart(c) ? c : '_');
+		}
+		if (sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+			sb.insert(0, '_');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,181 @@
+package main.groovy.groovuinoml.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import main.groovy.groovuinoml.dsl.GroovuinoMLEngine;
+
+/**
+ * Long-running compilation server: the JVM, the Groovy runtime and the DSL shell stay warm between requests,
+ * so that each script is compiled in milliseconds instead of paying a full cold start.
+ *
+ * Listens on the loopback interface only, for clients of the same user: each connection must first send the token
+ * the daemon wrote at startup. Up to MAX_CONNECTIONS connections are served at once, each on a thread of its own,
+ * and as many wait in line; others are closed right away. Scripts are compiled by an engine with one shell per
+ * processor, recycled regularly so that the daemon does not accumulate script classes. A connection silent for
+ * CLIENT_TIMEOUT is dropped. See DaemonProtocol for the wire format, and GroovuinoMLClient for the matching
+ * client.
+ */
+public class GroovuinoMLDaemon {
+
+	private static final String WARM_UP_SCRIPT =
+			"sensor \"button\" pin 9\n" +
+			"actuator \"led\" pin 12\n" +
+			"state \"on\" means \"led\" becomes \"high\"\n" +
+			"state \"off\" means \"led\" becomes \"low\"\n" +
+			"initial \"off\"\n" +
+			"from \"on\" to \"off\" when \"button\" becomes \"high\"\n" +
+			"from \"off\" to \"on\" when \"button\" becomes \"high\" and \"button\" becomes \"high\"\n" +
+			"export \"WarmUp\"\n";
+
+	private static final int CLIENT_TIMEOUT = 30_000;
+	private static final int MAX_CONNECTIONS = 16;
+
+	private final GroovuinoMLEngine engine = new GroovuinoMLEngine();
+	// connections wait on their client most of the time, compilations are bounded by the shells of the engine
+	private final ThreadPoolExecutor connections = new ThreadPoolExecutor(MAX_CONNECTIONS, MAX_CONNECTIONS,
+			CLIENT_TIMEOUT, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_CONNECTIONS));
+	private byte[] token;
+	private final int port;
+	private volatile boolean running = true;
+	private volatile ServerSocket server;
+
+	public GroovuinoMLDaemon(int port) {
+		this.port = port;
+	}
+
+	// a few compilations, so that the compiler and the DSL code paths are loaded and JIT-compiled up front
+	static void warmUp(GroovuinoMLEngine engine) {
+		for (int i = 0; i < 20; i++) {
+			engine.compile(WARM_UP_SCRIPT, "WarmUp.groovy");
+		}
+	}
+
+	public void serve() throws IOException {
+		warmUp(engine);
+		connections.allowCoreThreadTimeOut(true);
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			this.server = server;
+			token = DaemonProtocol.writeToken(port).getBytes(StandardCharsets.UTF_8);
+			System.out.println("GroovuinoML daemon listening on " + server.getLocalSocketAddress() + ", token in "
+					+ DaemonProtocol.tokenFile(port));
+			while (running) {
+				try {
+					Socket client = server.accept();
+					client.setSoTimeout(CLIENT_TIMEOUT);
+					try {
+						connections.execute(() -> serve(client));
+					} catch (RejectedExecutionException busy) {
+						client.close();
+						System.err.println("Connection refused: too many connections");
+					}
+				} catch (IOException e) {
+					if (!running) {
+						// closed by a STOP request
+						break;
+					}
+					System.err.println("Connection dropped: " + e.getMessage());
+				}
+			}
+		} finally {
+			connections.shutdown();
+			Files.deleteIfExists(DaemonProtocol.tokenFile(port));
+		}
+		try {
+			connections.awaitTermination(CLIENT_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void serve(Socket client) {
+		try (Socket connection = client) {
+			handle(connection);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Connection dropped: " + e);
+		}
+	}
+
+	// unblocks the accept loop, connections already open finish their current request
+	private void stop() throws IOException {
+		running = false;
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	// a connection can carry several requests, until the client closes it
+	private void handle(Socket client) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+		if (!MessageDigest.isEqual(token, DaemonProtocol.readText(in).getBytes(StandardCharsets.UTF_8))) {
+			out.writeByte(DaemonProtocol.ERROR);
+			DaemonProtocol.writeText(out, "Wrong token, see " + DaemonProtocol.tokenFile(port));
+			out.flush();
+			return;
+		}
+		while (running) {
+			byte command;
+			try {
+				command = in.readByte();
+			} catch (EOFException eof) {
+				return;
+			}
+			switch (command) {
+				case DaemonProtocol.FILE:
+					String path = DaemonProtocol.readText(in);
+					respond(out, path, () -> new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+					break;
+				case DaemonProtocol.SOURCE:
+					String name = DaemonProtocol.readText(in);
+					String content = DaemonProtocol.readText(in);
+					respond(out, name, () -> content);
+					break;
+				case DaemonProtocol.STOP:
+					out.writeByte(DaemonProtocol.OK);
+					DaemonProtocol.writeText(out, "");
+					out.flush();
+					stop();
+					return;
+				default:
+					throw new IOException("Unknown command " + command);
+			}
+		}
+	}
+
+	private interface ScriptSource {
+		String read() throws IOException;
+	}
+
+	private void respond(DataOutputStream out, String name, ScriptSource source) throws IOException {
+		try {
+			String code = engine.compile(source.read(), Paths.get(name).getFileName().toString());
+			out.writeByte(DaemonProtocol.OK);
+			DaemonProtocol.writeText(out, code);
+		} catch (Exception e) {
+			out.writeByte(DaemonProtocol.ERROR);
+			DaemonProtocol.writeText(out, name + ": " + e);
+		}
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DaemonProtocol.DEFAULT_PORT;
+		new GroovuinoMLDaemon(port).serve();
+	}
+}
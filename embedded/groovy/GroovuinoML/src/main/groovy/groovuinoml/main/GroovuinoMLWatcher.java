@@ -0,0 +1,149 @@
+package main.groovy.groovuinoml.main;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import main.groovy.groovuinoml.dsl.GroovuinoMLEngine;
+
+/**
+ * Watch mode: compiles every script of a directory, then recompiles the scripts that change, with the same warm
+ * engine, until the process is stopped. Each script gets its Wiring code in a .ino file of the same name, in the
+ * output directory (the scripts directory by default).
+ *
+ * Editors usually write a file in several steps (truncate, write, rename...): the events are collected until the
+ * directory stays quiet for QUIET_MILLIS, and a script is only recompiled when its content changed. The .ino file is
+ * written to a temporary file first, then moved over the previous one, so that a reader never sees half a sketch.
+ * A script that does not compile keeps its previous .ino file.
+ *
+ * Usage: GroovuinoML --watch scriptsDirectory [outputDirectory]
+ */
+public class GroovuinoMLWatcher {
+
+	// long enough to merge the writes of a save, short enough to keep the regeneration under 100 ms
+	private static final long QUIET_MILLIS = 30;
+
+	private final GroovuinoMLEngine engine = new GroovuinoMLEngine(1, 100);
+	private final Path scripts;
+	private final Path output;
+	// script name -> content it was last compiled from
+	private final Map<String, String> compiled = new HashMap<>();
+
+	public GroovuinoMLWatcher(Path scripts, Path output) {
+		this.scripts = scripts;
+		this.output = output;
+	}
+
+	public void watch() throws IOException, InterruptedException {
+		Files.createDirectories(output);
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			// registered before the first compilation, so that no change is missed in between
+			scripts.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+			GroovuinoMLDaemon.warmUp(engine);
+			compile(all());
+			System.out.println("Watching " + scripts + " (Ctrl-C to stop)");
+			while (true) {
+				WatchKey key = watcher.take();
+				Set<String> changed = new TreeSet<>();
+				boolean overflow = false;
+				// bursts of events are merged until the directory stays quiet
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							overflow = true;
+						} else {
+							changed.add(event.context().toString());
+						}
+					}
+					if (!key.reset()) {
+						System.err.println(scripts + " cannot be watched anymore");
+						return;
+					}
+					key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				compile(overflow ? all() : changed);
+			}
+		}
+	}
+
+	private Set<String> all() throws IOException {
+		Set<String> names = new TreeSet<>();
+		try (Stream<Path> listing = Files.list(scripts)) {
+			listing.forEach(path -> names.add(path.getFileName().toString()));
+		}
+		return names;
+	}
+
+	private void compile(Set<String> names) {
+		for (String name : names) {
+			if (!name.endsWith(".groovy")) {
+				continue;
+			}
+			Path script = scripts.resolve(name);
+			try {
+				if (!Files.isRegularFile(script)) {
+					// deleted: its .ino file is left as it is
+					compiled.remove(name);
+					continue;
+				}
+				String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+				if (source.equals(compiled.get(name))) {
+					continue;
+				}
+				long start = System.nanoTime();
+				String code = engine.compile(source, name);
+				Path sketch = output.resolve(name.substring(0, name.length() - ".groovy".length()) + ".ino");
+				write(sketch, code);
+				compiled.put(name, source);
+				System.out.printf("%s -> %s (%d ms)%n", name, sketch.getFileName(),
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			} catch (Exception e) {
+				System.err.println(name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	// written next to the sketch, so that the move stays on the same file system
+	private static void write(Path sketch, String code) throws IOException {
+		Path temporary = Files.createTempFile(sketch.getParent(), "." + sketch.getFileName(), ".tmp");
+		try {
+			try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				out.write(code);
+			}
+			try {
+				Files.move(temporary, sketch, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, sketch, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("/!\\ Usage: GroovuinoML --watch scriptsDirectory [outputDirectory]");
+			return;
+		}
+		Path scripts = Paths.get(args[0]);
+		Path output = args.length > 1 ? Paths.get(args[1]) : scripts;
+		new GroovuinoMLWatcher(scripts, output).watch();
+	}
+}
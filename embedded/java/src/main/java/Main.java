@@ -116,6 +116,36 @@ public class Main {
                 .build();
     }
 
+    // "red" and "green" share their transition block, which reads an edge
+    private static App edgeToggle() {
+        return application("edge_toggle")
+                .uses(sensor("button", 9))
+                .uses(sensor("select", 8))
+                .uses(actuator("red", 11))
+                .uses(actuator("green", 12))
+
+                .hasForState("off").initial()
+                .setting("red").toLow()
+                .setting("green").toLow()
+                .endState()
+
+                .hasForState("red")
+                .setting("red").toHigh()
+                .endState()
+
+                .hasForState("green")
+                .setting("green").toHigh()
+                .endState()
+
+                .beginTransitionTable()
+                .from("off").when("button").rises().goTo("red")
+                .from("off").when("select").rises().goTo("green")
+                .from("red").when("button").rises().goTo("off")
+                .from("green").when("button").rises().goTo("off")
+                .endTransitionTable()
+                .build();
+    }
+
     private static App alarmWithError() {
         return application("alarm_with_error")
                 .uses(sensor("button", 9))
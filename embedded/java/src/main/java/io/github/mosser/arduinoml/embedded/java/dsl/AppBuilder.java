@@ -7,15 +7,26 @@ import java.util.stream.Collectors;
 
 import io.github.mosser.arduinoml.kernel.App;
 import io.github.mosser.arduinoml.kernel.behavioral.ErrorState;
+import io.github.mosser.arduinoml.kernel.behavioral.ExpressionFactory;
 import io.github.mosser.arduinoml.kernel.behavioral.State;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
 import io.github.mosser.arduinoml.kernel.structural.Actuator;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
 import io.github.mosser.arduinoml.kernel.structural.Brick;
 import io.github.mosser.arduinoml.kernel.structural.Sensor;
+import io.github.mosser.arduinoml.kernel.utils.Validator;
 
 public class AppBuilder {
 
     App theApp = null;
 
+    // Conditions partagées par toutes les transitions de l'app
+    final ExpressionFactory expressions = new ExpressionFactory();
+
+    // Mesure de la construction, de application() à build()
+    private Phase phase;
+
     /*********************
      ** Creating an App **
      *********************/
@@ -24,10 +35,12 @@ public class AppBuilder {
         AppBuilder inst = new AppBuilder();
         inst.theApp = new App();
         inst.theApp.setName(name);
+        inst.phase = Metrics.start("build", name);
         return inst;
     }
 
     public App build() {
+        phase.count(theApp).close();
         return theApp;
     }
 
@@ -51,6 +64,25 @@ public class AppBuilder {
         return createBrick(Actuator.class, name, port);
     }
 
+    // Entrée analogique, de "A0" à "A5", échantillonnée toutes les periodMs millisecondes
+    public static Brick analogSensor(String name, String pin) {
+        return analogSensor(name, pin, AnalogSensor.DEFAULT_PERIOD);
+    }
+
+    public static Brick analogSensor(String name, String pin, int periodMs) {
+        if (!pin.matches("A[0-5]"))
+            throw new IllegalArgumentException("Illegal analog pin: [" + pin + "]");
+        if (periodMs <= 0)
+            throw new IllegalArgumentException("Illegal sampling period: [" + periodMs + "]");
+        AnalogSensor sensor = new AnalogSensor();
+        if (name.isEmpty() || !Character.isLowerCase(name.charAt(0)))
+            throw new IllegalArgumentException("Illegal brick name: [" + name + "]");
+        sensor.setName(name);
+        sensor.setPin(Validator.convertPin(pin));
+        sensor.setSamplingPeriod(periodMs);
+        return sensor;
+    }
+
     private static Brick createBrick(Class<? extends Brick> kind, String name, int port) {
         try {
             Brick b = kind.newInstance();
@@ -1,12 +1,12 @@
 package io.github.mosser.arduinoml.embedded.java.dsl;
 
-import io.github.mosser.arduinoml.kernel.behavioral.And;
-import io.github.mosser.arduinoml.kernel.behavioral.BinaryExpression;
-import io.github.mosser.arduinoml.kernel.behavioral.Condition;
 import io.github.mosser.arduinoml.kernel.behavioral.Expression;
-import io.github.mosser.arduinoml.kernel.behavioral.Or;
+import io.github.mosser.arduinoml.kernel.behavioral.ExpressionFactory;
 import io.github.mosser.arduinoml.kernel.behavioral.SignalTransition;
 import io.github.mosser.arduinoml.kernel.behavioral.State;
+import io.github.mosser.arduinoml.kernel.behavioral.Threshold;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
 import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
 import io.github.mosser.arduinoml.kernel.structural.Sensor;
 
@@ -14,11 +14,13 @@ public class TransitionBuilder {
 
     private final TransitionTableBuilder parent;
     private final State fromState;
+    // Les conditions identiques ne sont créées qu'une fois par app
+    private final ExpressionFactory expressions;
 
     // Expression globale de la transition (peut être Condition, And, Or, etc.)
     private Expression expression;
 
-    // Capteur en cours de description (pour isHigh / isLow)
+    // Capteur en cours de description (pour isHigh / isLow / rises / falls)
     private Sensor currentSensor;
 
     // Opérateur logique en attente (AND / OR) pour combiner avec l’expression
@@ -33,6 +35,7 @@ public class TransitionBuilder {
     TransitionBuilder(TransitionTableBuilder parent, String fromStateName) {
         this.parent = parent;
         this.fromState = parent.findState(fromStateName);
+        this.expressions = parent.parent.expressions;
     }
 
     // ------------------ Construction du DSL ------------------ //
@@ -63,19 +66,61 @@ public class TransitionBuilder {
         return withValue(SIGNAL.LOW);
     }
 
+    // Front montant / descendant : la condition n'est vraie qu'à l'itération où le capteur change
+    public TransitionBuilder rises() {
+        return withEdge(EDGE.RISING);
+    }
+
+    public TransitionBuilder falls() {
+        return withEdge(EDGE.FALLING);
+    }
+
+    // Seuils d'un capteur analogique, avec une hystérésis optionnelle pour éviter les oscillations
+    public TransitionBuilder above(int value) {
+        return above(value, 0);
+    }
+
+    public TransitionBuilder above(int value, int hysteresis) {
+        return withThreshold(Threshold.Direction.ABOVE, value, hysteresis);
+    }
+
+    public TransitionBuilder below(int value) {
+        return below(value, 0);
+    }
+
+    public TransitionBuilder below(int value, int hysteresis) {
+        return withThreshold(Threshold.Direction.BELOW, value, hysteresis);
+    }
+
     // ------------------ Construction de l'arbre d'expressions ------------------
     // //
 
     private TransitionBuilder withValue(SIGNAL value) {
+        // On crée une Condition pour le capteur courant
+        requireSensor();
+        return combine(expressions.condition(currentSensor, value));
+    }
+
+    private TransitionBuilder withEdge(EDGE edge) {
+        requireSensor();
+        return combine(expressions.edge(currentSensor, edge));
+    }
+
+    private TransitionBuilder withThreshold(Threshold.Direction direction, int value, int hysteresis) {
+        requireSensor();
+        if (!(currentSensor instanceof AnalogSensor)) {
+            throw new IllegalStateException("Sensor " + currentSensor.getName() + " is not an analog sensor");
+        }
+        return combine(expressions.threshold((AnalogSensor) currentSensor, direction, value, hysteresis));
+    }
+
+    private void requireSensor() {
         if (currentSensor == null) {
             throw new IllegalStateException("Sensor must be set before setting value (use when/and/or)");
         }
+    }
 
-        // On crée une Condition pour le capteur courant
-        Condition condition = new Condition();
-        condition.setSensor(currentSensor);
-        condition.setValue(value);
-
+    private TransitionBuilder combine(Expression condition) {
         if (expression == null) {
             // Première condition : l'expression globale est juste cette condition
             expression = condition;
@@ -87,15 +132,11 @@ public class TransitionBuilder {
                 // Pour rester simple, on considère que c'est une erreur d'utilisation du DSL.
                 throw new IllegalStateException("Logical operator (and/or) missing before new condition");
             }
-            BinaryExpression binary;
             if (pendingOp == LogicalOp.AND) {
-                binary = new And();
+                expression = expressions.and(expression, condition);
             } else {
-                binary = new Or();
+                expression = expressions.or(expression, condition);
             }
-            binary.setLeftExpression(expression);
-            binary.setRightExpression(condition);
-            expression = binary;
         }
 
         // On a consommé l'opérateur logique
@@ -116,7 +157,8 @@ public class TransitionBuilder {
         State target = parent.findState(targetStateName);
 
         SignalTransition transition = new SignalTransition();
-        transition.setExpression(expression);
+        // Les longues chaînes de and / or sont rééquilibrées : profondeur logarithmique
+        transition.setExpression(expressions.balance(expression));
         transition.setNext(target);
 
         fromState.addTransition(transition);
@@ -2,6 +2,7 @@ package io.github.mosser.arduinoml.kernel;
 
 import io.github.mosser.arduinoml.kernel.structural.LCDDisplay;
 import io.github.mosser.arduinoml.kernel.behavioral.State;
+import io.github.mosser.arduinoml.kernel.frozen.FrozenApp;
 import io.github.mosser.arduinoml.kernel.generator.Visitable;
 import io.github.mosser.arduinoml.kernel.generator.Visitor;
 import io.github.mosser.arduinoml.kernel.structural.Brick;
@@ -59,6 +60,11 @@ public class App implements NamedElement, Visitable {
         this.LCDDisplay = lcd;
     }
 
+	// immutable, array-based copy of this app, for analyses walking it many times
+	public FrozenApp freeze() {
+		return FrozenApp.of(this);
+	}
+
 	@Override
 	public void accept(Visitor visitor) {
 		visitor.visit(this);
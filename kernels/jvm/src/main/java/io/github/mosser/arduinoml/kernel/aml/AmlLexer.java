@@ -0,0 +1,106 @@
+package io.github.mosser.arduinoml.kernel.aml;
+
+import io.github.mosser.arduinoml.kernel.aml.AmlToken.Kind;
+
+/**
+ * Hand-written lexer for the terminals of arduino-ml.langium (ID, INT, punctuation, comments and white spaces).
+ */
+public class AmlLexer {
+
+	private final String source;
+	private int pos = 0;
+	private int line = 1;
+	private int column = 1;
+
+	public AmlLexer(String source) {
+		this.source = source;
+	}
+
+	public AmlToken next() {
+		skipHidden();
+		int startLine = line, startColumn = column;
+		if (pos >= source.length()) {
+			return new AmlToken(Kind.EOF, "", startLine, startColumn);
+		}
+		char c = source.charAt(pos);
+		if (isIdStart(c)) {
+			int start = pos;
+			while (pos < source.length() && (isIdStart(source.charAt(pos)) || isDigit(source.charAt(pos)))) {
+				advance();
+			}
+			return new AmlToken(Kind.ID, source.substring(start, pos), startLine, startColumn);
+		}
+		if (isDigit(c)) {
+			int start = pos;
+			while (pos < source.length() && isDigit(source.charAt(pos))) {
+				advance();
+			}
+			return new AmlToken(Kind.INT, source.substring(start, pos), startLine, startColumn);
+		}
+		advance();
+		switch (c) {
+			case '{': return new AmlToken(Kind.LBRACE, "{", startLine, startColumn);
+			case '}': return new AmlToken(Kind.RBRACE, "}", startLine, startColumn);
+			case '(': return new AmlToken(Kind.LPAREN, "(", startLine, startColumn);
+			case ')': return new AmlToken(Kind.RPAREN, ")", startLine, startColumn);
+			case ':': return new AmlToken(Kind.COLON, ":", startLine, startColumn);
+			case ',': return new AmlToken(Kind.COMMA, ",", startLine, startColumn);
+			case '<':
+				if (pos < source.length() && source.charAt(pos) == '=') {
+					advance();
+					return new AmlToken(Kind.ASSIGN, "<=", startLine, startColumn);
+				}
+				break;
+			case '=':
+				if (pos < source.length() && source.charAt(pos) == '>') {
+					advance();
+					return new AmlToken(Kind.ARROW, "=>", startLine, startColumn);
+				}
+				break;
+			default:
+		}
+		throw new AmlSyntaxException("Unexpected character '" + c + "'", startLine, startColumn);
+	}
+
+	// white spaces, single-line and multi-line comments are hidden terminals
+	private void skipHidden() {
+		while (pos < source.length()) {
+			char c = source.charAt(pos);
+			if (Character.isWhitespace(c)) {
+				advance();
+			} else if (source.startsWith("//", pos)) {
+				while (pos < source.length() && source.charAt(pos) != '\n' && source.charAt(pos) != '\r') {
+					advance();
+				}
+			} else if (source.startsWith("/*", pos)) {
+				int startLine = line, startColumn = column;
+				int end = source.indexOf("*/", pos + 2);
+				if (end < 0) {
+					throw new AmlSyntaxException("Unterminated comment", startLine, startColumn);
+				}
+				while (pos < end + 2) {
+					advance();
+				}
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static boolean isIdStart(char c) {
+		return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private void advance() {
+		if (source.charAt(pos++) == '\n') {
+			line++;
+			column = 1;
+		} else {
+			column++;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package io.github.mosser.arduinoml.kernel.aml;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.aml.AmlToken.Kind;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
+import io.github.mosser.arduinoml.kernel.structural.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Recursive-descent parser for the .aml syntax defined in external/langium (arduino-ml.langium).
+ * It builds kernel objects directly, without an intermediate syntax tree.
+ *
+ * The app-level error_led becomes an Actuator named "error_led", used by every error state.
+ */
+public class AmlParser {
+
+	private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+			"app", "initial", "state", "error_led", "bricks", "states", "Actuator", "Sensor",
+			"error", "code", "after", "is", "AND", "OR", "HIGH", "LOW"));
+
+	private final AmlLexer lexer;
+	private AmlToken current;
+	private AmlToken lookahead;
+
+	private final App app = new App();
+	private final Map<String, Brick> bricks = new HashMap<>();
+	private final Map<String, State> states = new HashMap<>();
+	private final List<Runnable> links = new ArrayList<>();
+	private AmlToken firstErrorState;
+
+	private AmlParser(String source) {
+		this.lexer = new AmlLexer(source);
+		this.current = lexer.next();
+	}
+
+	public static App parse(String source) {
+		try (Phase parse = Metrics.start("parse", null)) {
+			AmlParser parser = new AmlParser(source);
+			parser.app();
+			parser.link();
+			ExpressionFactory.share(parser.app);
+			parse.count(parser.app).count("chars", source.length());
+			return parser.app;
+		}
+	}
+
+	public static App parse(Reader in) throws IOException {
+		StringBuilder source = new StringBuilder();
+		char[] buffer = new char[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			source.append(buffer, 0, n);
+		}
+		return parse(source.toString());
+	}
+
+	/*******************
+	 ** Grammar rules **
+	 *******************/
+
+	// 'app' name=ID 'initial' 'state' initial=[State:ID] '{' ('error_led' ':' INT)? 'bricks' Brick+ 'states' State+ '}'
+	private void app() {
+		keyword("app");
+		app.setName(name());
+		keyword("initial");
+		keyword("state");
+		AmlToken initial = expect(Kind.ID);
+		reference(states, initial, State.class, s -> app.setInitial((State) s));
+		expect(Kind.LBRACE);
+
+		Actuator errorLed = null;
+		if (current.is("error_led")) {
+			AmlToken keyword = consume();
+			expect(Kind.COLON);
+			errorLed = new Actuator();
+			errorLed.setName("error_led");
+			errorLed.setPin(integer());
+			declare(bricks, errorLed.getName(), errorLed, keyword);
+			app.getBricks().add(errorLed);
+		}
+
+		keyword("bricks");
+		do {
+			brick();
+		} while (current.is("Actuator") || current.is("Sensor"));
+
+		keyword("states");
+		do {
+			state(errorLed);
+		} while (current.getKind() == Kind.ID);
+
+		expect(Kind.RBRACE);
+		expect(Kind.EOF);
+
+		if (firstErrorState != null && errorLed == null) {
+			throw error("error_led definition is required when error states are defined", firstErrorState);
+		}
+	}
+
+	// 'Actuator' name=ID ':' outputPin=INT | 'Sensor' name=ID ':' inputPin=INT
+	private void brick() {
+		Brick brick;
+		if (current.is("Actuator")) {
+			brick = new Actuator();
+		} else if (current.is("Sensor")) {
+			brick = new Sensor();
+		} else {
+			throw unexpected("'Actuator' or 'Sensor'");
+		}
+		consume();
+		AmlToken name = current;
+		brick.setName(name());
+		expect(Kind.COLON);
+		brick.setPin(integer());
+		declare(bricks, brick.getName(), brick, name);
+		app.getBricks().add(brick);
+	}
+
+	// 'error' ',' name=ID ',' 'code' ',' errorCode=INT | name=ID '{' Action* Transition* '}'
+	private void state(Actuator errorLed) {
+		State state;
+		AmlToken name;
+		if (current.is("error")) {
+			if (firstErrorState == null) {
+				firstErrorState = current;
+			}
+			consume();
+			expect(Kind.COMMA);
+			name = current;
+			ErrorState error = new ErrorState();
+			error.setName(name());
+			expect(Kind.COMMA);
+			keyword("code");
+			expect(Kind.COMMA);
+			error.setErrorCode(integer());
+			error.setActuator(errorLed);
+			state = error;
+		} else {
+			name = current;
+			state = new State();
+			state.setName(name());
+			expect(Kind.LBRACE);
+			while (current.getKind() == Kind.ID && peek().getKind() == Kind.ASSIGN) {
+				state.getActions().add(action());
+			}
+			while (current.getKind() != Kind.RBRACE) {
+				state.addTransition(transition());
+			}
+			expect(Kind.RBRACE);
+		}
+		declare(states, state.getName(), state, name);
+		app.getStates().add(state);
+	}
+
+	// actuator=[Actuator:ID] '<=' value=Signal
+	private Action action() {
+		Action action = new Action();
+		reference(bricks, expect(Kind.ID), Actuator.class, a -> action.setActuator((Actuator) a));
+		expect(Kind.ASSIGN);
+		action.setValue(signal());
+		return action;
+	}
+
+	// (condition=Expr | 'after' delay=INT) '=>' next=[State:ID]
+	private Transition transition() {
+		Transition transition;
+		if (current.is("after")) {
+			consume();
+			TimeTransition time = new TimeTransition();
+			time.setDelay(integer());
+			transition = time;
+		} else {
+			SignalTransition signal = new SignalTransition();
+			signal.setExpression(or());
+			transition = signal;
+		}
+		expect(Kind.ARROW);
+		reference(states, expect(Kind.ID), State.class, s -> transition.setNext((State) s));
+		return transition;
+	}
+
+	// AndExpr ('OR' AndExpr)*
+	private Expression or() {
+		Expression left = and();
+		while (current.is("OR")) {
+			consume();
+			Or or = new Or();
+			or.setLeftExpression(left);
+			or.setRightExpression(and());
+			left = or;
+		}
+		return left;
+	}
+
+	// Condition ('AND' Condition)*
+	private Expression and() {
+		Expression left = condition();
+		while (current.is("AND")) {
+			consume();
+			And and = new And();
+			and.setLeftExpression(left);
+			and.setRightExpression(condition());
+			left = and;
+		}
+		return left;
+	}
+
+	// sensor=[Sensor:ID] 'is' value=Signal | '(' Expr ')'
+	private Expression condition() {
+		if (current.getKind() == Kind.LPAREN) {
+			consume();
+			Expression inner = or();
+			expect(Kind.RPAREN);
+			return inner;
+		}
+		Condition condition = new Condition();
+		AmlToken sensor = expect(Kind.ID);
+		if (KEYWORDS.contains(sensor.getText())) {
+			throw error("Expected a sensor but found " + sensor, sensor);
+		}
+		reference(bricks, sensor, Sensor.class, s -> condition.setSensor((Sensor) s));
+		keyword("is");
+		condition.setValue(signal());
+		return condition;
+	}
+
+	// 'HIGH' | 'LOW'
+	private SIGNAL signal() {
+		if (current.is("HIGH") || current.is("LOW")) {
+			return SIGNAL.valueOf(consume().getText());
+		}
+		throw unexpected("'HIGH' or 'LOW'");
+	}
+
+	/**********************
+	 ** Token management **
+	 **********************/
+
+	private AmlToken consume() {
+		AmlToken token = current;
+		if (lookahead != null) {
+			current = lookahead;
+			lookahead = null;
+		} else {
+			current = lexer.next();
+		}
+		return token;
+	}
+
+	private AmlToken peek() {
+		if (lookahead == null) {
+			lookahead = lexer.next();
+		}
+		return lookahead;
+	}
+
+	private AmlToken expect(Kind kind) {
+		if (current.getKind() != kind) {
+			throw unexpected(kind.name());
+		}
+		return consume();
+	}
+
+	private void keyword(String keyword) {
+		if (!current.is(keyword)) {
+			throw unexpected("'" + keyword + "'");
+		}
+		consume();
+	}
+
+	private String name() {
+		AmlToken token = expect(Kind.ID);
+		if (KEYWORDS.contains(token.getText())) {
+			throw error("Keyword " + token + " cannot be used as a name", token);
+		}
+		return token.getText();
+	}
+
+	private int integer() {
+		AmlToken token = expect(Kind.INT);
+		try {
+			return Integer.parseInt(token.getText());
+		} catch (NumberFormatException nfe) {
+			throw error("Integer out of range " + token, token);
+		}
+	}
+
+	private AmlSyntaxException unexpected(String expected) {
+		return error("Expected " + expected + " but found " + current, current);
+	}
+
+	private static AmlSyntaxException error(String message, AmlToken at) {
+		return new AmlSyntaxException(message, at.getLine(), at.getColumn());
+	}
+
+	/*****************************
+	 ** Cross-reference linking **
+	 *****************************/
+
+	private <T> void declare(Map<String, T> table, String name, T element, AmlToken at) {
+		if (table.put(name, element) != null) {
+			throw error("Duplicate name [" + name + "]", at);
+		}
+	}
+
+	// references are linked once the whole file is read, as states can be used before being declared
+	private void reference(Map<String, ?> table, AmlToken name, Class<?> kind, Consumer<Object> binder) {
+		links.add(() -> {
+			Object target = table.get(name.getText());
+			if (!kind.isInstance(target)) {
+				throw error("Unknown " + kind.getSimpleName().toLowerCase() + " [" + name.getText() + "]", name);
+			}
+			binder.accept(target);
+		});
+	}
+
+	private void link() {
+		for (Runnable link : links) {
+			link.run();
+		}
+	}
+}
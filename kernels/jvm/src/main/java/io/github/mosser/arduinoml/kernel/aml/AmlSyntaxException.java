@@ -0,0 +1,26 @@
+package io.github.mosser.arduinoml.kernel.aml;
+
+/**
+ * Error found while reading an .aml source, located by line and column (both starting at 1).
+ */
+public class AmlSyntaxException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int line;
+	private final int column;
+
+	public AmlSyntaxException(String message, int line, int column) {
+		super(message + " at line " + line + ", column " + column);
+		this.line = line;
+		this.column = column;
+	}
+
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+}
@@ -0,0 +1,46 @@
+package io.github.mosser.arduinoml.kernel.aml;
+
+/**
+ * Lexical unit of the .aml syntax. Keywords are returned as ID tokens, the parser checks their text.
+ */
+public class AmlToken {
+
+	public enum Kind {ID, INT, LBRACE, RBRACE, LPAREN, RPAREN, COLON, COMMA, ASSIGN, ARROW, EOF}
+
+	private final Kind kind;
+	private final String text;
+	private final int line;
+	private final int column;
+
+	AmlToken(Kind kind, String text, int line, int column) {
+		this.kind = kind;
+		this.text = text;
+		this.line = line;
+		this.column = column;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public boolean is(String keyword) {
+		return kind == Kind.ID && text.equals(keyword);
+	}
+
+	@Override
+	public String toString() {
+		return kind == Kind.EOF ? "end of file" : "'" + text + "'";
+	}
+}
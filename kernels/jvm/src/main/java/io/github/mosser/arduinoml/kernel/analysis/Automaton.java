@@ -0,0 +1,275 @@
+package io.github.mosser.arduinoml.kernel.analysis;
+
+import io.github.mosser.arduinoml.kernel.frozen.FrozenApp;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Step semantics of an App, as implemented by the loop generated by ToWiring.
+ *
+ * A configuration is, for each state machine (the app, then each region), its current state and the time spent
+ * in it, then the level of each actuator. One step is one iteration of the loop: the actions of the current
+ * state are written, its regions are stepped, then its transitions are checked one after the other. A firing
+ * transition restarts the debounce of every sensor of its condition, so later checks of the same iteration see
+ * these sensors as not pressed, and the last firing transition wins. Steps are assumed to be more than the
+ * debounce delay apart, and time only passes when waiting for the next expiring delay. When the app has edge
+ * conditions, the configuration also keeps the level each sensor had at the previous step (LOW at first).
+ *
+ * Analog sensors are sampled at every step, to one of the values of their Analog input. Each threshold keeps its
+ * flag in the configuration (false at first), set and released by the samples as in the generated code. A sensor
+ * which is not an input of the automaton stays LOW, or at 0 for an analog one.
+ *
+ * The app is walked in its frozen form, the state of a machine being stored relative to its first state.
+ */
+class Automaton {
+
+	static final int LOW = 0;
+	static final int HIGH = 1;
+	// an error state blinks its code: the level of its actuator is BLINK + code
+	static final int BLINK = 2;
+
+	private final FrozenApp app;
+	private final int machines;
+	// longest delay of each machine, its clock is not counted further
+	private final int[] maxDelay;
+	// sensor bricks with their input index, output index of each brick (-1 for sensors)
+	private final int[] sensorBricks;
+	private final int[] sensorInputs;
+	private final int sensorCount;
+	private final int[] output;
+	private final int outputCount;
+	private final int inputCount;
+	private final boolean edges;
+	// analog input of each threshold, null if its sensor is not an input
+	private final Analog[] thresholdInputs;
+
+	/**
+	 * Values an analog sensor is sampled to, as an input of the automaton read from the bits shift to shift + bits
+	 * of the inputs of a step (the highest value when these bits go past the last one).
+	 */
+	static class Analog {
+		final int shift;
+		final int bits;
+		final int[] values;
+
+		Analog(int shift, int[] values) {
+			this.shift = shift;
+			this.bits = 32 - Integer.numberOfLeadingZeros(values.length - 1);
+			this.values = values;
+		}
+
+		int sample(long inputs) {
+			int index = (int) (inputs >>> shift & ((1L << bits) - 1));
+			return values[Math.min(index, values.length - 1)];
+		}
+	}
+
+	// inputs are the digital sensors by pin, then the analog ones
+	Automaton(FrozenApp app, Map<Integer, Integer> inputs, Map<Integer, Analog> analog, Map<Integer, Integer> outputs) {
+		this.app = app;
+		this.machines = app.machineCount();
+		this.maxDelay = new int[machines];
+		for (int state = 0; state < app.stateCount(); state++) {
+			for (int t = app.firstTransition(state); t < app.firstTransition(state + 1); t++) {
+				if (app.isTimed(t)) {
+					int m = app.stateMachine(state);
+					maxDelay[m] = Math.max(maxDelay[m], app.delay(t));
+				}
+			}
+		}
+		int sensors = 0;
+		this.sensorBricks = new int[app.brickCount()];
+		this.sensorInputs = new int[app.brickCount()];
+		this.output = new int[app.brickCount()];
+		Arrays.fill(output, -1);
+		for (int b = 0; b < app.brickCount(); b++) {
+			if (app.isSensor(b)) {
+				Integer input = inputs.get(app.brickPin(b));
+				if (input != null) {
+					sensorBricks[sensors] = b;
+					sensorInputs[sensors++] = input;
+				}
+			} else {
+				output[b] = outputs.get(app.brickPin(b));
+			}
+		}
+		this.sensorCount = sensors;
+		this.outputCount = outputs.size();
+		this.inputCount = inputs.size();
+		this.edges = app.hasEdges();
+		this.thresholdInputs = new Analog[app.thresholdCount()];
+		for (int t = 0; t < thresholdInputs.length; t++) {
+			thresholdInputs[t] = analog.get(app.brickPin(app.thresholdBrick(t)));
+		}
+	}
+
+	/*******************
+	 ** Configuration **
+	 *******************/
+
+	// current state then clock of each machine, then the level of each output, then the previous level of each
+	// digital input, then the flag of each threshold
+	int[] initial() {
+		int[] config = new int[2 * machines + outputCount + inputCount + thresholdInputs.length];
+		config[0] = app.machineInitial(0) - app.firstState(0);
+		enter(config, app.machineInitial(0));
+		return config;
+	}
+
+	// number of bits needed by each field of a configuration
+	int[] widths() {
+		int[] widths = new int[2 * machines + outputCount + inputCount + thresholdInputs.length];
+		for (int m = 0; m < machines; m++) {
+			widths[2 * m] = bits(app.firstState(m + 1) - app.firstState(m) - 1);
+			widths[2 * m + 1] = bits(maxDelay[m]);
+		}
+		int maxLevel = HIGH;
+		for (int state = 0; state < app.stateCount(); state++) {
+			if (app.isError(state)) {
+				maxLevel = Math.max(maxLevel, BLINK + app.errorCode(state));
+			}
+		}
+		for (int o = 0; o < outputCount; o++) {
+			widths[2 * machines + o] = bits(maxLevel);
+		}
+		// previous levels only matter to edges
+		for (int i = 0; i < inputCount; i++) {
+			widths[2 * machines + outputCount + i] = edges ? 1 : 0;
+		}
+		for (int t = 0; t < thresholdInputs.length; t++) {
+			widths[2 * machines + outputCount + inputCount + t] = 1;
+		}
+		return widths;
+	}
+
+	int level(int[] config, int output) {
+		return config[2 * machines + output];
+	}
+
+	private static int bits(int max) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(max, 0));
+	}
+
+	/**********
+	 ** Time **
+	 **********/
+
+	// time before the next delay of an active state expires, 0 if none is pending
+	int nextTimeout(int[] config) {
+		int best = nextTimeout(config, 0, Integer.MAX_VALUE);
+		return best == Integer.MAX_VALUE ? 0 : best;
+	}
+
+	private int nextTimeout(int[] config, int m, int best) {
+		int state = app.firstState(m) + config[2 * m];
+		int clock = config[2 * m + 1];
+		for (int t = app.firstTransition(state); t < app.firstTransition(state + 1); t++) {
+			if (app.isTimed(t) && app.delay(t) > clock) {
+				best = Math.min(best, app.delay(t) - clock);
+			}
+		}
+		for (int r = app.firstRegion(state); r < app.firstRegion(state + 1); r++) {
+			best = nextTimeout(config, r, best);
+		}
+		return best;
+	}
+
+	// clocks are only counted up to the longest delay of their machine
+	void elapse(int[] config, int millis) {
+		for (int m = 0; m < machines; m++) {
+			long clock = (long) config[2 * m + 1] + millis;
+			config[2 * m + 1] = (int) Math.min(clock, maxDelay[m]);
+		}
+	}
+
+	/**********
+	 ** Step **
+	 **********/
+
+	// one iteration of the loop, with sensors read as the bits of the given inputs
+	void step(int[] config, long sensors) {
+		// the same levels, as bits of the brick numbers of the app
+		int inputs = 2 * machines + outputCount;
+		long[] high = new long[app.words()];
+		long[] previous = new long[app.words()];
+		for (int s = 0; s < sensorCount; s++) {
+			int brick = sensorBricks[s];
+			high[brick >>> 6] |= (sensors >>> sensorInputs[s] & 1) << brick;
+			previous[brick >>> 6] |= (long) config[inputs + sensorInputs[s]] << brick;
+		}
+		int flags = inputs + inputCount;
+		for (int t = 0; t < thresholdInputs.length; t++) {
+			if (latch(t, thresholdInputs[t] == null ? 0 : thresholdInputs[t].sample(sensors), config[flags + t] != 0)) {
+				config[flags + t] = 1;
+				int input = app.thresholdInput(t);
+				high[input >>> 6] |= 1L << input;
+			} else {
+				config[flags + t] = 0;
+			}
+		}
+		step(config, 0, high, previous, new long[app.words()]);
+		if (edges) {
+			for (int i = 0; i < inputCount; i++) {
+				config[inputs + i] = (int) (sensors >>> i & 1);
+			}
+		}
+	}
+
+	// the flag of a threshold after a sample, as updated by the generated code
+	private boolean latch(int threshold, int sample, boolean flag) {
+		int value = app.thresholdValue(threshold);
+		int hysteresis = app.hysteresis(threshold);
+		boolean above = app.isAbove(threshold);
+		boolean set = above ? sample > value : sample < value;
+		if (set || hysteresis == 0) {
+			return set;
+		}
+		boolean release = above ? sample < value - hysteresis : sample > value + hysteresis;
+		return flag && !release;
+	}
+
+	private void step(int[] config, int m, long[] high, long[] previous, long[] consumed) {
+		int state = app.firstState(m) + config[2 * m];
+		for (int a = app.firstAction(state); a < app.firstAction(state + 1); a++) {
+			write(config, app.actionBrick(a), app.actionLevel(a) == FrozenApp.HIGH ? HIGH : LOW);
+		}
+		if (app.isError(state)) {
+			write(config, app.errorBrick(state), BLINK + app.errorCode(state));
+			return;
+		}
+		for (int r = app.firstRegion(state); r < app.firstRegion(state + 1); r++) {
+			step(config, r, high, previous, consumed);
+		}
+		for (int t = app.firstTransition(state); t < app.firstTransition(state + 1); t++) {
+			if (app.isTimed(t)) {
+				if (config[2 * m + 1] >= app.delay(t)) {
+					goTo(config, m, app.transitionTarget(t));
+				}
+			} else if (app.holds(t, high, previous, consumed)) {
+				app.sensorsOf(t, consumed);
+				goTo(config, m, app.transitionTarget(t));
+			}
+		}
+	}
+
+	// transitions were checked to stay in their machine when the app was frozen
+	private void goTo(int[] config, int m, int next) {
+		config[2 * m] = next - app.firstState(m);
+		config[2 * m + 1] = 0;
+		enter(config, next);
+	}
+
+	private void enter(int[] config, int state) {
+		for (int r = app.firstRegion(state); r < app.firstRegion(state + 1); r++) {
+			int initial = app.machineInitial(r);
+			config[2 * r] = initial - app.firstState(r);
+			config[2 * r + 1] = 0;
+			enter(config, initial);
+		}
+	}
+
+	private void write(int[] config, int brick, int level) {
+		config[2 * machines + output[brick]] = level;
+	}
+}
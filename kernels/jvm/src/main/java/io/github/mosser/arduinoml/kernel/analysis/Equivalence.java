@@ -0,0 +1,101 @@
+package io.github.mosser.arduinoml.kernel.analysis;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of EquivalenceChecker: either both apps behave the same, or a shortest sequence of inputs after which
+ * their actuators differ.
+ */
+public class Equivalence {
+
+	/**
+	 * One iteration of the loop: the level of each sensor and the sample of each analog sensor (by pin), after
+	 * waiting for the next delay to expire when wait is set.
+	 */
+	public static class Input {
+		private final Map<Integer, Boolean> sensors;
+		private final Map<Integer, Integer> samples;
+		private final int wait;
+
+		Input(Map<Integer, Boolean> sensors, Map<Integer, Integer> samples, int wait) {
+			this.sensors = sensors;
+			this.samples = samples;
+			this.wait = wait;
+		}
+
+		public Map<Integer, Boolean> getSensors() {
+			return Collections.unmodifiableMap(sensors);
+		}
+
+		public Map<Integer, Integer> getSamples() {
+			return Collections.unmodifiableMap(samples);
+		}
+
+		// milliseconds waited before the iteration
+		public int getWait() {
+			return wait;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(wait > 0 ? "after " + wait + " ms" : "at once");
+			for (Map.Entry<Integer, Boolean> sensor : sensors.entrySet()) {
+				sb.append(", pin ").append(sensor.getKey()).append(sensor.getValue() ? " HIGH" : " LOW");
+			}
+			for (Map.Entry<Integer, Integer> sample : samples.entrySet()) {
+				sb.append(", pin ").append(sample.getKey()).append(" at ").append(sample.getValue());
+			}
+			return sb.toString();
+		}
+	}
+
+	private final List<Input> counterExample;
+	// actuator pin -> level in each app at the end of the counter example
+	private final Map<Integer, String> left;
+	private final Map<Integer, String> right;
+	private final int explored;
+
+	Equivalence(List<Input> counterExample, Map<Integer, String> left, Map<Integer, String> right, int explored) {
+		this.counterExample = counterExample;
+		this.left = left;
+		this.right = right;
+		this.explored = explored;
+	}
+
+	public boolean isEquivalent() {
+		return counterExample == null;
+	}
+
+	// null when the apps are equivalent
+	public List<Input> getCounterExample() {
+		return counterExample == null ? null : Collections.unmodifiableList(counterExample);
+	}
+
+	public Map<Integer, String> getLeftOutputs() {
+		return left;
+	}
+
+	public Map<Integer, String> getRightOutputs() {
+		return right;
+	}
+
+	// number of pairs of configurations visited
+	public int getExplored() {
+		return explored;
+	}
+
+	@Override
+	public String toString() {
+		if (isEquivalent()) {
+			return "Equivalent (" + explored + " configurations explored)";
+		}
+		StringBuilder sb = new StringBuilder("Not equivalent, after " + counterExample.size() + " step(s):\n");
+		for (int i = 0; i < counterExample.size(); i++) {
+			sb.append("  ").append(i + 1).append(". ").append(counterExample.get(i)).append("\n");
+		}
+		sb.append("  actuators: ").append(left).append(" vs ").append(right);
+		return sb.toString();
+	}
+}
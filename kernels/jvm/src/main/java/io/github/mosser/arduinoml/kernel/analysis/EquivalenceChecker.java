@@ -0,0 +1,317 @@
+package io.github.mosser.arduinoml.kernel.analysis;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.aml.AmlParser;
+import io.github.mosser.arduinoml.kernel.frozen.FrozenApp;
+import io.github.mosser.arduinoml.kernel.json.AppJsonReader;
+import io.github.mosser.arduinoml.kernel.structural.Actuator;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.Sensor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Checks that two apps behave the same over the sensors they share: from their initial states, whatever the
+ * levels of these sensors and the time waited between iterations, their actuators are always at the same levels
+ * (see Automaton for the step semantics). Bricks are matched by pin, so renamed bricks and states, restructured
+ * conditions or models coming from another front end can be compared. A sensor plugged in one app only is left
+ * at rest (LOW, or 0 for an analog one), so two apps which only differ by such a sensor are equivalent as long
+ * as it is not used. Actuators are compared on every pin of either app, one missing in an app being LOW there.
+ *
+ * An analog sensor of both apps compared to thresholds is an input too. Its samples only matter through the
+ * thresholds of both apps on its pin, so it takes one value per distinct outcome of their comparisons.
+ *
+ * The product of both apps is explored breadth-first, each pair of configurations being packed into a few
+ * longs, so the first difference found comes with a shortest sequence of inputs leading to it.
+ *
+ * Usage: EquivalenceChecker left.json|left.aml right.json|right.aml
+ */
+public class EquivalenceChecker {
+
+	// bits of the inputs of a step
+	private static final int MAX_INPUTS = 20;
+
+	private EquivalenceChecker() {}
+
+	public static Equivalence check(App left, App right) {
+		FrozenApp frozenLeft = left.freeze();
+		FrozenApp frozenRight = right.freeze();
+		TreeMap<Integer, Integer> inputs = number(shared(pins(left, Sensor.class), pins(right, Sensor.class)));
+		TreeSet<Integer> actuators = pins(left, Actuator.class);
+		actuators.addAll(pins(right, Actuator.class));
+		TreeMap<Integer, Integer> outputs = number(actuators);
+		Set<Integer> analogPins = shared(pins(left, AnalogSensor.class), pins(right, AnalogSensor.class));
+		TreeMap<Integer, Automaton.Analog> analog = analog(inputs.size(), analogPins, frozenLeft, frozenRight);
+		int bits = inputs.size();
+		for (Automaton.Analog input : analog.values()) {
+			bits += input.bits;
+		}
+		if (bits > MAX_INPUTS) {
+			throw new IllegalArgumentException("Too many sensors to explore every input: " + bits + " bits");
+		}
+		Automaton a = new Automaton(frozenLeft, inputs, analog, outputs);
+		Automaton b = new Automaton(frozenRight, inputs, analog, outputs);
+		Packing packing = new Packing(a.widths(), b.widths());
+
+		int[] start = concat(a.initial(), b.initial());
+		Map<Key, Parent> parents = new HashMap<>();
+		Key startKey = packing.pack(start);
+		parents.put(startKey, null);
+		int split = a.widths().length;
+		if (differ(a, b, start, split, outputs.size())) {
+			return result(parents, startKey, a, b, start, split, inputs, analog, outputs);
+		}
+
+		Deque<int[]> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			int[] config = queue.poll();
+			Key key = packing.pack(config);
+			int[] waits = waits(a, b, config, split);
+			for (long sensors = 0; sensors < 1L << bits; sensors++) {
+				for (int wait : waits) {
+					int[] ca = Arrays.copyOfRange(config, 0, split);
+					int[] cb = Arrays.copyOfRange(config, split, config.length);
+					a.elapse(ca, wait);
+					b.elapse(cb, wait);
+					a.step(ca, sensors);
+					b.step(cb, sensors);
+					int[] next = concat(ca, cb);
+					Key nextKey = packing.pack(next);
+					if (parents.containsKey(nextKey)) {
+						continue;
+					}
+					parents.put(nextKey, new Parent(key, sensors, wait));
+					if (differ(a, b, next, split, outputs.size())) {
+						return result(parents, nextKey, a, b, next, split, inputs, analog, outputs);
+					}
+					queue.add(next);
+				}
+			}
+		}
+		return new Equivalence(null, null, null, parents.size());
+	}
+
+	// iterations happen right away, or once the next delay of either app has expired
+	private static int[] waits(Automaton a, Automaton b, int[] config, int split) {
+		int ta = a.nextTimeout(Arrays.copyOfRange(config, 0, split));
+		int tb = b.nextTimeout(Arrays.copyOfRange(config, split, config.length));
+		int next = ta == 0 ? tb : tb == 0 ? ta : Math.min(ta, tb);
+		return next == 0 ? new int[]{0} : new int[]{0, next};
+	}
+
+	private static boolean differ(Automaton a, Automaton b, int[] config, int split, int outputs) {
+		int[] cb = Arrays.copyOfRange(config, split, config.length);
+		for (int o = 0; o < outputs; o++) {
+			if (a.level(config, o) != b.level(cb, o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Equivalence result(Map<Key, Parent> parents, Key last, Automaton a, Automaton b, int[] config,
+			int split, TreeMap<Integer, Integer> inputs, TreeMap<Integer, Automaton.Analog> analog,
+			TreeMap<Integer, Integer> outputs) {
+		LinkedList<Equivalence.Input> steps = new LinkedList<>();
+		for (Parent parent = parents.get(last); parent != null; parent = parents.get(parent.key)) {
+			Map<Integer, Boolean> levels = new TreeMap<>();
+			for (Map.Entry<Integer, Integer> input : inputs.entrySet()) {
+				levels.put(input.getKey(), (parent.sensors >>> input.getValue() & 1) != 0);
+			}
+			Map<Integer, Integer> samples = new TreeMap<>();
+			for (Map.Entry<Integer, Automaton.Analog> input : analog.entrySet()) {
+				samples.put(input.getKey(), input.getValue().sample(parent.sensors));
+			}
+			steps.addFirst(new Equivalence.Input(levels, samples, parent.wait));
+		}
+		int[] cb = Arrays.copyOfRange(config, split, config.length);
+		Map<Integer, String> left = new TreeMap<>();
+		Map<Integer, String> right = new TreeMap<>();
+		for (Map.Entry<Integer, Integer> output : outputs.entrySet()) {
+			left.put(output.getKey(), level(a.level(config, output.getValue())));
+			right.put(output.getKey(), level(b.level(cb, output.getValue())));
+		}
+		return new Equivalence(steps, left, right, parents.size());
+	}
+
+	private static String level(int level) {
+		return level == Automaton.LOW ? "LOW" : level == Automaton.HIGH ? "HIGH" : "BLINK " + (level - Automaton.BLINK);
+	}
+
+	// pins of the given kind of bricks, analog sensors only count as such
+	private static TreeSet<Integer> pins(App app, Class<? extends Brick> kind) {
+		TreeSet<Integer> pins = new TreeSet<>();
+		for (Brick brick : app.getBricks()) {
+			if (kind.isInstance(brick) && (kind == AnalogSensor.class || !(brick instanceof AnalogSensor))) {
+				pins.add(brick.getPin());
+			}
+		}
+		return pins;
+	}
+
+	private static TreeSet<Integer> shared(TreeSet<Integer> left, TreeSet<Integer> right) {
+		left.retainAll(right);
+		return left;
+	}
+
+	// pins numbered in increasing order
+	private static TreeMap<Integer, Integer> number(TreeSet<Integer> pins) {
+		TreeMap<Integer, Integer> index = new TreeMap<>();
+		for (int pin : pins) {
+			index.put(pin, index.size());
+		}
+		return index;
+	}
+
+	// shared analog sensors compared to thresholds, with the values they are sampled to, after the first bits
+	private static TreeMap<Integer, Automaton.Analog> analog(int first, Set<Integer> pins, FrozenApp left,
+			FrozenApp right) {
+		TreeMap<Integer, TreeSet<Integer>> candidates = new TreeMap<>();
+		for (FrozenApp app : Arrays.asList(left, right)) {
+			for (int t = 0; t < app.thresholdCount(); t++) {
+				if (!pins.contains(app.brickPin(app.thresholdBrick(t)))) {
+					continue;
+				}
+				TreeSet<Integer> values = candidates.computeIfAbsent(app.brickPin(app.thresholdBrick(t)),
+						pin -> new TreeSet<>(Arrays.asList(0, 1023)));
+				int value = app.thresholdValue(t);
+				int hysteresis = app.hysteresis(t);
+				// comparisons only change around these values
+				for (int bound : new int[]{value, value - hysteresis, value + hysteresis}) {
+					for (int near = bound - 1; near <= bound + 1; near++) {
+						values.add(Math.max(0, Math.min(1023, near)));
+					}
+				}
+			}
+		}
+		TreeMap<Integer, Automaton.Analog> analog = new TreeMap<>();
+		int shift = first;
+		for (Map.Entry<Integer, TreeSet<Integer>> pin : candidates.entrySet()) {
+			// a single value for each outcome of the comparisons of both apps
+			Map<List<Boolean>, Integer> outcomes = new LinkedHashMap<>();
+			for (int value : pin.getValue()) {
+				List<Boolean> outcome = new ArrayList<>();
+				compare(left, pin.getKey(), value, outcome);
+				compare(right, pin.getKey(), value, outcome);
+				outcomes.putIfAbsent(outcome, value);
+			}
+			int[] values = new int[outcomes.size()];
+			int i = 0;
+			for (int value : outcomes.values()) {
+				values[i++] = value;
+			}
+			Automaton.Analog input = new Automaton.Analog(shift, values);
+			analog.put(pin.getKey(), input);
+			shift += input.bits;
+		}
+		return analog;
+	}
+
+	// whether a sample sets, then releases, each threshold of an app on the given pin
+	private static void compare(FrozenApp app, int pin, int sample, List<Boolean> outcome) {
+		for (int t = 0; t < app.thresholdCount(); t++) {
+			if (app.brickPin(app.thresholdBrick(t)) == pin) {
+				int value = app.thresholdValue(t);
+				int hysteresis = app.hysteresis(t);
+				outcome.add(app.isAbove(t) ? sample > value : sample < value);
+				outcome.add(app.isAbove(t) ? sample < value - hysteresis : sample > value + hysteresis);
+			}
+		}
+	}
+
+	private static int[] concat(int[] a, int[] b) {
+		int[] ab = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, ab, a.length, b.length);
+		return ab;
+	}
+
+	/**********************
+	 ** Compact encoding **
+	 **********************/
+
+	// every field of a pair of configurations is packed on the bits it needs
+	private static class Packing {
+		final int[] widths;
+		final int words;
+
+		Packing(int[] left, int[] right) {
+			widths = concat(left, right);
+			int bits = 0;
+			for (int width : widths) {
+				bits += width;
+			}
+			words = Math.max(1, (bits + 63) / 64);
+		}
+
+		Key pack(int[] config) {
+			long[] packed = new long[words];
+			int bit = 0;
+			for (int i = 0; i < config.length; i++) {
+				long value = config[i];
+				for (int b = 0; b < widths[i]; b++, bit++) {
+					if ((value >>> b & 1) != 0) {
+						packed[bit >>> 6] |= 1L << (bit & 63);
+					}
+				}
+			}
+			return new Key(packed);
+		}
+	}
+
+	private static class Key {
+		final long[] bits;
+		final int hash;
+
+		Key(long[] bits) {
+			this.bits = bits;
+			this.hash = Arrays.hashCode(bits);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(bits, ((Key) o).bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static class Parent {
+		final Key key;
+		final long sensors;
+		final int wait;
+
+		Parent(Key key, long sensors, int wait) {
+			this.key = key;
+			this.sensors = sensors;
+			this.wait = wait;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("/!\\ Usage: EquivalenceChecker left.json|left.aml right.json|right.aml");
+			return;
+		}
+		Equivalence equivalence = check(read(args[0]), read(args[1]));
+		System.out.println(equivalence);
+		if (!equivalence.isEquivalent()) {
+			System.exit(1);
+		}
+	}
+
+	private static App read(String file) throws IOException {
+		try (Reader source = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+			return file.endsWith(".json") ? AppJsonReader.read(source) : AmlParser.parse(source);
+		}
+	}
+}
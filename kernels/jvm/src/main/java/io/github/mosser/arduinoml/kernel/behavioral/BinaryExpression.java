@@ -1,5 +1,10 @@
 package io.github.mosser.arduinoml.kernel.behavioral;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
 public abstract class BinaryExpression extends Expression {
     private Expression leftExpression;
     private Expression rightExpression;
@@ -9,14 +14,33 @@ public abstract class BinaryExpression extends Expression {
     }
 
     public void setLeftExpression(Expression leftExpression) {
+        checkNotShared();
         this.leftExpression = leftExpression;
     }
 
+    // operands of the chain of this operator rooted here, from left to right: ((a && b) && (c || d)) gives a, b, (c || d)
+    public List<Expression> operands() {
+        List<Expression> operands = new ArrayList<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Expression expression = pending.pop();
+            if (expression.getClass() == getClass()) {
+                pending.push(((BinaryExpression) expression).getRightExpression());
+                pending.push(((BinaryExpression) expression).getLeftExpression());
+            } else {
+                operands.add(expression);
+            }
+        }
+        return operands;
+    }
+
     public Expression getRightExpression() {
         return rightExpression;
     }
 
     public void setRightExpression(Expression rightExpression) {
+        checkNotShared();
         this.rightExpression = rightExpression;
     }
 }
@@ -1,18 +1,22 @@
 package io.github.mosser.arduinoml.kernel.behavioral;
 
 import io.github.mosser.arduinoml.kernel.generator.Visitor;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
 import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
 import io.github.mosser.arduinoml.kernel.structural.Sensor;
 
 public class Condition extends Expression {
     private Sensor sensor;
     private SIGNAL value;
+    // null for a level check, otherwise the condition only holds during the loop where the sensor changed
+    private EDGE edge;
 
     public Sensor getSensor() {
         return sensor;
     }
 
     public void setSensor(Sensor sensor) {
+        checkNotShared();
         this.sensor = sensor;
     }
 
@@ -21,9 +25,23 @@ public class Condition extends Expression {
     }
 
     public void setValue(SIGNAL value) {
+        checkNotShared();
         this.value = value;
     }
 
+    public EDGE getEdge() {
+        return edge;
+    }
+
+    // the value becomes the level reached by the edge
+    public void setEdge(EDGE edge) {
+        checkNotShared();
+        this.edge = edge;
+        if (edge != null) {
+            this.value = edge.getLevel();
+        }
+    }
+
     @Override
     public void accept(Visitor visitor) {
         visitor.visit(this);
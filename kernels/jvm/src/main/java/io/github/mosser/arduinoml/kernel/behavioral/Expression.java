@@ -2,6 +2,45 @@ package io.github.mosser.arduinoml.kernel.behavioral;
 
 import io.github.mosser.arduinoml.kernel.generator.Visitor;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
 public abstract class Expression {
+    // set by ExpressionFactory: the expression may be used by many transitions, so it cannot change anymore
+    private boolean shared = false;
+
     public abstract void accept(Visitor visitor);
+
+    // conditions and thresholds of the expression, from left to right; iterative, so that deep expressions are fine
+    public List<Expression> leaves() {
+        List<Expression> leaves = new ArrayList<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Expression expression = pending.pop();
+            if (expression instanceof BinaryExpression) {
+                pending.push(((BinaryExpression) expression).getRightExpression());
+                pending.push(((BinaryExpression) expression).getLeftExpression());
+            } else {
+                leaves.add(expression);
+            }
+        }
+        return leaves;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    void share() {
+        this.shared = true;
+    }
+
+    protected void checkNotShared() {
+        if (shared) {
+            throw new IllegalStateException("A shared expression cannot be changed, build another one with ExpressionFactory");
+        }
+    }
 }
@@ -0,0 +1,253 @@
+package io.github.mosser.arduinoml.kernel.behavioral;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
+import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
+import io.github.mosser.arduinoml.kernel.structural.Sensor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Hash-consing factory for expressions: two structurally identical expressions built by the same factory are the
+ * same object, so thousands of transitions testing the same sensors hold each condition once, and two expressions
+ * are equal exactly when they are the same reference.
+ *
+ * Expressions returned by the factory are shared, their setters throw. Operands built elsewhere are interned
+ * first. The factory is only needed while a model is built, it is not thread-safe: one factory per model.
+ *
+ * Long conjunctions and disjunctions are built as balanced trees (see and(List) and or(List)), so that their depth
+ * grows with the logarithm of their size, and expressions are walked without recursion.
+ */
+public class ExpressionFactory {
+
+	// structure of each expression (its class, then its sensor and values, or its interned operands) -> its instance
+	private final Map<List<Object>, Expression> expressions = new HashMap<>();
+
+	/**
+	 * Interns the guard of every signal transition of the app (regions included), balanced, for models that were not
+	 * built through a factory, e.g. by an importer.
+	 */
+	public static void share(App app) {
+		new ExpressionFactory().balance(app);
+	}
+
+	// balances the guards of the app, e.g. once a DSL has built them by folding its operators left to right
+	public void balance(App app) {
+		balance(app.getStates());
+	}
+
+	private void balance(List<State> states) {
+		for (State state : states) {
+			for (Transition transition : state.getTransitions()) {
+				if (transition instanceof SignalTransition) {
+					SignalTransition signal = (SignalTransition) transition;
+					signal.setExpression(balance(signal.getExpression()));
+				}
+			}
+			for (Region region : state.getRegions()) {
+				balance(region.getStates());
+			}
+		}
+	}
+
+	public Condition condition(Sensor sensor, SIGNAL value) {
+		return (Condition) lookup(Arrays.asList(Condition.class, sensor, value, null), () -> {
+			Condition condition = new Condition();
+			condition.setSensor(sensor);
+			condition.setValue(value);
+			return condition;
+		});
+	}
+
+	public Condition edge(Sensor sensor, EDGE edge) {
+		return (Condition) lookup(Arrays.asList(Condition.class, sensor, edge.getLevel(), edge), () -> {
+			Condition condition = new Condition();
+			condition.setSensor(sensor);
+			condition.setEdge(edge);
+			return condition;
+		});
+	}
+
+	public Threshold threshold(AnalogSensor sensor, Threshold.Direction direction, int value, int hysteresis) {
+		return (Threshold) lookup(Arrays.asList(Threshold.class, sensor, direction, value, hysteresis), () -> {
+			Threshold threshold = new Threshold();
+			threshold.setSensor(sensor);
+			threshold.setDirection(direction);
+			threshold.setValue(value);
+			threshold.setHysteresis(hysteresis);
+			return threshold;
+		});
+	}
+
+	public And and(Expression left, Expression right) {
+		return (And) binary(And.class, And::new, intern(left), intern(right));
+	}
+
+	public Or or(Expression left, Expression right) {
+		return (Or) binary(Or.class, Or::new, intern(left), intern(right));
+	}
+
+	// conjunction of the operands (at least one), as a balanced tree keeping their order
+	public Expression and(List<? extends Expression> operands) {
+		return balanced(operands, true);
+	}
+
+	// disjunction of the operands (at least one), as a balanced tree keeping their order
+	public Expression or(List<? extends Expression> operands) {
+		return balanced(operands, false);
+	}
+
+	// pairs neighbours until one is left: ((a b) (c d)) e for five operands
+	private Expression balanced(List<? extends Expression> operands, boolean and) {
+		if (operands.isEmpty()) {
+			throw new IllegalArgumentException("No operand to combine");
+		}
+		List<Expression> level = new ArrayList<>(operands);
+		while (level.size() > 1) {
+			List<Expression> next = new ArrayList<>((level.size() + 1) / 2);
+			for (int i = 0; i + 1 < level.size(); i += 2) {
+				next.add(and ? and(level.get(i), level.get(i + 1)) : or(level.get(i), level.get(i + 1)));
+			}
+			if (level.size() % 2 == 1) {
+				next.add(level.get(level.size() - 1));
+			}
+			level = next;
+		}
+		return intern(level.get(0));
+	}
+
+	/**
+	 * The shared instance of an expression: the expression itself when this factory built it, otherwise the
+	 * instance of the same structure, created if needed.
+	 */
+	public Expression intern(Expression expression) {
+		return rebuild(expression, false);
+	}
+
+	/**
+	 * The shared instance of an expression where every chain of the same operator is rebuilt as a balanced tree,
+	 * e.g. the left-deep (((a && b) && c) && d) built by folding becomes ((a && b) && (c && d)).
+	 */
+	public Expression balance(Expression expression) {
+		return rebuild(expression, true);
+	}
+
+	// operands before operators, with an explicit stack; each node of a shared subexpression is rebuilt once
+	private Expression rebuild(Expression root, boolean balanced) {
+		if (isInterned(root)) {
+			return root;
+		}
+		Map<Expression, Expression> built = new IdentityHashMap<>();
+		Deque<Expression> pending = new ArrayDeque<>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			Expression expression = pending.peek();
+			if (built.containsKey(expression)) {
+				pending.pop();
+				continue;
+			}
+			if (!(expression instanceof BinaryExpression) || (!balanced && isInterned(expression))) {
+				built.put(expression, leaf(expression));
+				pending.pop();
+				continue;
+			}
+			BinaryExpression binary = (BinaryExpression) expression;
+			List<Expression> operands = balanced ? binary.operands()
+					: Arrays.asList(binary.getLeftExpression(), binary.getRightExpression());
+			boolean ready = true;
+			for (Expression operand : operands) {
+				if (!built.containsKey(operand)) {
+					pending.push(operand);
+					ready = false;
+				}
+			}
+			if (ready) {
+				pending.pop();
+				List<Expression> shared = new ArrayList<>(operands.size());
+				for (Expression operand : operands) {
+					shared.add(built.get(operand));
+				}
+				if (binary instanceof And) {
+					built.put(binary, and(shared));
+				} else if (binary instanceof Or) {
+					built.put(binary, or(shared));
+				} else {
+					throw new IllegalArgumentException("Unknown expression: " + binary);
+				}
+			}
+		}
+		return built.get(root);
+	}
+
+	private boolean isInterned(Expression expression) {
+		return expression.isShared() && expressions.get(key(expression)) == expression;
+	}
+
+	// the shared instance of a condition or a threshold, or of a binary expression built by this factory
+	private Expression leaf(Expression expression) {
+		if (isInterned(expression)) {
+			return expression;
+		}
+		if (expression instanceof Condition) {
+			Condition condition = (Condition) expression;
+			return condition.getEdge() != null
+					? edge(condition.getSensor(), condition.getEdge())
+					: condition(condition.getSensor(), condition.getValue());
+		}
+		if (expression instanceof Threshold) {
+			Threshold threshold = (Threshold) expression;
+			return threshold(threshold.getSensor(), threshold.getDirection(), threshold.getValue(),
+					threshold.getHysteresis());
+		}
+		throw new IllegalArgumentException("Unknown expression: " + expression);
+	}
+
+	// number of distinct expressions built so far
+	public int size() {
+		return expressions.size();
+	}
+
+	private Expression binary(Class<? extends BinaryExpression> kind, Supplier<BinaryExpression> create,
+			Expression left, Expression right) {
+		return lookup(Arrays.asList(kind, left, right), () -> {
+			BinaryExpression binary = create.get();
+			binary.setLeftExpression(left);
+			binary.setRightExpression(right);
+			return binary;
+		});
+	}
+
+	private Expression lookup(List<Object> key, Supplier<Expression> create) {
+		Expression expression = expressions.get(key);
+		if (expression == null) {
+			expression = create.get();
+			expression.share();
+			expressions.put(key, expression);
+		}
+		return expression;
+	}
+
+	// operands of a shared expression are shared too, so they are compared by reference
+	private static List<Object> key(Expression expression) {
+		if (expression instanceof Condition) {
+			Condition condition = (Condition) expression;
+			return Arrays.asList(Condition.class, condition.getSensor(), condition.getValue(), condition.getEdge());
+		}
+		if (expression instanceof Threshold) {
+			Threshold threshold = (Threshold) expression;
+			return Arrays.asList(Threshold.class, threshold.getSensor(), threshold.getDirection(),
+					threshold.getValue(), threshold.getHysteresis());
+		}
+		BinaryExpression binary = (BinaryExpression) expression;
+		return Arrays.asList(binary.getClass(), binary.getLeftExpression(), binary.getRightExpression());
+	}
+}
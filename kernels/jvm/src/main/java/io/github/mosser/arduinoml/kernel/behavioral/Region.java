@@ -0,0 +1,50 @@
+package io.github.mosser.arduinoml.kernel.behavioral;
+
+import io.github.mosser.arduinoml.kernel.NamedElement;
+import io.github.mosser.arduinoml.kernel.generator.Visitable;
+import io.github.mosser.arduinoml.kernel.generator.Visitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Orthogonal region of a State: its own states, initial state and current state, running concurrently with the
+ * other regions of the same State while this State is active. Transitions stay inside their region.
+ */
+public class Region implements NamedElement, Visitable {
+
+	private String name;
+	private List<State> states = new ArrayList<>();
+	private State initial;
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public List<State> getStates() {
+		return states;
+	}
+
+	public void setStates(List<State> states) {
+		this.states = states;
+	}
+
+	public State getInitial() {
+		return initial;
+	}
+
+	public void setInitial(State initial) {
+		this.initial = initial;
+	}
+
+	@Override
+	public void accept(Visitor visitor) {
+		visitor.visit(this);
+	}
+}
@@ -12,6 +12,7 @@ public class State implements NamedElement, Visitable {
 	private String name;
 	private List<Action> actions = new ArrayList<Action>();
 	private List<Transition> transitions = new ArrayList<>();
+	private List<Region> regions = new ArrayList<>();
 
 	@Override
 	public String getName() {
@@ -39,6 +40,14 @@ public class State implements NamedElement, Visitable {
 		this.transitions.add(t);
 	}
 
+	public List<Region> getRegions() {
+		return regions;
+	}
+
+	public void setRegions(List<Region> regions) {
+		this.regions = regions;
+	}
+
 	@Override
 	public void accept(Visitor visitor) {
 		visitor.visit(this);
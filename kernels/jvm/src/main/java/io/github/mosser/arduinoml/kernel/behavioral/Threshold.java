@@ -0,0 +1,60 @@
+package io.github.mosser.arduinoml.kernel.behavioral;
+
+import io.github.mosser.arduinoml.kernel.generator.Visitor;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
+
+/**
+ * Compares the last sample of an analog sensor (0 to 1023) to a threshold, with hysteresis: a condition above
+ * 600 with an hysteresis of 20 becomes true when the sample goes above 600, and only becomes false again once the
+ * sample goes below 580 (the other way round for below), so that a noisy input does not flip it back and forth.
+ */
+public class Threshold extends Expression {
+
+	public enum Direction {ABOVE, BELOW}
+
+	private AnalogSensor sensor;
+	private Direction direction;
+	private int value;
+	private int hysteresis;
+
+	public AnalogSensor getSensor() {
+		return sensor;
+	}
+
+	public void setSensor(AnalogSensor sensor) {
+		checkNotShared();
+		this.sensor = sensor;
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	public void setDirection(Direction direction) {
+		checkNotShared();
+		this.direction = direction;
+	}
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		checkNotShared();
+		this.value = value;
+	}
+
+	public int getHysteresis() {
+		return hysteresis;
+	}
+
+	public void setHysteresis(int hysteresis) {
+		checkNotShared();
+		this.hysteresis = hysteresis;
+	}
+
+	@Override
+	public void accept(Visitor visitor) {
+		visitor.visit(this);
+	}
+}
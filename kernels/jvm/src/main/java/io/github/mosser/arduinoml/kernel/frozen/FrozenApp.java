@@ -0,0 +1,682 @@
+package io.github.mosser.arduinoml.kernel.frozen;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.structural.BUS;
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
+import io.github.mosser.arduinoml.kernel.structural.Sensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, int-indexed form of an App (see App.freeze), for analyses that walk the same model many times.
+ *
+ * Every element is a number and every property a primitive array indexed by it. Names are interned in a symbol
+ * table. The elements of an element (the states of a machine, the actions, transitions and regions of a state) are
+ * contiguous, from first(element) to first(element + 1) excluded, as in a compressed sparse row matrix.
+ *
+ * Machines are the app (machine 0) then its regions. States are numbered as in TelemetryLayout: the app states,
+ * then the states of each region in turn. Transitions are numbered state after state, in declaration order.
+ * Guards are postfix sequences of tokens: a condition is 4 * input + 2 * edge (1 for an edge) + level (1 for HIGH),
+ * AND and OR pop two values. The inputs are the bricks, then the thresholds: a threshold is the flag latched by the
+ * generated code for each distinct comparison of an analog sensor, and its condition holds when the flag is set.
+ * Sets of inputs are bit sets, in words() longs.
+ */
+public final class FrozenApp {
+
+	public static final int AND = -1;
+	public static final int OR = -2;
+	public static final int HIGH = 1;
+	public static final int LOW = 0;
+	public static final int NONE = -1;
+
+	// interned names
+	private final String[] symbols;
+	private final int name;
+
+	private final int[] brickName;
+	private final int[] brickPin;
+	private final boolean[] brickSensor;
+
+	private final int[] machineName;
+	private final int[] machineParent;
+	private final int[] machineInitial;
+	private final int[] machineFirstState;
+
+	private final int[] stateName;
+	private final int[] stateMachine;
+	private final int[] stateErrorCode;
+	private final int[] stateErrorBrick;
+	private final int[] stateFirstAction;
+	private final int[] stateFirstTransition;
+	private final int[] stateFirstRegion;
+
+	private final int[] thresholdBrick;
+	private final boolean[] thresholdAbove;
+	private final int[] thresholdValue;
+	private final int[] thresholdHysteresis;
+
+	private final int[] actionBrick;
+	private final int[] actionLevel;
+
+	private final int[] transitionTarget;
+	private final int[] transitionDelay;
+	private final int[] transitionFirstToken;
+	private final int[] tokens;
+	// deepest operands stack needed by a guard
+	private final int guardDepth;
+
+	private final int lcdName;
+	private final BUS lcdBus;
+	private final String lcdPrefix;
+
+	public static FrozenApp of(App app) {
+		return new Freezer(app).freeze();
+	}
+
+	private FrozenApp(Freezer f) {
+		symbols = f.symbols.toArray(new String[0]);
+		name = f.name;
+		brickName = f.brickName.toArray();
+		brickPin = f.brickPin.toArray();
+		brickSensor = new boolean[brickName.length];
+		for (int b = 0; b < brickSensor.length; b++) {
+			brickSensor[b] = f.bricks.get(b) instanceof Sensor;
+		}
+		machineName = f.machineName.toArray();
+		machineParent = f.machineParent.toArray();
+		machineInitial = f.machineInitial.toArray();
+		machineFirstState = f.machineFirstState.toArray();
+		stateName = f.stateName.toArray();
+		stateMachine = f.stateMachine.toArray();
+		stateErrorCode = f.stateErrorCode.toArray();
+		stateErrorBrick = f.stateErrorBrick.toArray();
+		stateFirstAction = f.stateFirstAction.toArray();
+		stateFirstTransition = f.stateFirstTransition.toArray();
+		stateFirstRegion = f.stateFirstRegion.toArray();
+		thresholdBrick = f.thresholdBrick.toArray();
+		thresholdAbove = new boolean[thresholdBrick.length];
+		for (int t = 0; t < thresholdAbove.length; t++) {
+			thresholdAbove[t] = f.thresholdDirection.get(t) == HIGH;
+		}
+		thresholdValue = f.thresholdValue.toArray();
+		thresholdHysteresis = f.thresholdHysteresis.toArray();
+		actionBrick = f.actionBrick.toArray();
+		actionLevel = f.actionLevel.toArray();
+		transitionTarget = f.transitionTarget.toArray();
+		transitionDelay = f.transitionDelay.toArray();
+		transitionFirstToken = f.transitionFirstToken.toArray();
+		tokens = f.tokens.toArray();
+		guardDepth = f.guardDepth;
+		lcdName = f.lcdName;
+		lcdBus = f.lcdBus;
+		lcdPrefix = f.lcdPrefix;
+	}
+
+	/*************
+	 ** Symbols **
+	 *************/
+
+	public String symbol(int symbol) {
+		return symbols[symbol];
+	}
+
+	// NONE if no element has this name
+	public int symbolOf(String name) {
+		for (int s = 0; s < symbols.length; s++) {
+			if (symbols[s].equals(name)) {
+				return s;
+			}
+		}
+		return NONE;
+	}
+
+	public String getName() {
+		return name == NONE ? null : symbols[name];
+	}
+
+	/************
+	 ** Bricks **
+	 ************/
+
+	public int brickCount() {
+		return brickName.length;
+	}
+
+	public int brickName(int brick) {
+		return brickName[brick];
+	}
+
+	public int brickPin(int brick) {
+		return brickPin[brick];
+	}
+
+	public boolean isSensor(int brick) {
+		return brickSensor[brick];
+	}
+
+	// longs of a set of inputs
+	public int words() {
+		return (brickName.length + thresholdBrick.length + 63) >>> 6;
+	}
+
+	/****************
+	 ** Thresholds **
+	 ****************/
+
+	public int thresholdCount() {
+		return thresholdBrick.length;
+	}
+
+	// the input of a threshold in guards and sets of inputs
+	public int thresholdInput(int threshold) {
+		return brickName.length + threshold;
+	}
+
+	// the analog sensor compared
+	public int thresholdBrick(int threshold) {
+		return thresholdBrick[threshold];
+	}
+
+	public boolean isAbove(int threshold) {
+		return thresholdAbove[threshold];
+	}
+
+	public int thresholdValue(int threshold) {
+		return thresholdValue[threshold];
+	}
+
+	public int hysteresis(int threshold) {
+		return thresholdHysteresis[threshold];
+	}
+
+	/**************
+	 ** Machines **
+	 **************/
+
+	public int machineCount() {
+		return machineParent.length;
+	}
+
+	// name of the region, NONE for the app
+	public int machineName(int machine) {
+		return machineName[machine];
+	}
+
+	// state holding the region, NONE for the app
+	public int machineParent(int machine) {
+		return machineParent[machine];
+	}
+
+	public int machineInitial(int machine) {
+		return machineInitial[machine];
+	}
+
+	// the states of a machine are firstState(machine) to firstState(machine + 1) excluded
+	public int firstState(int machine) {
+		return machineFirstState[machine];
+	}
+
+	/************
+	 ** States **
+	 ************/
+
+	public int stateCount() {
+		return stateName.length;
+	}
+
+	public int stateName(int state) {
+		return stateName[state];
+	}
+
+	public int stateMachine(int state) {
+		return stateMachine[state];
+	}
+
+	public boolean isError(int state) {
+		return stateErrorBrick[state] != NONE;
+	}
+
+	public int errorCode(int state) {
+		return stateErrorCode[state];
+	}
+
+	public int errorBrick(int state) {
+		return stateErrorBrick[state];
+	}
+
+	// the actions of a state are firstAction(state) to firstAction(state + 1) excluded
+	public int firstAction(int state) {
+		return stateFirstAction[state];
+	}
+
+	public int firstTransition(int state) {
+		return stateFirstTransition[state];
+	}
+
+	// the regions of a state are machines, from firstRegion(state) to firstRegion(state + 1) excluded
+	public int firstRegion(int state) {
+		return stateFirstRegion[state];
+	}
+
+	/*************
+	 ** Actions **
+	 *************/
+
+	public int actionCount() {
+		return actionBrick.length;
+	}
+
+	public int actionBrick(int action) {
+		return actionBrick[action];
+	}
+
+	public int actionLevel(int action) {
+		return actionLevel[action];
+	}
+
+	/*****************
+	 ** Transitions **
+	 *****************/
+
+	public int transitionCount() {
+		return transitionTarget.length;
+	}
+
+	public int transitionTarget(int transition) {
+		return transitionTarget[transition];
+	}
+
+	public boolean isTimed(int transition) {
+		return transitionDelay[transition] != NONE;
+	}
+
+	public int delay(int transition) {
+		return transitionDelay[transition];
+	}
+
+	// the guard of a transition is token(firstToken(transition)) to token(firstToken(transition + 1)) excluded
+	public int firstToken(int transition) {
+		return transitionFirstToken[transition];
+	}
+
+	public int token(int index) {
+		return tokens[index];
+	}
+
+	// a brick, or thresholdInput(threshold)
+	public static int conditionInput(int token) {
+		return token >> 2;
+	}
+
+	// an edge condition holds when its brick just reached its level
+	public static boolean isEdge(int token) {
+		return (token & 2) != 0;
+	}
+
+	public static int conditionLevel(int token) {
+		return token & 1;
+	}
+
+	// evaluates the guard of a signal transition: a condition holds if its input is at its level in high (and was
+	// not in previous, for an edge), and is not one of the ignored inputs
+	public boolean holds(int transition, long[] high, long[] previous, long[] ignored) {
+		int first = transitionFirstToken[transition];
+		int last = transitionFirstToken[transition + 1];
+		if (guardDepth > 64) {
+			return holds(first, last, high, previous, ignored, new boolean[guardDepth]);
+		}
+		// operands stack, one bit per value
+		long stack = 0;
+		for (int t = first; t < last; t++) {
+			int token = tokens[t];
+			if (token >= 0) {
+				stack = stack << 1 | (condition(token, high, previous, ignored) ? 1 : 0);
+			} else {
+				long right = stack & 1;
+				long left = stack >>> 1 & 1;
+				stack = stack >>> 2 << 1 | (token == AND ? left & right : left | right);
+			}
+		}
+		return (stack & 1) != 0;
+	}
+
+	private boolean holds(int first, int last, long[] high, long[] previous, long[] ignored, boolean[] stack) {
+		int depth = 0;
+		for (int t = first; t < last; t++) {
+			int token = tokens[t];
+			if (token >= 0) {
+				stack[depth++] = condition(token, high, previous, ignored);
+			} else {
+				boolean right = stack[--depth];
+				boolean left = stack[depth - 1];
+				stack[depth - 1] = token == AND ? left && right : left || right;
+			}
+		}
+		return depth > 0 && stack[0];
+	}
+
+	private static boolean condition(int token, long[] high, long[] previous, long[] ignored) {
+		int input = conditionInput(token);
+		int level = conditionLevel(token);
+		return bit(ignored, input) == 0 && bit(high, input) == level
+				&& (!isEdge(token) || bit(previous, input) != level);
+	}
+
+	private static int bit(long[] set, int input) {
+		return (int) (set[input >>> 6] >>> input & 1);
+	}
+
+	// true if some guard has an edge condition
+	public boolean hasEdges() {
+		for (int token : tokens) {
+			if (token >= 0 && isEdge(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// adds the digital sensors read by the guard of a transition to a set of inputs, thresholds are left out
+	public void sensorsOf(int transition, long[] set) {
+		for (int t = transitionFirstToken[transition]; t < transitionFirstToken[transition + 1]; t++) {
+			int input = tokens[t] >= 0 ? conditionInput(tokens[t]) : NONE;
+			if (input != NONE && input < brickName.length) {
+				set[input >>> 6] |= 1L << input;
+			}
+		}
+	}
+
+	/*********
+	 ** LCD **
+	 *********/
+
+	public boolean hasLCD() {
+		return lcdBus != null;
+	}
+
+	public int lcdName() {
+		return lcdName;
+	}
+
+	public BUS lcdBus() {
+		return lcdBus;
+	}
+
+	public String lcdPrefix() {
+		return lcdPrefix;
+	}
+
+	/**************
+	 ** Freezing **
+	 **************/
+
+	private static class Freezer {
+		final App app;
+		final List<String> symbols = new ArrayList<>();
+		final Map<String, Integer> interned = new HashMap<>();
+		final List<Brick> bricks;
+		final Map<Brick, Integer> brickIndex = new IdentityHashMap<>();
+		final Map<State, Integer> stateIndex = new IdentityHashMap<>();
+		int name = NONE;
+		final Ints brickName = new Ints(), brickPin = new Ints();
+		final Ints machineName = new Ints(), machineParent = new Ints(), machineInitial = new Ints();
+		final Ints machineFirstState = new Ints();
+		final Ints stateName = new Ints(), stateMachine = new Ints(), stateErrorCode = new Ints();
+		final Ints stateErrorBrick = new Ints(), stateFirstAction = new Ints(), stateFirstTransition = new Ints();
+		final Ints stateFirstRegion = new Ints();
+		final Ints actionBrick = new Ints(), actionLevel = new Ints();
+		final Ints thresholdBrick = new Ints(), thresholdDirection = new Ints(), thresholdValue = new Ints();
+		final Ints thresholdHysteresis = new Ints();
+		// index of each distinct threshold: brick, direction, value and hysteresis
+		final Map<List<Integer>, Integer> thresholds = new HashMap<>();
+		final Ints transitionTarget = new Ints(), transitionDelay = new Ints(), transitionFirstToken = new Ints();
+		final Ints tokens = new Ints();
+		// token range of each guard already translated, by reference
+		final Map<Expression, int[]> guards = new IdentityHashMap<>();
+		int guardDepth = 0;
+		int lcdName = NONE;
+		BUS lcdBus;
+		String lcdPrefix;
+
+		Freezer(App app) {
+			this.app = app;
+			this.bricks = app.getBricks();
+		}
+
+		FrozenApp freeze() {
+			if (app.getInitial() == null) {
+				throw new IllegalArgumentException("App " + app.getName() + " has no initial state");
+			}
+			name = app.getName() == null ? NONE : intern(app.getName());
+			for (Brick brick : bricks) {
+				brickIndex.put(brick, brickIndex.size());
+				brickName.add(intern(brick.getName()));
+				brickPin.add(brick.getPin());
+			}
+
+			// machines and states, breadth-first so that the states of a machine are contiguous
+			List<State> states = new ArrayList<>();
+			List<List<State>> machines = new ArrayList<>();
+			List<State> initials = new ArrayList<>();
+			machines.add(app.getStates());
+			initials.add(app.getInitial());
+			machineName.add(NONE);
+			machineParent.add(NONE);
+			for (int m = 0; m < machines.size(); m++) {
+				machineFirstState.add(states.size());
+				for (State state : machines.get(m)) {
+					stateIndex.put(state, states.size());
+					stateMachine.add(m);
+					states.add(state);
+				}
+				// regions of the states of this machine, as the next machines
+				for (State state : machines.get(m)) {
+					stateFirstRegion.add(machines.size());
+					for (Region region : state.getRegions()) {
+						if (region.getInitial() == null || !region.getStates().contains(region.getInitial())) {
+							throw new IllegalArgumentException("Region " + region.getName() + " of state "
+									+ state.getName() + " needs an initial state among its own states");
+						}
+						machines.add(region.getStates());
+						initials.add(region.getInitial());
+						machineName.add(intern(region.getName()));
+						machineParent.add(stateIndex.get(state));
+					}
+				}
+			}
+			machineFirstState.add(states.size());
+			stateFirstRegion.add(machines.size());
+			for (State initial : initials) {
+				Integer index = stateIndex.get(initial);
+				if (index == null) {
+					throw new IllegalArgumentException("Initial state " + initial.getName() + " is not a state of "
+							+ app.getName());
+				}
+				machineInitial.add(index);
+			}
+
+			for (State state : states) {
+				stateName.add(intern(state.getName()));
+				if (state instanceof ErrorState) {
+					stateErrorCode.add(((ErrorState) state).getErrorCode());
+					stateErrorBrick.add(brick(((ErrorState) state).getActuator(), state));
+				} else {
+					stateErrorCode.add(0);
+					stateErrorBrick.add(NONE);
+				}
+				stateFirstAction.add(actionBrick.size());
+				for (Action action : state.getActions()) {
+					actionBrick.add(brick(action.getActuator(), state));
+					actionLevel.add(action.getValue() == SIGNAL.HIGH ? HIGH : LOW);
+				}
+				stateFirstTransition.add(transitionTarget.size());
+				for (Transition transition : state.getTransitions()) {
+					transition(state, transition);
+				}
+			}
+			stateFirstAction.add(actionBrick.size());
+			stateFirstTransition.add(transitionTarget.size());
+			transitionFirstToken.add(tokens.size());
+
+			if (app.getLCDDisplay() != null) {
+				lcdBus = app.getLCDDisplay().getBus();
+				lcdPrefix = app.getLCDDisplay().getPrefix();
+				if (app.getLCDDisplay().getBrick() != null) {
+					lcdName = intern(app.getLCDDisplay().getBrick().getName());
+				}
+			}
+			return new FrozenApp(this);
+		}
+
+		private void transition(State source, Transition transition) {
+			Integer target = stateIndex.get(transition.getNext());
+			if (target == null || stateMachine.get(target) != stateMachine.get(stateIndex.get(source))) {
+				String next = transition.getNext() == null ? "nowhere" : transition.getNext().getName();
+				throw new IllegalArgumentException("Transition from " + source.getName() + " to " + next
+						+ " leaves its region");
+			}
+			transitionTarget.add(target);
+			transitionFirstToken.add(tokens.size());
+			if (transition instanceof TimeTransition) {
+				transitionDelay.add(((TimeTransition) transition).getDelay());
+			} else {
+				transitionDelay.add(NONE);
+				Expression guard = ((SignalTransition) transition).getExpression();
+				// a guard shared by several transitions (see ExpressionFactory) is only translated once
+				int[] range = guards.get(guard);
+				if (range != null) {
+					for (int i = range[0]; i < range[1]; i++) {
+						tokens.add(tokens.get(i));
+					}
+				} else {
+					int first = tokens.size();
+					postfix(guard, source);
+					guards.put(guard, new int[] {first, tokens.size()});
+				}
+			}
+		}
+
+		// left operand, right operand, then operator; iterative, so that deep guards do not overflow the stack
+		private void postfix(Expression root, State source) {
+			int depth = 0;
+			Pending stack = new Pending();
+			stack.push(root, false);
+			while (!stack.isEmpty()) {
+				boolean visited = stack.topVisited();
+				Expression expression = stack.pop();
+				if (expression instanceof Condition) {
+					Condition condition = (Condition) expression;
+					int level = condition.getValue() == SIGNAL.HIGH ? HIGH : LOW;
+					int edge = condition.getEdge() != null ? 2 : 0;
+					tokens.add(4 * brick(condition.getSensor(), source) + edge + level);
+					guardDepth = Math.max(guardDepth, ++depth);
+				} else if (expression instanceof BinaryExpression) {
+					BinaryExpression binary = (BinaryExpression) expression;
+					if (visited) {
+						tokens.add(binary instanceof And ? AND : OR);
+						depth--;
+					} else {
+						stack.push(binary, true);
+						stack.push(binary.getRightExpression(), false);
+						stack.push(binary.getLeftExpression(), false);
+					}
+				} else if (expression instanceof Threshold) {
+					tokens.add(4 * (bricks.size() + threshold((Threshold) expression, source)) + HIGH);
+					guardDepth = Math.max(guardDepth, ++depth);
+				} else {
+					throw new IllegalArgumentException("Unsupported guard in state " + source.getName() + ": "
+							+ expression);
+				}
+			}
+		}
+
+		private int threshold(Threshold threshold, State source) {
+			int direction = threshold.getDirection() == Threshold.Direction.ABOVE ? HIGH : LOW;
+			List<Integer> key = Arrays.asList(brick(threshold.getSensor(), source), direction, threshold.getValue(),
+					threshold.getHysteresis());
+			return thresholds.computeIfAbsent(key, k -> {
+				thresholdBrick.add(k.get(0));
+				thresholdDirection.add(direction);
+				thresholdValue.add(threshold.getValue());
+				thresholdHysteresis.add(threshold.getHysteresis());
+				return thresholds.size();
+			});
+		}
+
+		private int brick(Brick brick, State state) {
+			Integer index = brickIndex.get(brick);
+			if (index == null) {
+				throw new IllegalArgumentException("State " + state.getName() + " uses "
+						+ (brick == null ? "no brick" : "the brick " + brick.getName()) + ", which is not a brick of "
+						+ app.getName());
+			}
+			return index;
+		}
+
+		private int intern(String name) {
+			return interned.computeIfAbsent(name, n -> {
+				symbols.add(n);
+				return symbols.size() - 1;
+			});
+		}
+	}
+
+	// expressions still to be written by postfix, with whether their operands were already pushed
+	private static class Pending {
+		private Expression[] expressions = new Expression[16];
+		private boolean[] visited = new boolean[16];
+		private int size = 0;
+
+		void push(Expression expression, boolean operandsDone) {
+			if (size == expressions.length) {
+				expressions = Arrays.copyOf(expressions, 2 * size);
+				visited = Arrays.copyOf(visited, 2 * size);
+			}
+			expressions[size] = expression;
+			visited[size++] = operandsDone;
+		}
+
+		boolean topVisited() {
+			return visited[size - 1];
+		}
+
+		Expression pop() {
+			return expressions[--size];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+	}
+
+	private static class Ints {
+		private int[] values = new int[16];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package io.github.mosser.arduinoml.kernel.generator;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.utils.Validator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a single sketch running several apps on the same board.
+ *
+ * Each app is generated by ToWiring as a module with its own namespace (state enum, state variable, debounce
+ * variables, LCD object), a setup function and a non-blocking step function. The shared loop() calls every
+ * step function in turn, so that the apps are scheduled round-robin.
+ */
+public class CompositeWiring {
+
+	private CompositeWiring() {}
+
+	public static String generate(List<App> apps) {
+		if (apps.isEmpty()) {
+			throw new IllegalArgumentException("At least one app is needed to generate a sketch");
+		}
+		Validator.validatePinUsage(apps);
+
+		List<String> namespaces = namespaces(apps);
+		StringBuilder sb = new StringBuilder();
+		sb.append("// Wiring code generated from several ArduinoML models\n");
+		sb.append("// Application names:");
+		for (App app : apps) {
+			sb.append(" ").append(app.getName());
+		}
+		sb.append("\n\nlong debounce = 200;\n");
+
+		for (int i = 0; i < apps.size(); i++) {
+			ToWiring module = new ToWiring(namespaces.get(i));
+			apps.get(i).accept(module);
+			sb.append("\n").append(module.getResult()).append("\n");
+		}
+
+		sb.append("\nvoid setup(){\n");
+		for (String namespace : namespaces) {
+			sb.append("  ").append(namespace).append("setup();\n");
+		}
+		sb.append("}\n");
+		sb.append("\nvoid loop() {\n");
+		for (String namespace : namespaces) {
+			sb.append("\t").append(namespace).append("step();\n");
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+
+	// app names turned into distinct C identifier prefixes, e.g. "Dual check" -> "Dual_check_"
+	private static List<String> namespaces(List<App> apps) {
+		List<String> namespaces = new ArrayList<>();
+		Set<String> used = new HashSet<>();
+		for (App app : apps) {
+			StringBuilder sb = new StringBuilder();
+			String name = app.getName() != null ? app.getName() : "";
+			for (char c : name.toCharArray()) {
+				sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+			}
+			if (sb.length() == 0 || Character.isDigit(sb.charAt(0))) {
+				sb.insert(0, "app");
+			}
+			String base = sb.toString();
+			String namespace = base;
+			for (int n = 2; !used.add(namespace); n++) {
+				namespace = base + n;
+			}
+			namespaces.add(namespace + "_");
+		}
+		return namespaces;
+	}
+}
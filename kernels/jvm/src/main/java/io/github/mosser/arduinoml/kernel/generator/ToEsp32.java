@@ -0,0 +1,451 @@
+package io.github.mosser.arduinoml.kernel.generator;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
+import io.github.mosser.arduinoml.kernel.structural.*;
+import io.github.mosser.arduinoml.kernel.utils.Validator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Visitor generating an ESP32 sketch (Arduino core), where the app runs as two FreeRTOS tasks instead of loop().
+ *
+ * The control task, pinned to core 1, samples the sensors and steps the state machine. The display task, pinned to
+ * core 0, owns the LCD: a slow display never delays the inputs. The control task sends the level shown on the LCD
+ * when it changes, through a lock-free single-producer/single-consumer ring buffer (an index written by each side,
+ * published with release stores). Without an LCD, only the control task is created.
+ *
+ * Regions and analog sensors are not supported yet. Pins are GPIO numbers: 6 to 11 are wired to the flash, and 34
+ * to 39 are inputs only. Every LCD bus uses some of 6 to 11, see setLcdPins.
+ */
+public class ToEsp32 extends Visitor<StringBuffer> {
+	enum PASS {CHECK, DECLARE, SETUP, CONTROL, DISPLAY}
+
+	private static final int CONTROL_CORE = 1;
+	private static final int DISPLAY_CORE = 0;
+	// messages the display can lag behind, a power of two so that the indices wrap around with it
+	private static final int QUEUE_SIZE = 8;
+
+	// sensors read by an edge condition, whose level of the previous iteration is kept
+	private final Set<Sensor> edges = new LinkedHashSet<>();
+	// whether a time transition needs the time the current state was entered
+	private boolean timed = false;
+	// actuator shown on the LCD, whose level is kept by the control task instead of read back from its pin
+	private Actuator displayed;
+	// GPIOs of the LCD instead of the pins of its bus, see setLcdPins
+	private int[] lcdPins;
+
+	public ToEsp32() {
+		this.result = new StringBuffer();
+	}
+
+	/**
+	 * Wires the LCD to these GPIOs, in the order of the pins of its bus (the buses of the model are wired for an
+	 * Arduino Uno). Needed by any app with an LCD.
+	 */
+	public void setLcdPins(int... lcdPins) {
+		this.lcdPins = lcdPins.clone();
+	}
+
+	private void w(String s) {
+		result.append(s);
+	}
+
+	@Override
+	public void visit(App app) {
+		Phase generation = Metrics.start("generation", app.getName()).count(app);
+		int begin = result.length();
+		Validator.validatePinUsage(app);
+		context.put("pass", PASS.CHECK);
+		for (Brick brick : app.getBricks()) {
+			brick.accept(this);
+		}
+		for (State state : app.getStates()) {
+			if (!state.getRegions().isEmpty()) {
+				throw new IllegalArgumentException("Regions (state " + state.getName()
+						+ ") are not supported on ESP32 yet");
+			}
+			for (Transition transition : state.getTransitions()) {
+				timed |= transition instanceof TimeTransition;
+				if (transition instanceof SignalTransition) {
+					for (Expression leaf : ((SignalTransition) transition).getExpression().leaves()) {
+						if (leaf instanceof Condition && ((Condition) leaf).getEdge() != null) {
+							edges.add(((Condition) leaf).getSensor());
+						}
+					}
+				}
+			}
+		}
+		LCDDisplay lcd = app.getLCDDisplay();
+		if (lcd != null) {
+			checkLcd(app, lcd);
+			if (lcd.getBrick() instanceof Actuator) {
+				displayed = (Actuator) lcd.getBrick();
+			}
+		}
+
+		// first pass, global variables
+		context.put("pass", PASS.DECLARE);
+		w("// ESP32 code generated from an ArduinoML model\n");
+		w(String.format("// Application name: %s\n", app.getName()));
+		w(String.format("// Control task on core %d%s\n", CONTROL_CORE,
+				lcd != null ? ", display task on core " + DISPLAY_CORE : ""));
+		if (lcd != null) {
+			lcd.accept(this);
+		}
+		w("\nconst unsigned long debounce = 200;\n");
+		w("\nenum STATE {");
+		String sep = "";
+		for (State state : app.getStates()) {
+			w(sep);
+			state.accept(this);
+			sep = ", ";
+		}
+		w("};\n");
+		State initial = app.getInitial() != null ? app.getInitial() : app.getStates().get(0);
+		w("STATE currentState = " + initial.getName() + ";\n");
+		if (timed) {
+			w("unsigned long stateEnteredAt = 0;\n");
+		}
+		for (Brick brick : app.getBricks()) {
+			brick.accept(this);
+		}
+		if (lcd != null) {
+			declareQueue();
+		}
+
+		// second pass, the control task
+		context.put("pass", PASS.CONTROL);
+		w("\nvoid controlTask(void *parameters) {\n");
+		if (lcd != null) {
+			w("\tint displayed = -1;\n");
+		}
+		w("\tfor (;;) {\n");
+		for (Sensor sensor : edges) {
+			String name = sensor.getName();
+			w(String.format("\t\tint %sLevel = digitalRead(%d);\n", name, sensor.getPin()));
+			w(String.format("\t\tboolean %sRising = %sLevel == HIGH && %sPrevious == LOW;\n", name, name, name));
+			w(String.format("\t\tboolean %sFalling = %sLevel == LOW && %sPrevious == HIGH;\n", name, name, name));
+			w(String.format("\t\t%sPrevious = %sLevel;\n", name, name));
+		}
+		w("\t\tswitch(currentState){\n");
+		for (State state : app.getStates()) {
+			state.accept(this);
+		}
+		w("\t\t}\n");
+		if (lcd != null) {
+			// sent when it changes, sent again at the next iteration when the queue is full
+			w(displayed != null ? String.format("\t\tint level = %sWritten;\n", displayed.getName())
+					: String.format("\t\tint level = digitalRead(%d);\n", lcd.getBrick().getPin()));
+			w("\t\tif (level != displayed && displayPush({(uint8_t) level})) {\n");
+			w("\t\t\tdisplayed = level;\n");
+			w("\t\t}\n");
+		}
+		// a tick for the idle task of the core, which feeds the task watchdog
+		w("\t\tvTaskDelay(1);\n");
+		w("\t}\n");
+		w("}\n");
+
+		// third pass, the display task
+		if (lcd != null) {
+			context.put("pass", PASS.DISPLAY);
+			lcd.accept(this);
+		}
+
+		context.put("pass", PASS.SETUP);
+		w("\nvoid setup(){\n");
+		for (Brick brick : app.getBricks()) {
+			brick.accept(this);
+		}
+		w(String.format("  xTaskCreatePinnedToCore(controlTask, \"control\", 4096, NULL, 2, NULL, %d);\n",
+				CONTROL_CORE));
+		if (lcd != null) {
+			w(String.format("  xTaskCreatePinnedToCore(displayTask, \"display\", 4096, NULL, 1, NULL, %d);\n",
+					DISPLAY_CORE));
+		}
+		w("}\n");
+		w("\nvoid loop() {\n");
+		w("\t// everything runs in the tasks\n");
+		w("\tvTaskDelete(NULL);\n");
+		w("}");
+		generation.count("chars", result.length() - begin).close();
+	}
+
+	private void declareQueue() {
+		w("\n// Levels sent by the control task to the display task\n");
+		w("struct DisplayMessage {\n\tuint8_t level;\n};\n");
+		w(String.format("const uint8_t displayQueueSize = %d;\n", QUEUE_SIZE));
+		w("DisplayMessage displayQueue[displayQueueSize];\n");
+		w("// next slot to read, only written by the display task\n");
+		w("std::atomic<uint8_t> displayHead(0);\n");
+		w("// next slot to write, only written by the control task\n");
+		w("std::atomic<uint8_t> displayTail(0);\n");
+
+		w("\nbool displayPush(DisplayMessage message) {\n");
+		w("\tuint8_t tail = displayTail.load(std::memory_order_relaxed);\n");
+		w("\tif ((uint8_t) (tail - displayHead.load(std::memory_order_acquire)) == displayQueueSize) {\n");
+		w("\t\treturn false;\n");
+		w("\t}\n");
+		w("\tdisplayQueue[tail % displayQueueSize] = message;\n");
+		w("\tdisplayTail.store(tail + 1, std::memory_order_release);\n");
+		w("\treturn true;\n");
+		w("}\n");
+
+		w("\nbool displayPop(DisplayMessage &message) {\n");
+		w("\tuint8_t head = displayHead.load(std::memory_order_relaxed);\n");
+		w("\tif (head == displayTail.load(std::memory_order_acquire)) {\n");
+		w("\t\treturn false;\n");
+		w("\t}\n");
+		w("\tmessage = displayQueue[head % displayQueueSize];\n");
+		w("\tdisplayHead.store(head + 1, std::memory_order_release);\n");
+		w("\treturn true;\n");
+		w("}\n");
+	}
+
+	@Override
+	public void visit(Actuator actuator) {
+		if (context.get("pass") == PASS.CHECK) {
+			if (actuator.getPin() >= 34 && actuator.getPin() <= 39) {
+				throw new IllegalArgumentException("GPIO " + actuator.getPin() + " (" + actuator.getName()
+						+ ") is an input only pin");
+			}
+			checkGpio(actuator);
+			return;
+		}
+		if (context.get("pass") == PASS.DECLARE && actuator == displayed) {
+			w(String.format("\nint %sWritten = LOW;\n", actuator.getName()));
+			return;
+		}
+		if (context.get("pass") == PASS.SETUP) {
+			w(String.format("  pinMode(%d, OUTPUT); // %s [Actuator]\n", actuator.getPin(), actuator.getName()));
+		}
+	}
+
+	@Override
+	public void visit(Sensor sensor) {
+		if (context.get("pass") == PASS.CHECK) {
+			checkGpio(sensor);
+			return;
+		}
+		if (context.get("pass") == PASS.DECLARE) {
+			w(String.format("\nboolean %sBounceGuard = false;\n", sensor.getName()));
+			w(String.format("unsigned long %sLastDebounceTime = 0;\n", sensor.getName()));
+			if (edges.contains(sensor)) {
+				w(String.format("int %sPrevious = LOW;\n", sensor.getName()));
+			}
+			return;
+		}
+		if (context.get("pass") == PASS.SETUP) {
+			w(String.format("  pinMode(%d, INPUT);  // %s [Sensor]\n", sensor.getPin(), sensor.getName()));
+		}
+	}
+
+	// bricks are checked before the first pass
+	private static void checkGpio(Brick brick) {
+		if (!isGpio(brick.getPin())) {
+			throw new IllegalArgumentException("GPIO " + brick.getPin() + " (" + brick.getName()
+					+ ") cannot be used on ESP32");
+		}
+	}
+
+	private void checkLcd(App app, LCDDisplay lcd) {
+		int pins = lcd.getBus().getPins().length;
+		if (lcdPins == null || lcdPins.length != pins) {
+			throw new IllegalArgumentException("The LCD of " + app.getName() + " needs its " + pins
+					+ " ESP32 GPIOs (setLcdPins), its bus " + lcd.getBus().name() + " being wired for an Uno");
+		}
+		Set<Integer> used = new LinkedHashSet<>();
+		for (Brick brick : app.getBricks()) {
+			used.add(brick.getPin());
+		}
+		for (int pin : lcdPins) {
+			if (!isGpio(pin) || pin >= 34 || !used.add(pin)) {
+				throw new IllegalArgumentException("GPIO " + pin + " cannot be used by the LCD");
+			}
+		}
+	}
+
+	private static boolean isGpio(int pin) {
+		return pin >= 0 && pin <= 39 && (pin < 6 || pin > 11);
+	}
+
+	@Override
+	public void visit(AnalogSensor sensor) {
+		throw new IllegalArgumentException("Analog sensors (" + sensor.getName() + ") are not supported on ESP32 yet");
+	}
+
+	@Override
+	public void visit(Threshold threshold) {
+		throw new IllegalArgumentException("Thresholds are not supported on ESP32 yet");
+	}
+
+	@Override
+	public void visit(Region region) {
+		throw new IllegalArgumentException("Regions are not supported on ESP32 yet");
+	}
+
+	@Override
+	public void visit(State state) {
+		if (context.get("pass") == PASS.DECLARE) {
+			w(state.getName());
+			return;
+		}
+		if (context.get("pass") == PASS.CONTROL) {
+			w("\t\t\tcase " + state.getName() + ":\n");
+			for (Action action : state.getActions()) {
+				action.accept(this);
+			}
+			for (Transition transition : state.getTransitions()) {
+				transition.accept(this);
+			}
+			w("\t\t\tbreak;\n");
+		}
+	}
+
+	@Override
+	public void visit(ErrorState state) {
+		if (context.get("pass") == PASS.DECLARE) {
+			w(state.getName());
+			return;
+		}
+		if (context.get("pass") == PASS.CONTROL) {
+			int pin = state.getActuator().getPin();
+			int code = state.getErrorCode();
+			w("\t\t\tcase " + state.getName() + ":\n");
+			for (Action action : state.getActions()) {
+				action.accept(this);
+			}
+			// delay() only blocks the control task, the display keeps running on the other core
+			w("\t\t\t\t// Error state: blink code " + code + " on pin " + pin + "\n");
+			w("\t\t\t\tfor (int i = 0; i < " + code + "; i++) {\n");
+			w("\t\t\t\t\tdigitalWrite(" + pin + ", HIGH);\n");
+			w("\t\t\t\t\tdelay(200);\n");
+			w("\t\t\t\t\tdigitalWrite(" + pin + ", LOW);\n");
+			w("\t\t\t\t\tdelay(200);\n");
+			w("\t\t\t\t}\n");
+			w("\t\t\t\tdelay(800);\n");
+			w("\t\t\tbreak;\n");
+		}
+	}
+
+	@Override
+	public void visit(Action action) {
+		w(String.format("\t\t\t\tdigitalWrite(%d,%s);\n", action.getActuator().getPin(), action.getValue()));
+		if (action.getActuator() == displayed) {
+			w(String.format("\t\t\t\t%sWritten = %s;\n", displayed.getName(), action.getValue()));
+		}
+	}
+
+	@Override
+	public void visit(SignalTransition transition) {
+		Expression expression = transition.getExpression();
+		Set<String> sensors = new LinkedHashSet<>();
+		for (Expression leaf : expression.leaves()) {
+			if (leaf instanceof Condition) {
+				sensors.add(((Condition) leaf).getSensor().getName());
+			}
+		}
+		for (String sensor : sensors) {
+			w(String.format("\t\t\t\t%sBounceGuard = millis() - %sLastDebounceTime > debounce;\n", sensor, sensor));
+		}
+		w("\t\t\t\tif( ");
+		expression.accept(this);
+		w(" ) {\n");
+		for (String sensor : sensors) {
+			w(String.format("\t\t\t\t\t%sLastDebounceTime = millis();\n", sensor));
+		}
+		goTo(transition);
+		w("\t\t\t\t}\n");
+	}
+
+	@Override
+	public void visit(TimeTransition transition) {
+		w(String.format("\t\t\t\tif( millis() - stateEnteredAt >= %d ) {\n", transition.getDelay()));
+		goTo(transition);
+		w("\t\t\t\t}\n");
+	}
+
+	private void goTo(Transition transition) {
+		w("\t\t\t\t\tcurrentState = " + transition.getNext().getName() + ";\n");
+		if (timed) {
+			w("\t\t\t\t\tstateEnteredAt = millis();\n");
+		}
+	}
+
+	@Override
+	public void visit(Condition condition) {
+		String sensor = condition.getSensor().getName();
+		if (condition.getEdge() != null) {
+			w(sensor + (condition.getEdge() == EDGE.RISING ? "Rising" : "Falling") + " && " + sensor + "BounceGuard");
+			return;
+		}
+		w(String.format("digitalRead(%d) == %s && %sBounceGuard", condition.getSensor().getPin(),
+				condition.getValue(), sensor));
+	}
+
+	@Override
+	public void visit(And and) {
+		binary(and);
+	}
+
+	@Override
+	public void visit(Or or) {
+		binary(or);
+	}
+
+	// written with an explicit stack, for guards with thousands of terms
+	private void binary(BinaryExpression expression) {
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(expression);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof String) {
+				w((String) next);
+			} else if (next instanceof BinaryExpression) {
+				BinaryExpression binary = (BinaryExpression) next;
+				pending.push(")");
+				pending.push(binary.getRightExpression());
+				pending.push(")" + (binary instanceof And ? " && " : " || ") + "(");
+				pending.push(binary.getLeftExpression());
+				pending.push("(");
+			} else {
+				((Expression) next).accept(this);
+			}
+		}
+	}
+
+	@Override
+	public void visit(LCDDisplay lcdDisplay) {
+		if (context.get("pass") == PASS.DECLARE) {
+			w("\n#include <atomic>\n");
+			w("#include <LiquidCrystal.h>\n");
+			StringBuilder pins = new StringBuilder();
+			for (int pin : lcdPins) {
+				pins.append(pins.length() > 0 ? ", " : "").append(pin);
+			}
+			w("LiquidCrystal lcd(" + pins + ");\n");
+			return;
+		}
+		if (context.get("pass") == PASS.DISPLAY) {
+			String prefix = lcdDisplay.getPrefix() != null ? lcdDisplay.getPrefix() : "";
+			w("\nvoid displayTask(void *parameters) {\n");
+			w("\tlcd.begin(16, 2);\n");
+			w("\tlcd.setCursor(0,0);\n");
+			w(String.format("\tlcd.print(\"%s\");\n", prefix));
+			w("\tDisplayMessage message;\n");
+			w("\tfor (;;) {\n");
+			w("\t\twhile (displayPop(message)) {\n");
+			w("\t\t\tlcd.setCursor(0,1);\n");
+			w("\t\t\tlcd.print(message.level == HIGH ? \"ON \" : \"OFF\");\n");
+			w("\t\t}\n");
+			w("\t\tvTaskDelay(pdMS_TO_TICKS(10));\n");
+			w("\t}\n");
+			w("}\n");
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package io.github.mosser.arduinoml.kernel.generator;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.structural.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Visitor generating the source of a plain Java class that rebuilds an App through the kernel API.
+ * Once compiled, the model is obtained by a class load and a call to create(), without the front end
+ * (Groovy runtime, closures, bindings) that originally produced it.
+ *
+ * Declarations are split into several methods, so that big models stay under the JVM method size limit.
+ */
+public class ToJava extends Visitor<StringBuffer> {
+	enum PASS {DECLARE, BEHAVIOR}
+
+	private static final int CHUNK = 200;
+
+	private final String packageName;
+	private final String className;
+
+	// index of each element in the generated b[] and s[] arrays
+	private final Map<Brick, Integer> brickIndex = new HashMap<>();
+	private final Map<State, Integer> stateIndex = new HashMap<>();
+	// states of the app first, then the states of their regions
+	private final List<State> states = new ArrayList<>();
+
+	public ToJava(String packageName, String className) {
+		this.packageName = packageName;
+		this.className = className;
+		this.result = new StringBuffer();
+	}
+
+	private void w(String s) {
+		result.append(s);
+	}
+
+	@Override
+	public void visit(App app) {
+		for (int i = 0; i < app.getBricks().size(); i++) {
+			brickIndex.put(app.getBricks().get(i), i);
+		}
+		states.addAll(app.getStates());
+		for (int i = 0; i < states.size(); i++) {
+			stateIndex.put(states.get(i), i);
+			for (Region region : states.get(i).getRegions()) {
+				states.addAll(region.getStates());
+			}
+		}
+		int bricks = app.getBricks().size();
+		int declared = bricks + states.size();
+		int declareChunks = (declared + CHUNK - 1) / CHUNK;
+		int behaviorChunks = (states.size() + CHUNK - 1) / CHUNK;
+
+		if (packageName != null && !packageName.isEmpty()) {
+			w("package " + packageName + ";\n\n");
+		}
+		w("import io.github.mosser.arduinoml.kernel.App;\n");
+		w("import io.github.mosser.arduinoml.kernel.behavioral.*;\n");
+		w("import io.github.mosser.arduinoml.kernel.structural.*;\n\n");
+		w("/**\n * Generated from the ArduinoML model " + literal(app.getName()) + ", do not edit.\n */\n");
+		w("public final class " + className + " {\n\n");
+		w("\tprivate " + className + "() {}\n\n");
+
+		w("\tpublic static App create() {\n");
+		w("\t\tApp app = new App();\n");
+		w("\t\tapp.setName(" + literal(app.getName()) + ");\n");
+		w(String.format("\t\tBrick[] b = new Brick[%d];\n", app.getBricks().size()));
+		w(String.format("\t\tState[] s = new State[%d];\n", states.size()));
+		for (int c = 0; c < declareChunks; c++) {
+			w(String.format("\t\tdeclare%d(b, s);\n", c));
+		}
+		for (int c = 0; c < behaviorChunks; c++) {
+			w(String.format("\t\tbehavior%d(b, s);\n", c));
+		}
+		w("\t\tfor (Brick brick : b) {\n\t\t\tapp.getBricks().add(brick);\n\t\t}\n");
+		w(String.format("\t\tfor (int i = 0; i < %d; i++) {\n\t\t\tapp.getStates().add(s[i]);\n\t\t}\n",
+				app.getStates().size()));
+		if (app.getInitial() != null) {
+			w(String.format("\t\tapp.setInitial(s[%d]);\n", stateIndex.get(app.getInitial())));
+		}
+		if (app.getLCDDisplay() != null) {
+			app.getLCDDisplay().accept(this);
+		}
+		w("\t\tExpressionFactory.share(app);\n");
+		w("\t\treturn app;\n\t}\n");
+
+		// first pass, bricks then states are created (error states refer to their actuator)
+		context.put("pass", PASS.DECLARE);
+		for (int c = 0; c < declareChunks; c++) {
+			w(String.format("\n\tprivate static void declare%d(Brick[] b, State[] s) {\n", c));
+			for (int i = c * CHUNK; i < Math.min((c + 1) * CHUNK, declared); i++) {
+				if (i < bricks) {
+					app.getBricks().get(i).accept(this);
+				} else {
+					states.get(i - bricks).accept(this);
+				}
+			}
+			w("\t}\n");
+		}
+
+		// second pass, one method per state for its actions and transitions
+		context.put("pass", PASS.BEHAVIOR);
+		for (int c = 0; c < behaviorChunks; c++) {
+			w(String.format("\n\tprivate static void behavior%d(Brick[] b, State[] s) {\n", c));
+			for (int i = c * CHUNK; i < Math.min((c + 1) * CHUNK, states.size()); i++) {
+				w(String.format("\t\tstate%d(b, s);\n", i));
+			}
+			w("\t}\n");
+		}
+		for (State state : states) {
+			state.accept(this);
+		}
+
+		w(HELPERS);
+		w("}\n");
+	}
+
+	@Override
+	public void visit(Actuator actuator) {
+		w(String.format("\t\tb[%d] = brick(new Actuator(), %s, %d);\n",
+				brickIndex.get(actuator), literal(actuator.getName()), actuator.getPin()));
+	}
+
+	@Override
+	public void visit(Sensor sensor) {
+		w(String.format("\t\tb[%d] = brick(new Sensor(), %s, %d);\n",
+				brickIndex.get(sensor), literal(sensor.getName()), sensor.getPin()));
+	}
+
+	@Override
+	public void visit(AnalogSensor sensor) {
+		w(String.format("\t\tb[%d] = analog(%s, %d, %d);\n",
+				brickIndex.get(sensor), literal(sensor.getName()), sensor.getPin(), sensor.getSamplingPeriod()));
+	}
+
+	@Override
+	public void visit(State state) {
+		int index = stateIndex.get(state);
+		if (context.get("pass") == PASS.DECLARE) {
+			w(String.format("\t\ts[%d] = state(new State(), %s);\n", index, literal(state.getName())));
+			return;
+		}
+		w(String.format("\n\tprivate static void state%d(Brick[] b, State[] s) {\n", index));
+		context.put("state", index);
+		for (Action action : state.getActions()) {
+			action.accept(this);
+		}
+		for (Transition transition : state.getTransitions()) {
+			transition.accept(this);
+		}
+		for (Region region : state.getRegions()) {
+			region.accept(this);
+		}
+		w("\t}\n");
+	}
+
+	@Override
+	public void visit(Region region) {
+		w(String.format("\t\ts[%d].getRegions().add(region(%s, s[%d]", context.get("state"),
+				literal(region.getName()), stateIndex.get(region.getInitial())));
+		for (State state : region.getStates()) {
+			w(String.format(", s[%d]", stateIndex.get(state)));
+		}
+		w("));\n");
+	}
+
+	@Override
+	public void visit(ErrorState state) {
+		int index = stateIndex.get(state);
+		if (context.get("pass") == PASS.DECLARE) {
+			w(String.format("\t\ts[%d] = error(%s, %d, (Actuator) b[%d]);\n", index, literal(state.getName()),
+					state.getErrorCode(), brickIndex.get(state.getActuator())));
+			return;
+		}
+		visit((State) state);
+	}
+
+	@Override
+	public void visit(Action action) {
+		w(String.format("\t\ts[%d].getActions().add(action((Actuator) b[%d], SIGNAL.%s));\n",
+				context.get("state"), brickIndex.get(action.getActuator()), action.getValue()));
+	}
+
+	@Override
+	public void visit(SignalTransition transition) {
+		w(String.format("\t\ts[%d].addTransition(signal(s[%d], ", context.get("state"),
+				stateIndex.get(transition.getNext())));
+		transition.getExpression().accept(this);
+		w("));\n");
+	}
+
+	@Override
+	public void visit(TimeTransition transition) {
+		w(String.format("\t\ts[%d].addTransition(time(s[%d], %d));\n", context.get("state"),
+				stateIndex.get(transition.getNext()), transition.getDelay()));
+	}
+
+	@Override
+	public void visit(Condition condition) {
+		if (condition.getEdge() != null) {
+			w(String.format("edge((Sensor) b[%d], EDGE.%s)", brickIndex.get(condition.getSensor()),
+					condition.getEdge()));
+			return;
+		}
+		w(String.format("condition((Sensor) b[%d], SIGNAL.%s)", brickIndex.get(condition.getSensor()),
+				condition.getValue()));
+	}
+
+	@Override
+	public void visit(Threshold threshold) {
+		w(String.format("threshold((AnalogSensor) b[%d], Threshold.Direction.%s, %d, %d)",
+				brickIndex.get(threshold.getSensor()), threshold.getDirection(), threshold.getValue(),
+				threshold.getHysteresis()));
+	}
+
+	@Override
+	public void visit(And and) {
+		binary(and);
+	}
+
+	@Override
+	public void visit(Or or) {
+		binary(or);
+	}
+
+	// nested calls are written from an explicit stack, deep guards do not overflow the generator
+	private void binary(BinaryExpression expression) {
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(expression);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof String) {
+				w((String) next);
+			} else if (next instanceof BinaryExpression) {
+				BinaryExpression binary = (BinaryExpression) next;
+				pending.push(")");
+				pending.push(binary.getRightExpression());
+				pending.push(", ");
+				pending.push(binary.getLeftExpression());
+				pending.push(binary instanceof And ? "and(" : "or(");
+			} else {
+				((Expression) next).accept(this);
+			}
+		}
+	}
+
+	@Override
+	public void visit(LCDDisplay lcdDisplay) {
+		w("\t\tLCDDisplay lcd = new LCDDisplay();\n");
+		w(String.format("\t\tlcd.setBrick(b[%d]);\n", brickIndex.get(lcdDisplay.getBrick())));
+		w(String.format("\t\tlcd.setPrefix(%s);\n", literal(lcdDisplay.getPrefix())));
+		w(String.format("\t\tlcd.setBus(%d);\n", lcdDisplay.getBus().ordinal() + 1));
+		w("\t\tapp.setLCDDisplay(lcd);\n");
+	}
+
+	/*************
+	 ** Helpers **
+	 *************/
+
+	private static final String HELPERS =
+			"\n\tprivate static Brick brick(Brick brick, String name, int pin) {\n" +
+			"\t\tbrick.setName(name);\n" +
+			"\t\tbrick.setPin(pin);\n" +
+			"\t\treturn brick;\n" +
+			"\t}\n" +
+			"\n\tprivate static Brick analog(String name, int pin, int period) {\n" +
+			"\t\tAnalogSensor sensor = new AnalogSensor();\n" +
+			"\t\tsensor.setSamplingPeriod(period);\n" +
+			"\t\treturn brick(sensor, name, pin);\n" +
+			"\t}\n" +
+			"\n\tprivate static State state(State state, String name) {\n" +
+			"\t\tstate.setName(name);\n" +
+			"\t\treturn state;\n" +
+			"\t}\n" +
+			"\n\tprivate static State error(String name, int code, Actuator actuator) {\n" +
+			"\t\tErrorState state = new ErrorState();\n" +
+			"\t\tstate.setName(name);\n" +
+			"\t\tstate.setErrorCode(code);\n" +
+			"\t\tstate.setActuator(actuator);\n" +
+			"\t\treturn state;\n" +
+			"\t}\n" +
+			"\n\tprivate static Region region(String name, State initial, State... states) {\n" +
+			"\t\tRegion region = new Region();\n" +
+			"\t\tregion.setName(name);\n" +
+			"\t\tregion.setInitial(initial);\n" +
+			"\t\tfor (State state : states) {\n" +
+			"\t\t\tregion.getStates().add(state);\n" +
+			"\t\t}\n" +
+			"\t\treturn region;\n" +
+			"\t}\n" +
+			"\n\tprivate static Action action(Actuator actuator, SIGNAL value) {\n" +
+			"\t\tAction action = new Action();\n" +
+			"\t\taction.setActuator(actuator);\n" +
+			"\t\taction.setValue(value);\n" +
+			"\t\treturn action;\n" +
+			"\t}\n" +
+			"\n\tprivate static Transition signal(State next, Expression expression) {\n" +
+			"\t\tSignalTransition transition = new SignalTransition();\n" +
+			"\t\ttransition.setNext(next);\n" +
+			"\t\ttransition.setExpression(expression);\n" +
+			"\t\treturn transition;\n" +
+			"\t}\n" +
+			"\n\tprivate static Transition time(State next, int delay) {\n" +
+			"\t\tTimeTransition transition = new TimeTransition();\n" +
+			"\t\ttransition.setNext(next);\n" +
+			"\t\ttransition.setDelay(delay);\n" +
+			"\t\treturn transition;\n" +
+			"\t}\n" +
+			"\n\tprivate static Expression condition(Sensor sensor, SIGNAL value) {\n" +
+			"\t\tCondition condition = new Condition();\n" +
+			"\t\tcondition.setSensor(sensor);\n" +
+			"\t\tcondition.setValue(value);\n" +
+			"\t\treturn condition;\n" +
+			"\t}\n" +
+			"\n\tprivate static Expression edge(Sensor sensor, EDGE edge) {\n" +
+			"\t\tCondition condition = new Condition();\n" +
+			"\t\tcondition.setSensor(sensor);\n" +
+			"\t\tcondition.setEdge(edge);\n" +
+			"\t\treturn condition;\n" +
+			"\t}\n" +
+			"\n\tprivate static Expression threshold(AnalogSensor sensor, Threshold.Direction direction, int value,\n" +
+			"\t\t\tint hysteresis) {\n" +
+			"\t\tThreshold threshold = new Threshold();\n" +
+			"\t\tthreshold.setSensor(sensor);\n" +
+			"\t\tthreshold.setDirection(direction);\n" +
+			"\t\tthreshold.setValue(value);\n" +
+			"\t\tthreshold.setHysteresis(hysteresis);\n" +
+			"\t\treturn threshold;\n" +
+			"\t}\n" +
+			"\n\tprivate static Expression and(Expression left, Expression right) {\n" +
+			"\t\tAnd and = new And();\n" +
+			"\t\tand.setLeftExpression(left);\n" +
+			"\t\tand.setRightExpression(right);\n" +
+			"\t\treturn and;\n" +
+			"\t}\n" +
+			"\n\tprivate static Expression or(Expression left, Expression right) {\n" +
+			"\t\tOr or = new Or();\n" +
+			"\t\tor.setLeftExpression(left);\n" +
+			"\t\tor.setRightExpression(right);\n" +
+			"\t\treturn or;\n" +
+			"\t}\n";
+
+	private static String literal(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20 || c > 0x7e) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -2,11 +2,32 @@ package io.github.mosser.arduinoml.kernel.generator;
 
 import io.github.mosser.arduinoml.kernel.App;
 import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.ir.Lowering;
+import io.github.mosser.arduinoml.kernel.ir.PassManager;
+import io.github.mosser.arduinoml.kernel.ir.WiringEmitter;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
 import io.github.mosser.arduinoml.kernel.structural.*;
+import io.github.mosser.arduinoml.kernel.telemetry.TelemetryFrame;
+import io.github.mosser.arduinoml.kernel.telemetry.TelemetryLayout;
 import io.github.mosser.arduinoml.kernel.utils.Validator;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Quick and dirty visitor to support the generation of Wiring code
@@ -14,28 +35,275 @@ import java.util.Set;
 public class ToWiring extends Visitor<StringBuffer> {
 	enum PASS {ONE, TWO, THREE}
 
+	// prefix of every global identifier, empty for a standalone sketch
+	private final String namespace;
+
+	// enumerator of each state, and the state machine (the app itself or a region) it belongs to
+	private final Map<State, String> ids;
+	private final Map<State, Machine> machines;
+	private final Map<Region, Machine> regions;
+	// sensors read by an edge condition, whose level of the previous iteration is kept
+	private final Set<Sensor> edges;
+	// sensors read by a condition, which need a bounce guard
+	private final Set<Sensor> guarded;
+	// flag of each threshold of each analog sensor, updated when the sensor is sampled
+	private final Map<AnalogSensor, Map<String, Threshold>> thresholds;
+	// state machine of the state being generated
+	private Machine machine;
+
+	// null unless the checks are reordered (see setProfile)
+	private TransitionProfile profile;
+	// whether the transitions of the current state are chained with else if, and the next one is an else if
+	private boolean chain = false;
+	private boolean elseIf = false;
+
+	// instrumentation, see setInstrumented
+	private boolean instrumented = false;
+	private TelemetryLayout telemetry;
+
+	// null for a sequential generation, see setPool
+	private ForkJoinPool pool;
+
+	// sleep between iterations, see setLowPower
+	private boolean lowPower = false;
+	// sleep mode and pin change masks of each state that can sleep
+	private final Map<State, Sleep> sleeps = new LinkedHashMap<>();
+
+	// code repeated by several states, see setShared
+	private boolean shared = false;
+	// call replacing each repeated action sequence or transition block
+	private final Map<String, String> calls;
+
+	// smallest types and constants, see setSmallRam
+	private boolean smallRam = false;
+	// bytes of SRAM saved by each change, in the order of the sketch
+	private final Map<String, Integer> savings = new LinkedHashMap<>();
+
+	// null unless the app goes through the lowered representation, see setLowered
+	private PassManager lowered;
+
+	private static class Machine {
+		final String type;
+		final String current;
+		// null when no time transition needs the time the current state was entered
+		final String enteredAt;
+
+		Machine(String type, String current, String enteredAt) {
+			this.type = type;
+			this.current = current;
+			this.enteredAt = enteredAt;
+		}
+	}
+
 	public ToWiring() {
+		this("");
+	}
+
+	/**
+	 * Generates the app as a module of a bigger sketch (see CompositeWiring): every global identifier is prefixed
+	 * by the namespace, setup() and loop() become namespace_setup() and namespace_step(), and the generated code
+	 * never blocks, so that other modules can run in between.
+	 */
+	public ToWiring(String namespace) {
+		this.namespace = namespace;
+		this.ids = new HashMap<>();
+		this.machines = new HashMap<>();
+		this.regions = new HashMap<>();
+		this.edges = new HashSet<>();
+		this.guarded = new HashSet<>();
+		this.thresholds = new HashMap<>();
+		this.calls = new HashMap<>();
 		this.result = new StringBuffer();
 	}
 
+	// renders part of the sketch of its parent into its own buffer, sharing the tables built by the first pass
+	private ToWiring(ToWiring parent, PASS pass) {
+		this.namespace = parent.namespace;
+		this.ids = parent.ids;
+		this.machines = parent.machines;
+		this.regions = parent.regions;
+		this.edges = parent.edges;
+		this.guarded = parent.guarded;
+		this.thresholds = parent.thresholds;
+		this.profile = parent.profile;
+		this.telemetry = parent.telemetry;
+		this.shared = parent.shared;
+		this.calls = parent.calls;
+		this.smallRam = parent.smallRam;
+		this.result = new StringBuffer();
+		context.put("pass", pass);
+	}
+
+	/**
+	 * Reorders the checks generated for each state: the transitions that fired the most in the profile come first
+	 * (the cheapest ones for the transitions it does not know), and the operands of && and || are evaluated from
+	 * the cheapest. Transitions are only reordered, and chained with else if, when at most one of them can be
+	 * enabled at a time, so that the behavior of the app does not change. An empty profile only uses the costs.
+	 */
+	public void setProfile(TransitionProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Adds counters to the sketch (loop iterations, longest and total loop time, time spent in each state, times
+	 * each transition fired), sent on Serial as a binary frame every second and then reset.
+	 * See TelemetryDecoder for the frame format. Only available for standalone sketches, pins 0 and 1 being used
+	 * by Serial.
+	 */
+	public void setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+	}
+
+	/**
+	 * Renders the case of each state, and the code of each brick, as tasks of the given pool, each one into its own
+	 * buffer. The buffers are appended in the order of the model, so the sketch is the same as a sequential one.
+	 * Null (the default) generates everything on the calling thread.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Puts the board to sleep (ATmega328P) instead of polling, when the current state did not change during an
+	 * iteration and can only be left through its sensors or a delay. A state whose sensors all have a pin change
+	 * interrupt sleeps in power-down mode, woken up by a change of one of them (or of the sensor shown on the LCD).
+	 * A state waiting for a delay or an analog threshold, or that nothing could wake up, sleeps in idle mode, woken
+	 * up every millisecond by the timer of millis(). States with regions, error states, and states in a debounce
+	 * window keep polling. Only available for standalone sketches without instrumentation.
+	 */
+	public void setLowPower(boolean lowPower) {
+		this.lowPower = lowPower;
+	}
+
+	/**
+	 * Emits the code repeated by several states once, to save flash: states of the same switch with the same code
+	 * share a single case (consecutive case labels), and an action sequence or a transition block found in several
+	 * cases becomes a function called from each of them. The behavior of the sketch does not change.
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Saves SRAM for the smallest AVR boards (2 KB on an ATmega328P): the debounce delay becomes a constant, each
+	 * state variable a byte, and so does the previous level of each edge sensor; sensors no condition reads get no
+	 * bounce guard, and the LCD strings stay in flash (F()). Timestamps keep their 32 bits, a shorter millis()
+	 * would wrap after a minute. The bytes saved are given by getSramSavings(), and summed up in the header of the
+	 * sketch.
+	 */
+	public void setSmallRam(boolean smallRam) {
+		this.smallRam = smallRam;
+	}
+
+	/**
+	 * Bytes of SRAM saved by setSmallRam on an AVR board (int on 2 bytes, long on 4), per change, for the last
+	 * generated app; empty unless the option is set.
+	 */
+	public Map<String, Integer> getSramSavings() {
+		return Collections.unmodifiableMap(savings);
+	}
+
+	/**
+	 * Generates the sketch from the lowered form of the app (see Lowering), rewritten by the given passes
+	 * (PassManager.standard() for all of them) and printed by WiringEmitter. Only the core language can be lowered,
+	 * and none of the other options apply. Null (the default) generates the sketch directly from the model.
+	 */
+	public void setLowered(PassManager passes) {
+		this.lowered = passes;
+	}
+
+	private boolean isModule() {
+		return !namespace.isEmpty();
+	}
+
+	private String ns(String identifier) {
+		return namespace + identifier;
+	}
+
+	// names the variables of the machine made of these states, then the ones of their regions (prefixed by the path)
+	private Machine index(String prefix, List<State> states) {
+		boolean timed = states.stream()
+				.flatMap(state -> state.getTransitions().stream())
+				.anyMatch(transition -> transition instanceof TimeTransition);
+		Machine m = new Machine(ns(prefix + "STATE"), ns(prefix + "currentState"),
+				timed ? ns(prefix + "stateEnteredAt") : null);
+		for (State state : states) {
+			ids.put(state, ns(prefix + state.getName()));
+			machines.put(state, m);
+			for (Region region : state.getRegions()) {
+				if (region.getInitial() == null || !region.getStates().contains(region.getInitial())) {
+					throw new IllegalArgumentException("Region " + region.getName() + " of state " + state.getName()
+							+ " needs an initial state among its own states");
+				}
+				regions.put(region, index(prefix + state.getName() + "_" + region.getName() + "_", region.getStates()));
+			}
+		}
+		return m;
+	}
+
 	private void w(String s) {
 		result.append(String.format("%s", s));
 	}
 
 	@Override
 	public void visit(App app) {
+		if (lowered != null) {
+			if (isModule() || profile != null || instrumented || lowPower || shared || smallRam) {
+				throw new IllegalStateException("The lowered generation does not combine with the other options");
+			}
+			Phase generation = Metrics.start("generation", app.getName()).count(app);
+			int begin = result.length();
+			w(WiringEmitter.emit(lowered.run(Lowering.lower(app))));
+			end(generation, begin);
+			return;
+		}
+		Phase generation = Metrics.start("generation", app.getName()).count(app);
+		int begin = result.length();
+		Phase pass = Metrics.start("generation.pass1", app.getName());
 		// first pass, create global vars
-        w("// Wiring code generated from an ArduinoML model\n");
-        w(String.format("// Application name: %s\n", app.getName()) + "\n");
+        if (isModule()) {
+            w(String.format("// Application name: %s\n", app.getName()));
+        } else {
+            w("// Wiring code generated from an ArduinoML model\n");
+            w(String.format("// Application name: %s\n", app.getName()) + "\n");
+        }
         Validator.validatePinUsage(app);
 		context.put("pass", PASS.ONE);
+		Machine top = index("", app.getStates());
+		collectInputs(app.getStates());
+		savings.clear();
+		if (smallRam) {
+			countSavings(app);
+			int total = savings.values().stream().mapToInt(Integer::intValue).sum();
+			w(String.format("// Small RAM: %d bytes of SRAM saved %s\n", total, savings));
+		}
+		if (instrumented) {
+			if (isModule()) {
+				throw new IllegalStateException("Instrumentation is only available for standalone sketches");
+			}
+			for (Brick brick : app.getBricks()) {
+				if (brick.getPin() == 0 || brick.getPin() == 1) {
+					throw new IllegalArgumentException("Pin " + brick.getPin() + " (" + brick.getName()
+							+ ") is used by Serial for the telemetry");
+				}
+			}
+			telemetry = new TelemetryLayout(app);
+		}
+		if (lowPower) {
+			if (isModule() || instrumented) {
+				throw new IllegalStateException("Low power is only available for standalone sketches without instrumentation");
+			}
+			collectSleeps(app);
+		}
 
         if (app.getLCDDisplay() != null) {
             app.getLCDDisplay().accept(this);
         }
 
-		w("long debounce = 200;\n");
-		w("\nenum STATE {");
+		if (!isModule()) {
+			w(smallRam ? "const unsigned int debounce = 200;\n" : "long debounce = 200;\n");
+		}
+		w("\nenum " + top.type + base(app.getStates()) + " {");
 		String sep = "";
 		for (State state : app.getStates()) {
 			w(sep);
@@ -44,30 +312,78 @@ public class ToWiring extends Visitor<StringBuffer> {
 		}
 		w("};\n");
 		if (app.getInitial() != null) {
-			w("STATE currentState = " + app.getInitial().getName() + ";\n");
+			w(top.type + " " + top.current + " = " + ids.get(app.getInitial()) + ";\n");
+		}
+		if (top.enteredAt != null) {
+			w("unsigned long " + top.enteredAt + " = 0;\n");
+		}
+		for (State state : app.getStates()) {
+			for (Region region : state.getRegions()) {
+				region.accept(this);
+			}
 		}
 
-		for (Brick brick : app.getBricks()) {
-			brick.accept(this);
+		render(app.getBricks());
+		if (analogSensors(app.getBricks()).size() > 1) {
+			// the analog sensor checked first by the next iteration, see sample
+			w("\nbyte " + ns("analogNext") + " = 0;\n");
+		}
+		if (telemetry != null) {
+			declareTelemetry();
+		}
+		if (!sleeps.isEmpty()) {
+			declareLowPower();
+		}
+		if (shared) {
+			context.put("pass", PASS.TWO);
+			declareShared(app);
 		}
 
 		// second pass, setup and loop
+		int offset = end(pass, begin);
+		pass = Metrics.start("generation.pass2", app.getName());
 		context.put("pass", PASS.TWO);
-		w("\nvoid setup(){\n");
-		for (Brick brick : app.getBricks()) {
-			brick.accept(this);
-		}
+		w("\nvoid " + (isModule() ? ns("setup") : "setup") + "(){\n");
+		render(app.getBricks());
         if (app.getLCDDisplay() != null) {
             app.getLCDDisplay().accept(this);
         }
+		if (telemetry != null) {
+			w("  Serial.begin(115200);\n");
+		}
 		w("}\n");
 
-		w("\nvoid loop() {\n" +
-				"\tswitch(currentState){\n");
-		for (State state : app.getStates()) {
-			state.accept(this);
+		w("\nvoid " + (isModule() ? ns("step") : "loop") + "() {\n");
+		if (telemetry != null) {
+			// the time since the previous iteration is spent in the current states
+			w("\tunsigned long telemetryStart = micros();\n");
+			w("\tunsigned long telemetryElapsed = telemetryStart - telemetryLastStart;\n");
+			w("\ttelemetryLastStart = telemetryStart;\n");
+			dwell(app.getStates(), top.current, "\t");
+		}
+		if (!sleeps.isEmpty()) {
+			// pins as read by this iteration, a change after that one wakes the board up
+			w("\tbyte lowPowerPins[3] = {PINB, PINC, PIND};\n");
+			w("\t" + top.type + " lowPowerState = " + top.current + ";\n");
 		}
+		// edges are detected once per iteration, whatever the states checking them
+		for (Brick brick : app.getBricks()) {
+			if (edges.contains(brick)) {
+				String sensor = ns(brick.getName());
+				w(String.format("\t%s %sLevel = digitalRead(%d);\n", smallRam ? "byte" : "int", sensor, brick.getPin()));
+				// globals when shared functions test them (see visit(Sensor))
+				String flag = shared ? "\t" : "\tboolean ";
+				w(String.format("%s%sRising = %sLevel == HIGH && %sPrevious == LOW;\n", flag, sensor, sensor, sensor));
+				w(String.format("%s%sFalling = %sLevel == LOW && %sPrevious == HIGH;\n", flag, sensor, sensor, sensor));
+				w(String.format("\t%sPrevious = %sLevel;\n", sensor, sensor));
+			}
+		}
+		sample(app.getBricks());
+		w("\tswitch(" + top.current + "){\n");
+		cases(app.getStates());
 
+		offset = end(pass, offset);
+		pass = Metrics.start("generation.pass3", app.getName());
         context.put("pass",PASS.THREE);
 
 		w("\t}\n");
@@ -76,7 +392,124 @@ public class ToWiring extends Visitor<StringBuffer> {
             app.getLCDDisplay().accept(this);
         }
 
+		if (!sleeps.isEmpty()) {
+			sleep(top);
+		}
+
+		if (telemetry != null) {
+			w("\tunsigned long telemetryMicros = micros() - telemetryStart;\n");
+			w("\ttelemetryLoops++;\n");
+			w("\ttelemetryTotalMicros += telemetryMicros;\n");
+			w("\tif (telemetryMicros > telemetryMaxMicros) {\n\t\ttelemetryMaxMicros = telemetryMicros;\n\t}\n");
+			w("\tif (millis() - telemetryLastFrame >= 1000) {\n");
+			w("\t\ttelemetryLastFrame = millis();\n");
+			w("\t\ttelemetrySend();\n");
+			w("\t}\n");
+		}
         w("}");
+		end(pass, offset);
+		end(generation, begin);
+	}
+
+	// what each change of setSmallRam saves, for the app whose inputs were just collected
+	private void countSavings(App app) {
+		if (!isModule()) {
+			// a constant is folded into the comparisons
+			savings.put("debounce", 4);
+		}
+		int machines = app.getStates().size() <= 256 ? 1 : 0;
+		for (Region region : regions.keySet()) {
+			machines += region.getStates().size() <= 256 ? 1 : 0;
+		}
+		savings.put("states", machines);
+		savings.put("edges", edges.size());
+		int unguarded = 0;
+		for (Brick brick : app.getBricks()) {
+			if (brick instanceof Sensor && !(brick instanceof AnalogSensor) && !guarded.contains(brick)) {
+				unguarded++;
+			}
+		}
+		savings.put("guards", unguarded * 5);
+		if (app.getLCDDisplay() != null) {
+			String prefix = app.getLCDDisplay().getPrefix() != null ? app.getLCDDisplay().getPrefix() : "";
+			savings.put("lcd", prefix.length() + 1 + "ON ".length() + 1 + "OFF".length() + 1);
+		}
+		savings.values().removeIf(bytes -> bytes == 0);
+	}
+
+	// the enum of a machine fits in a byte, instead of an int
+	private String base(List<State> states) {
+		return smallRam && states.size() <= 256 ? " : byte" : "";
+	}
+
+	// a string literal, kept in flash when saving SRAM
+	private String literal(String text) {
+		return smallRam ? "F(\"" + text + "\")" : "\"" + text + "\"";
+	}
+
+	// ends a phase with the size of the code written since offset, returns the offset of the next one
+	private int end(Phase phase, int offset) {
+		phase.count("chars", result.length() - offset).close();
+		return result.length();
+	}
+
+	// visits the elements in the current pass, in parallel when a pool is set
+	private void render(List<? extends Visitable> elements) {
+		if (pool == null || elements.size() < 2) {
+			for (Visitable element : elements) {
+				element.accept(this);
+			}
+			return;
+		}
+		for (String code : renderEach(elements)) {
+			result.append(code);
+		}
+	}
+
+	// the code of each element in the current pass, rendered in parallel when a pool is set
+	private List<String> renderEach(List<? extends Visitable> elements) {
+		List<String> codes = new ArrayList<>();
+		if (pool == null || elements.size() < 2) {
+			for (Visitable element : elements) {
+				codes.add(capture(() -> element.accept(this)));
+			}
+			return codes;
+		}
+		PASS pass = (PASS) context.get("pass");
+		List<ForkJoinTask<Object>> parts = new ArrayList<>();
+		for (Visitable element : elements) {
+			// the code of the element, or the error it raised, rethrown as is by the calling thread
+			Callable<Object> part = () -> {
+				ToWiring worker = new ToWiring(this, pass);
+				try {
+					element.accept(worker);
+				} catch (RuntimeException e) {
+					return e;
+				}
+				return worker.getResult();
+			};
+			parts.add(pool.submit(part));
+		}
+		for (ForkJoinTask<Object> part : parts) {
+			Object code = part.join();
+			if (code instanceof RuntimeException) {
+				throw (RuntimeException) code;
+			}
+			codes.add(code.toString());
+		}
+		return codes;
+	}
+
+	// what the given part writes, instead of writing it
+	private String capture(Runnable part) {
+		StringBuffer outer = result;
+		result = new StringBuffer();
+		try {
+			part.run();
+			return result.toString();
+		} finally {
+			result = outer;
+		}
 	}
 
 	@Override
@@ -93,8 +526,18 @@ public class ToWiring extends Visitor<StringBuffer> {
 	@Override
 	public void visit(Sensor sensor) {
 		if (context.get("pass") == PASS.ONE) {
-			w(String.format("\nboolean %sBounceGuard = false;\n", sensor.getName()));
-			w(String.format("long %sLastDebounceTime = 0;\n", sensor.getName()));
+			if (smallRam && !guarded.contains(sensor)) {
+				return;
+			}
+			w(String.format("\nboolean %sBounceGuard = false;\n", ns(sensor.getName())));
+			w(String.format("long %sLastDebounceTime = 0;\n", ns(sensor.getName())));
+			if (edges.contains(sensor)) {
+				w(String.format("%s %sPrevious = LOW;\n", smallRam ? "byte" : "int", ns(sensor.getName())));
+				if (shared) {
+					w(String.format("boolean %sRising = false;\n", ns(sensor.getName())));
+					w(String.format("boolean %sFalling = false;\n", ns(sensor.getName())));
+				}
+			}
 			return;
 		}
 		if (context.get("pass") == PASS.TWO) {
@@ -106,18 +549,20 @@ public class ToWiring extends Visitor<StringBuffer> {
 	@Override
 	public void visit(State state) {
 		if (context.get("pass") == PASS.ONE) {
-			w(state.getName());
+			w(ids.get(state));
 			return;
 		}
 		if (context.get("pass") == PASS.TWO) {
-			w("\t\tcase " + state.getName() + ":\n");
-			for (Action action : state.getActions()) {
-				action.accept(this);
-			}
+			machine = machines.get(state);
+			w("\t\tcase " + ids.get(state) + ":\n");
+			w(share(actions(state)));
 
-			for (Transition t : state.getTransitions()) {
-				t.accept(this);
+			// each region steps its own state machine, nested in the case of its state
+			for (Region region : state.getRegions()) {
+				region.accept(this);
 			}
+
+			w(share(transitions(state)));
 			w("\t\tbreak;\n");
 
 			return;
@@ -125,6 +570,42 @@ public class ToWiring extends Visitor<StringBuffer> {
 
 	}
 
+	private String actions(State state) {
+		return capture(() -> {
+			for (Action action : state.getActions()) {
+				action.accept(this);
+			}
+		});
+	}
+
+	private String transitions(State state) {
+		return capture(() -> {
+			boolean reordered = profile != null && exclusive(state.getTransitions());
+			List<Transition> transitions = reordered ? order(state) : state.getTransitions();
+			chain = reordered && transitions.size() > 1;
+			if (chain) {
+				// guards are refreshed once for the whole chain
+				Map<String, Expression> sensors = new LinkedHashMap<>();
+				for (Transition t : transitions) {
+					if (t instanceof SignalTransition) {
+						collectConditions(((SignalTransition) t).getExpression(), sensors);
+					}
+				}
+				for (Expression condition : sensors.values()) {
+					updateBounceGuards(condition);
+				}
+			}
+			for (Transition t : transitions) {
+				t.accept(this);
+			}
+			if (chain && !transitions.isEmpty()) {
+				w("\n");
+			}
+			chain = false;
+			elseIf = false;
+		});
+	}
+
 	@Override
 	public void visit(SignalTransition transition) {
 		if (context.get("pass") == PASS.ONE) {
@@ -133,65 +614,298 @@ public class ToWiring extends Visitor<StringBuffer> {
 		if (context.get("pass") == PASS.TWO) {
 			Expression expression = transition.getExpression();
 			// Update bounce times for all sensors in the expression
-			updateBounceGuards(expression);
-			w("\t\t\tif( ");
+			if (!chain) {
+				updateBounceGuards(expression);
+			}
+			openIf();
 			expression.accept(this);
 			w(" ) {\n");
 			// Assign debounce time for all sensors when transition is triggered
 			assignDebounceTime(expression);
-			w("\t\t\t\tcurrentState = " + transition.getNext().getName() + ";\n");
-			w("\t\t\t}\n");
+			goTo(transition);
+			closeIf();
+		}
+	}
+
+	private void openIf() {
+		w(elseIf ? " else if( " : "\t\t\tif( ");
+	}
+
+	private void closeIf() {
+		w(chain ? "\t\t\t}" : "\t\t\t}\n");
+		elseIf = chain;
+	}
+
+	@Override
+	public void visit(Region region) {
+		Machine m = regions.get(region);
+		if (context.get("pass") == PASS.ONE) {
+			w("\nenum " + m.type + base(region.getStates()) + " {");
+			String sep = "";
+			for (State state : region.getStates()) {
+				w(sep);
+				state.accept(this);
+				sep = ", ";
+			}
+			w("};\n");
+			w(m.type + " " + m.current + " = " + ids.get(region.getInitial()) + ";\n");
+			if (m.enteredAt != null) {
+				w("unsigned long " + m.enteredAt + " = 0;\n");
+			}
+			for (State state : region.getStates()) {
+				for (Region nested : state.getRegions()) {
+					nested.accept(this);
+				}
+			}
+			return;
+		}
+		if (context.get("pass") == PASS.TWO) {
+			// generated like the main switch, then shifted inside the case of the parent state
+			StringBuffer outer = result;
+			Machine parent = machine;
+			result = new StringBuffer();
+			w("\t// region " + region.getName() + "\n");
+			w("\tswitch(" + m.current + "){\n");
+			cases(region.getStates());
+			w("\t}\n");
+			String inner = result.toString();
+			result = outer;
+			machine = parent;
+			for (String line : inner.split("\n")) {
+				w("\t\t" + line + "\n");
+			}
+		}
+	}
+
+	private void goTo(Transition transition) {
+		State next = transition.getNext();
+		Machine target = machines.get(next);
+		if (target != machine) {
+			throw new IllegalArgumentException("Transition to " + next.getName() + " leaves its region");
+		}
+		w("\t\t\t\t" + target.current + " = " + ids.get(next) + ";\n");
+		if (target.enteredAt != null) {
+			w("\t\t\t\t" + target.enteredAt + " = millis();\n");
+		}
+		if (telemetry != null) {
+			w("\t\t\t\ttelemetryFires[" + telemetry.indexOf(transition) + "]++;\n");
+		}
+		enter(next);
+	}
+
+	// entering a state restarts its regions from their initial states
+	private void enter(State state) {
+		for (Region region : state.getRegions()) {
+			Machine m = regions.get(region);
+			w("\t\t\t\t" + m.current + " = " + ids.get(region.getInitial()) + ";\n");
+			if (m.enteredAt != null) {
+				w("\t\t\t\t" + m.enteredAt + " = millis();\n");
+			}
+			enter(region.getInitial());
 		}
 	}
 
 	private void updateBounceGuards(Expression expression) {
-		if (expression instanceof Condition) {
-			Condition condition = (Condition) expression;
-			String sensorName = condition.getSensor().getName();
-			w(String.format("\t\t\t%sBounceGuard = millis() - %sLastDebounceTime > debounce;\n",
-					sensorName, sensorName));
-		} else if (expression instanceof BinaryExpression) {
-			BinaryExpression binary = (BinaryExpression) expression;
-			updateBounceGuards(binary.getLeftExpression());
-			updateBounceGuards(binary.getRightExpression());
+		for (Expression leaf : expression.leaves()) {
+			if (leaf instanceof Condition) {
+				String sensorName = ns(((Condition) leaf).getSensor().getName());
+				w(String.format("\t\t\t%sBounceGuard = millis() - %sLastDebounceTime > debounce;\n",
+						sensorName, sensorName));
+			}
 		}
 	}
 
 	private void assignDebounceTime(Expression expression) {
-		if (expression instanceof Condition) {
-			Condition condition = (Condition) expression;
-			String sensorName = condition.getSensor().getName();
-			w(String.format("\t\t\t\t%sLastDebounceTime = millis();\n", sensorName));
-		} else if (expression instanceof BinaryExpression) {
-			BinaryExpression binary = (BinaryExpression) expression;
-			assignDebounceTime(binary.getLeftExpression());
-			assignDebounceTime(binary.getRightExpression());
+		for (Expression leaf : expression.leaves()) {
+			if (leaf instanceof Condition) {
+				String sensorName = ns(((Condition) leaf).getSensor().getName());
+				w(String.format("\t\t\t\t%sLastDebounceTime = millis();\n", sensorName));
+			}
+		}
+	}
+
+	// sensors needing edge detection, and thresholds needing a flag
+	private void collectInputs(List<State> states) {
+		for (State state : states) {
+			for (Transition transition : state.getTransitions()) {
+				if (transition instanceof SignalTransition) {
+					collectInputs(((SignalTransition) transition).getExpression());
+				}
+			}
+			for (Region region : state.getRegions()) {
+				collectInputs(region.getStates());
+			}
+		}
+	}
+
+	private void collectInputs(Expression expression) {
+		for (Expression leaf : expression.leaves()) {
+			if (leaf instanceof Condition) {
+				Condition condition = (Condition) leaf;
+				if (condition.getSensor() instanceof AnalogSensor) {
+					throw new IllegalArgumentException("Analog sensor " + condition.getSensor().getName()
+							+ " can only be compared to thresholds");
+				}
+				guarded.add(condition.getSensor());
+				if (condition.getEdge() != null) {
+					edges.add(condition.getSensor());
+				}
+			} else if (leaf instanceof Threshold) {
+				Threshold threshold = (Threshold) leaf;
+				if (threshold.getValue() < 0 || threshold.getValue() > 1023 || threshold.getHysteresis() < 0) {
+					throw new IllegalArgumentException("Threshold " + threshold.getValue() + " of sensor "
+							+ threshold.getSensor().getName()
+							+ " must be between 0 and 1023, with a positive hysteresis");
+				}
+				thresholds.computeIfAbsent(threshold.getSensor(), s -> new LinkedHashMap<>())
+						.putIfAbsent(flag(threshold), threshold);
+			}
+		}
+	}
+
+	// e.g. lightAbove600, or lightBelow200_10 with an hysteresis of 10
+	private String flag(Threshold threshold) {
+		return ns(threshold.getSensor().getName())
+				+ (threshold.getDirection() == Threshold.Direction.ABOVE ? "Above" : "Below") + threshold.getValue()
+				+ (threshold.getHysteresis() != 0 ? "_" + threshold.getHysteresis() : "");
+	}
+
+	// analogRead takes about 100 us: at most one input is sampled per iteration, the others wait for the next ones.
+	// Several sensors are checked from a rotating first one, so that a sensor due at every iteration cannot starve
+	// the ones after it.
+	private void sample(List<Brick> bricks) {
+		List<AnalogSensor> sensors = analogSensors(bricks);
+		if (sensors.size() == 1) {
+			AnalogSensor sensor = sensors.get(0);
+			w(String.format("\tif (millis() - %sSampledAt >= %d) {\n", ns(sensor.getName()), sensor.getSamplingPeriod()));
+			sample(sensor, "\t\t");
+			w("\t}\n");
+		}
+		if (sensors.size() < 2) {
+			return;
+		}
+		String next = ns("analogNext");
+		w(String.format("\tfor (byte analogTry = 0; analogTry < %d; analogTry++) {\n", sensors.size()));
+		w(String.format("\t\tbyte analogSensor = (%s + analogTry) %% %d;\n", next, sensors.size()));
+		String keyword = "\t\tif";
+		for (int i = 0; i < sensors.size(); i++) {
+			AnalogSensor sensor = sensors.get(i);
+			w(String.format("%s (analogSensor == %d && millis() - %sSampledAt >= %d) {\n", keyword, i,
+					ns(sensor.getName()), sensor.getSamplingPeriod()));
+			sample(sensor, "\t\t\t");
+			w(String.format("\t\t\t%s = %d;\n\t\t\tbreak;\n", next, (i + 1) % sensors.size()));
+			keyword = "\t\t} else if";
+		}
+		w("\t\t}\n\t}\n");
+	}
+
+	private static List<AnalogSensor> analogSensors(List<Brick> bricks) {
+		List<AnalogSensor> sensors = new ArrayList<>();
+		for (Brick brick : bricks) {
+			if (brick instanceof AnalogSensor) {
+				sensors.add((AnalogSensor) brick);
+			}
+		}
+		return sensors;
+	}
+
+	// reads a sensor and updates the flags of its thresholds
+	private void sample(AnalogSensor sensor, String indent) {
+		String name = ns(sensor.getName());
+		w(String.format("%s%sSampledAt = millis();\n", indent, name));
+		w(String.format("%s%sValue = analogRead(%s);\n", indent, name, Validator.pinName(sensor.getPin())));
+		for (Map.Entry<String, Threshold> flag : thresholds.getOrDefault(sensor, new HashMap<>()).entrySet()) {
+			Threshold threshold = flag.getValue();
+			boolean above = threshold.getDirection() == Threshold.Direction.ABOVE;
+			String set = String.format("%sValue %s %d", name, above ? ">" : "<", threshold.getValue());
+			if (threshold.getHysteresis() == 0) {
+				w(String.format("%s%s = %s;\n", indent, flag.getKey(), set));
+				continue;
+			}
+			int release = threshold.getValue() + (above ? -threshold.getHysteresis() : threshold.getHysteresis());
+			w(String.format("%sif (%s) {\n%s\t%s = true;\n", indent, set, indent, flag.getKey()));
+			w(String.format("%s} else if (%sValue %s %d) {\n%s\t%s = false;\n%s}\n",
+					indent, name, above ? "<" : ">", release, indent, flag.getKey(), indent));
 		}
 	}
 
+	@Override
+	public void visit(AnalogSensor sensor) {
+		if (context.get("pass") == PASS.ONE) {
+			w(String.format("\nint %sValue = 0;\n", ns(sensor.getName())));
+			w(String.format("unsigned long %sSampledAt = 0;\n", ns(sensor.getName())));
+			for (String flag : thresholds.getOrDefault(sensor, new HashMap<>()).keySet()) {
+				w(String.format("boolean %s = false;\n", flag));
+			}
+			return;
+		}
+		if (context.get("pass") == PASS.TWO) {
+			w(String.format("  pinMode(%s, INPUT);  // %s [AnalogSensor, every %d ms]\n",
+					Validator.pinName(sensor.getPin()), sensor.getName(), sensor.getSamplingPeriod()));
+		}
+	}
+
+	@Override
+	public void visit(Threshold threshold) {
+		w(flag(threshold));
+	}
+
 	@Override
 	public void visit(Condition condition) {
-		String sensorName = condition.getSensor().getName();
+		String sensorName = ns(condition.getSensor().getName());
+		if (condition.getEdge() != null) {
+			// true during a single iteration, the bounce guard filters the edges of a bouncing contact
+			String edge = sensorName + (condition.getEdge() == EDGE.RISING ? "Rising" : "Falling");
+			w(profile != null ? sensorName + "BounceGuard && " + edge : edge + " && " + sensorName + "BounceGuard");
+			return;
+		}
+		if (profile != null) {
+			// the guard is a plain variable, cheaper than the pin read it can skip
+			w(String.format("%sBounceGuard && digitalRead(%d) == %s",
+					sensorName, condition.getSensor().getPin(), condition.getValue()));
+			return;
+		}
 		w(String.format("digitalRead(%d) == %s && %sBounceGuard",
 				condition.getSensor().getPin(), condition.getValue(), sensorName));
 	}
 
 	@Override
 	public void visit(And and) {
-		w("(");
-		and.getLeftExpression().accept(this);
-		w(") && (");
-		and.getRightExpression().accept(this);
-		w(")");
+		binary(and, " && ");
 	}
 
 	@Override
 	public void visit(Or or) {
-		w("(");
-		or.getLeftExpression().accept(this);
-		w(") || (");
-		or.getRightExpression().accept(this);
-		w(")");
+		binary(or, " || ");
+	}
+
+	// written with an explicit stack of texts and operands rather than by recursion, as guards may be deep
+	private void binary(BinaryExpression expression, String operator) {
+		Map<Expression, Integer> costs = profile != null ? costs(expression) : null;
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(expression);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof String) {
+				w((String) next);
+			} else if (next instanceof BinaryExpression) {
+				BinaryExpression binary = (BinaryExpression) next;
+				Expression left = binary.getLeftExpression();
+				Expression right = binary.getRightExpression();
+				// operands have no side effects, the cheapest one is evaluated first
+				if (costs != null && costs.get(right) < costs.get(left)) {
+					left = binary.getRightExpression();
+					right = binary.getLeftExpression();
+				}
+				pending.push(")");
+				pending.push(right);
+				pending.push(")" + (binary instanceof And ? " && " : " || ") + "(");
+				pending.push(left);
+				pending.push("(");
+			} else {
+				((Expression) next).accept(this);
+			}
+		}
 	}
 
 	@Override
@@ -200,12 +914,457 @@ public class ToWiring extends Visitor<StringBuffer> {
 			return;
 		}
 		if (context.get("pass") == PASS.TWO) {
+			// checked against the time the state was entered, instead of blocking the loop with delay()
 			int delayInMS = transition.getDelay();
-			w(String.format("\t\t\tdelay(%d);\n", delayInMS));
-			w("\t\t\t\tcurrentState = " + transition.getNext().getName() + ";\n");
-			w("\t\t\t}\n");
+			openIf();
+			w(String.format("millis() - %s >= %d ) {\n", machine.enteredAt, delayInMS));
+			goTo(transition);
+			closeIf();
+			return;
+		}
+	}
+
+	/*********************
+	 ** Instrumentation **
+	 *********************/
+
+	private void declareTelemetry() {
+		int states = telemetry.getStates().size();
+		int transitions = telemetry.getTransitions().size();
+		int length = TelemetryFrame.payloadLength(states, transitions);
+
+		w("\n// Telemetry, sent on Serial every second\n");
+		w("unsigned long telemetryLoops = 0;\n");
+		w("unsigned long telemetryMaxMicros = 0;\n");
+		w("unsigned long telemetryTotalMicros = 0;\n");
+		w("unsigned long telemetryLastStart = 0;\n");
+		w("unsigned long telemetryLastFrame = 0;\n");
+		w(String.format("unsigned long telemetryDwell[%d];\n", Math.max(states, 1)));
+		w(String.format("unsigned int telemetryFires[%d];\n", Math.max(transitions, 1)));
+
+		// little-endian integers, the checksum is the xor of every byte after the sync byte
+		w("\nvoid telemetryWrite(unsigned long value, byte size, byte &checksum) {\n");
+		w("  for (byte i = 0; i < size; i++) {\n");
+		w("    byte b = (value >> (8 * i)) & 0xFF;\n");
+		w("    Serial.write(b);\n");
+		w("    checksum ^= b;\n");
+		w("  }\n");
+		w("}\n");
+		w("\nvoid telemetrySend() {\n");
+		w("  byte checksum = 0;\n");
+		w(String.format("  Serial.write((byte) 0x%02X);\n", TelemetryFrame.SYNC));
+		w(String.format("  telemetryWrite(%d, 1, checksum);\n", TelemetryFrame.METRICS));
+		w(String.format("  telemetryWrite(%d, 2, checksum);\n", length));
+		w("  telemetryWrite(telemetryLoops, 4, checksum);\n");
+		w("  telemetryWrite(telemetryMaxMicros, 4, checksum);\n");
+		w("  telemetryWrite(telemetryTotalMicros, 4, checksum);\n");
+		w(String.format("  telemetryWrite(%d, 2, checksum);\n", states));
+		w(String.format("  for (unsigned int i = 0; i < %d; i++) {\n", states));
+		w("    telemetryWrite(telemetryDwell[i], 4, checksum);\n");
+		w("    telemetryDwell[i] = 0;\n");
+		w("  }\n");
+		w(String.format("  telemetryWrite(%d, 2, checksum);\n", transitions));
+		w(String.format("  for (unsigned int i = 0; i < %d; i++) {\n", transitions));
+		w("    telemetryWrite(telemetryFires[i], 2, checksum);\n");
+		w("    telemetryFires[i] = 0;\n");
+		w("  }\n");
+		w("  Serial.write(checksum);\n");
+		w("  telemetryLoops = 0;\n");
+		w("  telemetryMaxMicros = 0;\n");
+		w("  telemetryTotalMicros = 0;\n");
+		w("}\n");
+	}
+
+	// the states of a region are numbered after the first state of the region, in the order of its enum
+	private void dwell(List<State> states, String current, String indent) {
+		if (states.isEmpty()) {
+			return;
+		}
+		int first = telemetry.indexOf(states.get(0));
+		w(indent + "telemetryDwell[" + (first == 0 ? "" : first + " + ") + current + "] += telemetryElapsed;\n");
+		for (State state : states) {
+			if (state.getRegions().isEmpty()) {
+				continue;
+			}
+			w(indent + "if (" + current + " == " + ids.get(state) + ") {\n");
+			for (Region region : state.getRegions()) {
+				dwell(region.getStates(), regions.get(region).current, indent + "\t");
+			}
+			w(indent + "}\n");
+		}
+	}
+
+	/*****************
+	 ** Shared code **
+	 *****************/
+
+	// the cases of a switch, states with the same code sharing a single one
+	private void cases(List<State> states) {
+		if (!shared) {
+			render(states);
 			return;
 		}
+		Map<String, List<State>> bodies = new LinkedHashMap<>();
+		List<String> codes = renderEach(states);
+		for (int i = 0; i < states.size(); i++) {
+			String code = codes.get(i);
+			// everything but the case label
+			bodies.computeIfAbsent(code.substring(code.indexOf('\n') + 1), body -> new ArrayList<>()).add(states.get(i));
+		}
+		for (Map.Entry<String, List<State>> body : bodies.entrySet()) {
+			for (State state : body.getValue()) {
+				w("\t\tcase " + ids.get(state) + ":\n");
+			}
+			w(body.getKey());
+		}
+	}
+
+	private String share(String code) {
+		return calls.getOrDefault(code, code);
+	}
+
+	// a function for each action sequence or transition block written by several cases
+	private void declareShared(App app) {
+		List<State> states = new ArrayList<>();
+		flatten(app.getStates(), states);
+		Map<String, String[]> cases = new LinkedHashMap<>();
+		for (State state : states) {
+			ToWiring worker = new ToWiring(this, PASS.TWO);
+			worker.machine = machines.get(state);
+			String body = worker.capture(() -> state.accept(worker));
+			// states sharing a case write its code once
+			// the transitions of an error state are not generated
+			cases.putIfAbsent(machines.get(state).current + body.substring(body.indexOf('\n')), new String[] {
+					worker.actions(state), state instanceof ErrorState ? "" : worker.transitions(state)});
+		}
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		Set<String> sequences = new HashSet<>();
+		for (String[] parts : cases.values()) {
+			// a single action is as big as its call
+			if (parts[0].split("\n").length > 1) {
+				counts.merge(parts[0], 1, Integer::sum);
+				sequences.add(parts[0]);
+			}
+			if (!parts[1].isEmpty()) {
+				counts.merge(parts[1], 1, Integer::sum);
+			}
+		}
+		int actions = 0, transitions = 0;
+		for (Map.Entry<String, Integer> count : counts.entrySet()) {
+			if (count.getValue() < 2) {
+				continue;
+			}
+			String code = count.getKey();
+			String function = ns(sequences.contains(code) ? "actions" + actions++ : "transitions" + transitions++);
+			w("\n// shared by " + count.getValue() + " states\n");
+			w("void " + function + "() {\n");
+			for (String line : code.split("\n")) {
+				w((line.startsWith("\t\t") ? line.substring(2) : line) + "\n");
+			}
+			w("}\n");
+			calls.put(code, "\t\t\t" + function + "();\n");
+		}
+	}
+
+	private void flatten(List<State> states, List<State> all) {
+		for (State state : states) {
+			all.add(state);
+			for (Region region : state.getRegions()) {
+				flatten(region.getStates(), all);
+			}
+		}
+	}
+
+	/***************
+	 ** Low power **
+	 ***************/
+
+	private static class Sleep {
+		final String mode;
+		// pins 8 to 13, A0 to A5 (14 to 19) and 0 to 7, as PCMSK0, PCMSK1 and PCMSK2
+		final int[] masks = new int[3];
+		// sensors whose debounce window must be closed: a press in the window would not be seen again once asleep
+		final Set<String> debounced = new LinkedHashSet<>();
+
+		Sleep(String mode) {
+			this.mode = mode;
+		}
+	}
+
+	// states of the main machine left only through their sensors or a delay; the mode of a state only depends on
+	// what its own transitions read, analog sensors are sampled again within a few iterations of waking up
+	private void collectSleeps(App app) {
+		// the display is refreshed after each iteration, a change of its sensor must wake the board up
+		Brick shown = app.getLCDDisplay() != null ? app.getLCDDisplay().getBrick() : null;
+		for (State state : app.getStates()) {
+			if (state instanceof ErrorState || !state.getRegions().isEmpty()) {
+				continue;
+			}
+			boolean timed = false;
+			Set<Sensor> sensors = new LinkedHashSet<>();
+			for (Transition transition : state.getTransitions()) {
+				if (transition instanceof TimeTransition) {
+					timed = true;
+				} else {
+					timed |= collectSensors(((SignalTransition) transition).getExpression(), sensors);
+				}
+			}
+			int[] masks = new int[3];
+			boolean wakes = true;
+			for (Sensor sensor : sensors) {
+				wakes &= mask(sensor.getPin(), masks);
+			}
+			if (shown instanceof Sensor && !(shown instanceof AnalogSensor)) {
+				timed |= !mask(shown.getPin(), masks);
+			}
+			// nothing to wake up on: the timer still does
+			timed |= masks[0] == 0 && masks[1] == 0 && masks[2] == 0;
+			Sleep sleep = new Sleep(timed ? "SLEEP_MODE_IDLE" : "SLEEP_MODE_PWR_DOWN");
+			System.arraycopy(masks, 0, sleep.masks, 0, masks.length);
+			for (Sensor sensor : sensors) {
+				sleep.debounced.add(ns(sensor.getName()));
+			}
+			if (wakes) {
+				sleeps.put(state, sleep);
+			}
+		}
+	}
+
+	// false if the pin has no pin change interrupt
+	private static boolean mask(int pin, int[] masks) {
+		if (pin < 0 || pin > 19) {
+			return false;
+		} else if (pin < 8) {
+			masks[2] |= 1 << pin;
+		} else if (pin < 14) {
+			masks[0] |= 1 << (pin - 8);
+		} else {
+			masks[1] |= 1 << (pin - 14);
+		}
+		return true;
+	}
+
+	// digital sensors of the expression, true if it also compares an analog sensor, only refreshed by the timer
+	private static boolean collectSensors(Expression expression, Set<Sensor> sensors) {
+		boolean timed = false;
+		for (Expression leaf : expression.leaves()) {
+			if (leaf instanceof Condition) {
+				sensors.add(((Condition) leaf).getSensor());
+			} else {
+				timed = true;
+			}
+		}
+		return timed;
+	}
+
+	private void declareLowPower() {
+		w("\n// Low power: sleeps until a pin of the masks changes, or until the next interrupt in idle mode\n");
+		w("#include <avr/sleep.h>\n");
+		w("\nvoid lowPowerSleep(byte seen[], byte mode, byte mask0, byte mask1, byte mask2) {\n");
+		w("  noInterrupts();\n");
+		w("  PCMSK0 = mask0;\n");
+		w("  PCMSK1 = mask1;\n");
+		w("  PCMSK2 = mask2;\n");
+		w("  PCIFR = _BV(PCIF0) | _BV(PCIF1) | _BV(PCIF2);\n");
+		w("  PCICR = (mask0 ? _BV(PCIE0) : 0) | (mask1 ? _BV(PCIE1) : 0) | (mask2 ? _BV(PCIE2) : 0);\n");
+		// a change before the interrupts were enabled would be missed: the next iteration handles it instead
+		w("  if (((PINB ^ seen[0]) & mask0) || ((PINC ^ seen[1]) & mask1) || ((PIND ^ seen[2]) & mask2)) {\n");
+		w("    PCICR = 0;\n");
+		w("    interrupts();\n");
+		w("    return;\n");
+		w("  }\n");
+		w("  set_sleep_mode(mode);\n");
+		w("  sleep_enable();\n");
+		// the instruction following interrupts() is always executed, a pending interrupt wakes the board up at once
+		w("  interrupts();\n");
+		w("  sleep_cpu();\n");
+		w("  sleep_disable();\n");
+		w("  PCICR = 0;\n");
+		w("}\n");
+		w("\nISR(PCINT0_vect) {}\n");
+		w("ISR(PCINT1_vect) {}\n");
+		w("ISR(PCINT2_vect) {}\n");
+	}
+
+	// actions of the state were applied during the iteration, so actuators keep their level while asleep
+	private void sleep(Machine top) {
+		w("\t// low power: a state that did not change during this iteration sleeps until it can be left\n");
+		w("\tif (" + top.current + " == lowPowerState) {\n");
+		w("\t\tswitch(" + top.current + "){\n");
+		for (Map.Entry<State, Sleep> entry : sleeps.entrySet()) {
+			Sleep sleep = entry.getValue();
+			String call = String.format("lowPowerSleep(lowPowerPins, %s, 0x%02X, 0x%02X, 0x%02X);\n",
+					sleep.mode, sleep.masks[0], sleep.masks[1], sleep.masks[2]);
+			w("\t\t\tcase " + ids.get(entry.getKey()) + ":\n");
+			if (sleep.debounced.isEmpty()) {
+				w("\t\t\t\t" + call);
+			} else {
+				w("\t\t\t\tif (");
+				String sep = "";
+				for (String sensor : sleep.debounced) {
+					w(String.format("%smillis() - %sLastDebounceTime > debounce", sep, sensor));
+					sep = " && ";
+				}
+				w(") {\n");
+				w("\t\t\t\t\t" + call);
+				w("\t\t\t\t}\n");
+			}
+			w("\t\t\tbreak;\n");
+		}
+		w("\t\t\tdefault:\n");
+		w("\t\t\tbreak;\n");
+		w("\t\t}\n");
+		w("\t}\n");
+	}
+
+	/*************************
+	 ** Transition ordering **
+	 *************************/
+
+	// rough costs, in the same unit: reading a pin is much slower than reading millis() or a variable
+	private static final int READ_COST = 4;
+	private static final int MILLIS_COST = 2;
+	private static final int VARIABLE_COST = 1;
+
+	private List<Transition> order(State state) {
+		List<Transition> transitions = new ArrayList<>(state.getTransitions());
+		String from = ids.get(state).substring(namespace.length());
+		// stable sort: most frequent first, then cheapest, then as declared
+		transitions.sort(Comparator
+				.comparingLong((Transition t) -> -profile.count(from, ids.get(t.getNext()).substring(namespace.length())))
+				.thenComparingInt(ToWiring::cost));
+		return transitions;
+	}
+
+	private static int cost(Transition transition) {
+		if (transition instanceof SignalTransition) {
+			return cost(((SignalTransition) transition).getExpression());
+		}
+		return MILLIS_COST;
+	}
+
+	private static int cost(Expression expression) {
+		int cost = 0;
+		for (Expression leaf : expression.leaves()) {
+			cost += leafCost(leaf);
+		}
+		return cost;
+	}
+
+	private static int leafCost(Expression leaf) {
+		if (leaf instanceof Threshold || ((Condition) leaf).getEdge() != null) {
+			return VARIABLE_COST;
+		}
+		return READ_COST;
+	}
+
+	// cost of every subexpression, operands before their operator, each computed once
+	private static Map<Expression, Integer> costs(Expression expression) {
+		Map<Expression, Integer> costs = new IdentityHashMap<>();
+		Deque<Expression> pending = new ArrayDeque<>();
+		pending.push(expression);
+		while (!pending.isEmpty()) {
+			Expression next = pending.peek();
+			if (costs.containsKey(next)) {
+				pending.pop();
+			} else if (!(next instanceof BinaryExpression)) {
+				costs.put(pending.pop(), leafCost(next));
+			} else {
+				Expression left = ((BinaryExpression) next).getLeftExpression();
+				Expression right = ((BinaryExpression) next).getRightExpression();
+				if (costs.containsKey(left) && costs.containsKey(right)) {
+					costs.put(pending.pop(), costs.get(left) + costs.get(right));
+				} else {
+					pending.push(right);
+					pending.push(left);
+				}
+			}
+		}
+		return costs;
+	}
+
+	// true when no two transitions can be enabled together, as they need different values of the same sensor
+	private static boolean exclusive(List<Transition> transitions) {
+		List<Map<Sensor, SIGNAL>> required = new ArrayList<>();
+		for (Transition transition : transitions) {
+			if (!(transition instanceof SignalTransition)) {
+				return transitions.size() <= 1;
+			}
+			required.add(required(((SignalTransition) transition).getExpression()));
+		}
+		for (int i = 0; i < required.size(); i++) {
+			for (int j = i + 1; j < required.size(); j++) {
+				if (!conflict(required.get(i), required.get(j))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean conflict(Map<Sensor, SIGNAL> a, Map<Sensor, SIGNAL> b) {
+		if (a == null || b == null) {
+			return true;
+		}
+		for (Map.Entry<Sensor, SIGNAL> e : a.entrySet()) {
+			if (b.containsKey(e.getKey()) && b.get(e.getKey()) != e.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// sensor values implied by an expression, null if it can never be true
+	// operands are evaluated before their operator with explicit stacks, the values of the operands on top
+	private static Map<Sensor, SIGNAL> required(Expression expression) {
+		Deque<Expression> pending = new ArrayDeque<>();
+		Set<Expression> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<Map<Sensor, SIGNAL>> values = new ArrayList<>();
+		pending.push(expression);
+		while (!pending.isEmpty()) {
+			Expression next = pending.pop();
+			if (next instanceof Threshold) {
+				values.add(new HashMap<>());
+			} else if (next instanceof Condition) {
+				Map<Sensor, SIGNAL> value = new HashMap<>();
+				value.put(((Condition) next).getSensor(), ((Condition) next).getValue());
+				values.add(value);
+			} else if (expanded.add(next)) {
+				// shared subexpressions are expanded again, each occurrence gets maps of its own
+				pending.push(next);
+				pending.push(((BinaryExpression) next).getRightExpression());
+				pending.push(((BinaryExpression) next).getLeftExpression());
+			} else {
+				expanded.remove(next);
+				Map<Sensor, SIGNAL> right = values.remove(values.size() - 1);
+				Map<Sensor, SIGNAL> left = values.remove(values.size() - 1);
+				values.add(combine(next instanceof And, left, right));
+			}
+		}
+		return values.get(0);
+	}
+
+	private static Map<Sensor, SIGNAL> combine(boolean and, Map<Sensor, SIGNAL> left, Map<Sensor, SIGNAL> right) {
+		if (and) {
+			if (conflict(left, right)) {
+				return null;
+			}
+			left.putAll(right);
+			return left;
+		}
+		if (left == null || right == null) {
+			return left == null ? right : left;
+		}
+		left.entrySet().retainAll(right.entrySet());
+		return left;
+	}
+
+	private static void collectConditions(Expression expression, Map<String, Expression> conditions) {
+		for (Expression leaf : expression.leaves()) {
+			if (leaf instanceof Condition) {
+				conditions.putIfAbsent(((Condition) leaf).getSensor().getName(), leaf);
+			}
+		}
 	}
 
     @Override
@@ -220,21 +1379,22 @@ public class ToWiring extends Visitor<StringBuffer> {
             if (pins.length() > 2) pins.setLength(pins.length() - 2);
 
             w("\n#include <LiquidCrystal.h>\n");
-            w("LiquidCrystal lcd(" + pins.toString() + ");\n");
+            w("LiquidCrystal " + ns("lcd") + "(" + pins.toString() + ");\n");
         }
 
         if (context.get("pass") == PASS.TWO) {
-            w("  lcd.begin(16, 2);\n");
+            w("  " + ns("lcd") + ".begin(16, 2);\n");
             String prefix = lcdDisplay.getPrefix() != null ? lcdDisplay.getPrefix() : "";
-            w(String.format("  lcd.setCursor(0,0);\n"));
-            w(String.format("  lcd.print(\"%s\");\n", prefix));
+            w(String.format("  %s.setCursor(0,0);\n", ns("lcd")));
+            w(String.format("  %s.print(%s);\n", ns("lcd"), literal(prefix)));
         }
 
         if (context.get("pass") == PASS.THREE) {
             Brick brick = lcdDisplay.getBrick();
 
-            w(String.format("\tlcd.setCursor(0,1);\n"));
-            w(String.format("\tlcd.print(digitalRead(%d) == HIGH ? \"ON \" : \"OFF\");\n", brick.getPin()));
+            w(String.format("\t%s.setCursor(0,1);\n", ns("lcd")));
+            w(String.format("\t%s.print(digitalRead(%d) == HIGH ? %s : %s);\n", ns("lcd"), brick.getPin(),
+                    literal("ON "), literal("OFF")));
         }
     }
 
@@ -253,7 +1413,7 @@ public class ToWiring extends Visitor<StringBuffer> {
 	public void visit(ErrorState state) {
 		if (context.get("pass") == PASS.ONE) {
 			// 1er passage : on veut juste le nom dans l'enum STATE
-			w(state.getName());
+			w(ids.get(state));
 			return;
 		}
 
@@ -261,13 +1421,21 @@ public class ToWiring extends Visitor<StringBuffer> {
 			int pin = state.getActuator().getPin();
 			int code = state.getErrorCode();
 
-			w("\t\tcase " + state.getName() + ":\n");
+			w("\t\tcase " + ids.get(state) + ":\n");
 
 			// (optionnel) exécuter aussi les actions normales de l'état
-			for (Action action : state.getActions()) {
-				action.accept(this);
-			}
+			w(share(actions(state)));
 
+			if (isModule()) {
+				// the blinking pattern is derived from millis(), so that other modules keep running
+				w("\t\t\t// Error state: blink code " + code + " on pin " + pin + ", without blocking\n");
+				w("\t\t\t{\n");
+				w("\t\t\t\tunsigned long phase = millis() % " + (code * 400 + 800) + "UL;\n");
+				w("\t\t\t\tdigitalWrite(" + pin + ", phase < " + (code * 400) + "UL && phase % 400 < 200 ? HIGH : LOW);\n");
+				w("\t\t\t}\n");
+				w("\t\t\tbreak;\n");
+				return;
+			}
 			w("\t\t\t// Error state: blink code " + code + " on pin " + pin + "\n");
 			w("\t\t\tfor (int i = 0; i < " + code + "; i++) {\n");
 			w("\t\t\t\tdigitalWrite(" + pin + ", HIGH);\n");
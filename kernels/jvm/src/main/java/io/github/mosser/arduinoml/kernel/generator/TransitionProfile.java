@@ -0,0 +1,77 @@
+package io.github.mosser.arduinoml.kernel.generator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How often each transition fired on a device, used by ToWiring to check the most frequent transitions first.
+ *
+ * States are named as in the generated enum (the name of the state, prefixed by its parent state and region
+ * for the states of a region, e.g. on_blink_off). A trace has one transition per line, optionally followed by
+ * how many times it fired; empty lines and lines starting with # are ignored:
+ *
+ *   idle -> alarming
+ *   alarming -> idle 42
+ */
+public class TransitionProfile {
+
+	private final Map<String, Long> counts = new TreeMap<>();
+
+	public static TransitionProfile empty() {
+		return new TransitionProfile();
+	}
+
+	public static TransitionProfile read(Reader in) throws IOException {
+		TransitionProfile profile = new TransitionProfile();
+		BufferedReader lines = new BufferedReader(in);
+		String line;
+		int number = 0;
+		while ((line = lines.readLine()) != null) {
+			number++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			if (parts.length < 3 || parts.length > 4 || !parts[1].equals("->")) {
+				throw new IllegalArgumentException("Malformed trace line " + number + ": " + line);
+			}
+			long count = 1;
+			if (parts.length == 4) {
+				try {
+					count = Long.parseLong(parts[3]);
+				} catch (NumberFormatException nfe) {
+					throw new IllegalArgumentException("Malformed count on trace line " + number + ": " + line);
+				}
+			}
+			profile.record(parts[0], parts[2], count);
+		}
+		return profile;
+	}
+
+	public void record(String from, String to, long count) {
+		counts.merge(key(from, to), count, Long::sum);
+	}
+
+	public long count(String from, String to) {
+		return counts.getOrDefault(key(from, to), 0L);
+	}
+
+	public void write(Writer out) throws IOException {
+		for (Map.Entry<String, Long> count : counts.entrySet()) {
+			out.write(count.getKey() + " " + count.getValue() + "\n");
+		}
+	}
+
+	public boolean isEmpty() {
+		return counts.isEmpty();
+	}
+
+	private static String key(String from, String to) {
+		return from + " -> " + to;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.Map;
 import io.github.mosser.arduinoml.kernel.App;
 import io.github.mosser.arduinoml.kernel.behavioral.*;
 import io.github.mosser.arduinoml.kernel.structural.Actuator;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
 import io.github.mosser.arduinoml.kernel.structural.LCDDisplay;
 import io.github.mosser.arduinoml.kernel.structural.Sensor;
 
@@ -15,6 +16,8 @@ public abstract class Visitor<T> {
 
 	public abstract void visit(State state);
 
+	public abstract void visit(Region region);
+
 	public abstract void visit(SignalTransition transition);
 
 	public abstract void visit(TimeTransition transition);
@@ -27,12 +30,16 @@ public abstract class Visitor<T> {
 
 	public abstract void visit(Sensor sensor);
 
+	public abstract void visit(AnalogSensor sensor);
+
 	public abstract void visit(Condition condition);
 
 	public abstract void visit(And and);
 
 	public abstract void visit(Or or);
 
+	public abstract void visit(Threshold threshold);
+
 	public abstract void visit(ErrorState errorState);
 
 	/***********************
@@ -0,0 +1,31 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Code of a state: its body runs at every iteration of the loop while the state is the current one, its entry
+ * instructions once, by each jump to the state (and by setup() for the initial one).
+ */
+public class Block {
+
+	private final String name;
+	private final List<Instruction> entry = new ArrayList<>();
+	private final List<Instruction> body = new ArrayList<>();
+
+	public Block(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<Instruction> getEntry() {
+		return entry;
+	}
+
+	public List<Instruction> getBody() {
+		return body;
+	}
+}
@@ -0,0 +1,146 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Simplifies guards, whose operands have no side effects: constants are propagated, operands repeated in an And or
+ * an Or kept once, the operands common to every alternative of an Or factored out, two levels or two edges of the
+ * same sensor make an And false (two levels make an Or true), and a delay of 0 ms is always over.
+ * A branch whose guard is false is removed, an unchained one whose guard is true is replaced by its instructions.
+ */
+public class ConstantFolding implements Pass {
+
+	@Override
+	public String getName() {
+		return "folding";
+	}
+
+	@Override
+	public void run(Program program) {
+		for (Block block : program.getBlocks()) {
+			fold(block.getEntry());
+			fold(block.getBody());
+		}
+	}
+
+	private static void fold(List<Instruction> instructions) {
+		List<Instruction> folded = new ArrayList<>();
+		// whether a branch of the current chain was kept, and whether one of them always runs
+		boolean open = false;
+		boolean always = false;
+		for (Instruction instruction : instructions) {
+			if (!(instruction instanceof Instruction.Branch) || !((Instruction.Branch) instruction).isChained()) {
+				open = false;
+				always = false;
+			}
+			if (!(instruction instanceof Instruction.Branch)) {
+				folded.add(instruction);
+				continue;
+			}
+			Instruction.Branch branch = (Instruction.Branch) instruction;
+			Guard guard = fold(branch.getGuard());
+			if (always || guard.equals(Guard.FALSE)) {
+				continue;
+			}
+			fold(branch.getThen());
+			branch.setChained(open);
+			always = guard.equals(Guard.TRUE);
+			if (always && !open) {
+				folded.addAll(branch.getThen());
+				continue;
+			}
+			branch.setGuard(guard);
+			folded.add(branch);
+			open = true;
+		}
+		instructions.clear();
+		instructions.addAll(folded);
+	}
+
+	static Guard fold(Guard guard) {
+		if (guard instanceof Guard.Elapsed && ((Guard.Elapsed) guard).getMillis() <= 0) {
+			return Guard.TRUE;
+		}
+		boolean and = guard instanceof Guard.And;
+		if (!and && !(guard instanceof Guard.Or)) {
+			return guard;
+		}
+		// the neutral and the absorbing constants of the operator
+		Guard neutral = and ? Guard.TRUE : Guard.FALSE;
+		Guard absorbing = and ? Guard.FALSE : Guard.TRUE;
+		Set<Guard> operands = new LinkedHashSet<>();
+		for (Guard operand : and ? ((Guard.And) guard).getOperands() : ((Guard.Or) guard).getOperands()) {
+			Guard folded = fold(operand);
+			if (folded.equals(absorbing)) {
+				return absorbing;
+			}
+			if (!folded.equals(neutral)) {
+				operands.addAll(and ? conjuncts(folded) : disjuncts(folded));
+			}
+		}
+		if (opposite(operands, and)) {
+			return absorbing;
+		}
+		if (operands.size() < 2) {
+			return operands.isEmpty() ? neutral : operands.iterator().next();
+		}
+		return and ? Guard.and(new ArrayList<>(operands)) : factor(new ArrayList<>(operands));
+	}
+
+	// (a && b) || (a && c) is a && (b || c), folded again as the remaining alternatives may now be opposite
+	private static Guard factor(List<Guard> alternatives) {
+		Set<Guard> common = new LinkedHashSet<>(conjuncts(alternatives.get(0)));
+		for (Guard alternative : alternatives) {
+			common.retainAll(conjuncts(alternative));
+		}
+		if (common.isEmpty()) {
+			return Guard.or(alternatives);
+		}
+		List<Guard> rest = new ArrayList<>();
+		for (Guard alternative : alternatives) {
+			List<Guard> remaining = new ArrayList<>(conjuncts(alternative));
+			remaining.removeAll(common);
+			if (remaining.isEmpty()) {
+				// the common part is an alternative by itself, which absorbs the others
+				return Guard.and(new ArrayList<>(common));
+			}
+			rest.add(Guard.and(remaining));
+		}
+		List<Guard> operands = new ArrayList<>(common);
+		operands.add(Guard.or(rest));
+		return fold(Guard.and(operands));
+	}
+
+	private static List<Guard> conjuncts(Guard guard) {
+		return guard instanceof Guard.And ? ((Guard.And) guard).getOperands() : Collections.singletonList(guard);
+	}
+
+	private static List<Guard> disjuncts(Guard guard) {
+		return guard instanceof Guard.Or ? ((Guard.Or) guard).getOperands() : Collections.singletonList(guard);
+	}
+
+	// both levels of a sensor (read the same way), or both of its edges, which only contradict each other (an
+	// iteration may see no edge): operands being distinct, two of them about the same thing are opposite
+	private static boolean opposite(Set<Guard> operands, boolean edges) {
+		Set<List<Object>> seen = new HashSet<>();
+		for (Guard operand : operands) {
+			List<Object> key = null;
+			if (operand instanceof Guard.Level) {
+				Guard.Level level = (Guard.Level) operand;
+				key = Arrays.asList("level", level.getSensor(), level.getLocal());
+			} else if (edges && operand instanceof Guard.Edge) {
+				key = Arrays.asList("edge", ((Guard.Edge) operand).getSensor());
+			}
+			if (key != null && !seen.add(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,228 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
+import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Condition of a branch. Guards are immutable values (two guards testing the same thing are equal): a pass that
+ * changes a guard builds a new one. And and Or take any number of operands, nested ones of the same kind are merged.
+ */
+public abstract class Guard {
+
+	public static final Guard TRUE = new Constant(true);
+	public static final Guard FALSE = new Constant(false);
+
+	private Guard() {
+	}
+
+	public static Guard and(List<Guard> operands) {
+		return operands.size() == 1 ? operands.get(0) : new And(operands);
+	}
+
+	public static Guard or(List<Guard> operands) {
+		return operands.size() == 1 ? operands.get(0) : new Or(operands);
+	}
+
+	// level of a digital sensor, read from the pin, or from the local a previous instruction read it into
+	public static final class Level extends Guard {
+		private final Brick sensor;
+		private final SIGNAL value;
+		private final String local;
+
+		public Level(Brick sensor, SIGNAL value, String local) {
+			this.sensor = sensor;
+			this.value = value;
+			this.local = local;
+		}
+
+		public Brick getSensor() {
+			return sensor;
+		}
+
+		public SIGNAL getValue() {
+			return value;
+		}
+
+		// null when the pin is read by the guard itself
+		public String getLocal() {
+			return local;
+		}
+
+		public Level readFrom(String local) {
+			return new Level(sensor, value, local);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Level && ((Level) o).sensor == sensor && ((Level) o).value == value
+					&& Objects.equals(((Level) o).local, local);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(sensor), value, local);
+		}
+	}
+
+	// edge of a sensor detected by the current iteration
+	public static final class Edge extends Guard {
+		private final Brick sensor;
+		private final EDGE edge;
+
+		public Edge(Brick sensor, EDGE edge) {
+			this.sensor = sensor;
+			this.edge = edge;
+		}
+
+		public Brick getSensor() {
+			return sensor;
+		}
+
+		public EDGE getEdge() {
+			return edge;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Edge && ((Edge) o).sensor == sensor && ((Edge) o).edge == edge;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(sensor), edge);
+		}
+	}
+
+	// the debounce window of the sensor, restarted when a transition reading it fires, is over
+	public static final class Debounced extends Guard {
+		private final Brick sensor;
+
+		public Debounced(Brick sensor) {
+			this.sensor = sensor;
+		}
+
+		public Brick getSensor() {
+			return sensor;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Debounced && ((Debounced) o).sensor == sensor;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(sensor);
+		}
+	}
+
+	// the current state was entered at least that many milliseconds ago
+	public static final class Elapsed extends Guard {
+		private final int millis;
+
+		public Elapsed(int millis) {
+			this.millis = millis;
+		}
+
+		public int getMillis() {
+			return millis;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Elapsed && ((Elapsed) o).millis == millis;
+		}
+
+		@Override
+		public int hashCode() {
+			return millis;
+		}
+	}
+
+	public static final class Constant extends Guard {
+		private final boolean value;
+
+		private Constant(boolean value) {
+			this.value = value;
+		}
+
+		public boolean getValue() {
+			return value;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Constant && ((Constant) o).value == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return Boolean.hashCode(value);
+		}
+	}
+
+	public static final class And extends Guard {
+		private final List<Guard> operands;
+
+		private And(List<Guard> operands) {
+			this.operands = merge(operands, And.class);
+		}
+
+		public List<Guard> getOperands() {
+			return operands;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof And && ((And) o).operands.equals(operands);
+		}
+
+		@Override
+		public int hashCode() {
+			return operands.hashCode();
+		}
+	}
+
+	public static final class Or extends Guard {
+		private final List<Guard> operands;
+
+		private Or(List<Guard> operands) {
+			this.operands = merge(operands, Or.class);
+		}
+
+		public List<Guard> getOperands() {
+			return operands;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Or && ((Or) o).operands.equals(operands);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * operands.hashCode() + 1;
+		}
+	}
+
+	private static List<Guard> merge(List<Guard> operands, Class<? extends Guard> kind) {
+		if (operands.size() < 2) {
+			throw new IllegalArgumentException("And and Or need at least two operands");
+		}
+		List<Guard> merged = new ArrayList<>();
+		for (Guard operand : operands) {
+			if (operand.getClass() == kind) {
+				merged.addAll(kind == And.class ? ((And) operand).operands : ((Or) operand).operands);
+			} else {
+				merged.add(operand);
+			}
+		}
+		return Collections.unmodifiableList(merged);
+	}
+}
@@ -0,0 +1,132 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Step of a block. Passes edit the instruction lists of blocks and branches in place, but replace an instruction
+ * rather than change it, except for the guard of a branch and whether it is chained.
+ */
+public abstract class Instruction {
+
+	private Instruction() {
+	}
+
+	// digitalWrite of an actuator
+	public static final class Write extends Instruction {
+		private final Brick actuator;
+		private final SIGNAL value;
+
+		public Write(Brick actuator, SIGNAL value) {
+			this.actuator = actuator;
+			this.value = value;
+		}
+
+		public Brick getActuator() {
+			return actuator;
+		}
+
+		public SIGNAL getValue() {
+			return value;
+		}
+	}
+
+	// digitalRead of a sensor into a local, read by the Level guards that name it
+	public static final class Read extends Instruction {
+		private final Brick sensor;
+		private final String local;
+
+		public Read(Brick sensor, String local) {
+			this.sensor = sensor;
+			this.local = local;
+		}
+
+		public Brick getSensor() {
+			return sensor;
+		}
+
+		public String getLocal() {
+			return local;
+		}
+	}
+
+	// runs its instructions when its guard holds; a chained branch is only tested when the previous one did not run
+	public static final class Branch extends Instruction {
+		private Guard guard;
+		private final List<Instruction> then;
+		private boolean chained = false;
+
+		public Branch(Guard guard, List<Instruction> then) {
+			this.guard = guard;
+			this.then = new ArrayList<>(then);
+		}
+
+		public Guard getGuard() {
+			return guard;
+		}
+
+		public void setGuard(Guard guard) {
+			this.guard = guard;
+		}
+
+		public List<Instruction> getThen() {
+			return then;
+		}
+
+		public boolean isChained() {
+			return chained;
+		}
+
+		public void setChained(boolean chained) {
+			this.chained = chained;
+		}
+	}
+
+	// makes the block the current state, and runs its entry instructions
+	public static final class Jump extends Instruction {
+		private final Block target;
+
+		public Jump(Block target) {
+			this.target = target;
+		}
+
+		public Block getTarget() {
+			return target;
+		}
+	}
+
+	// restarts the debounce window of a sensor
+	public static final class Restart extends Instruction {
+		private final Brick sensor;
+
+		public Restart(Brick sensor) {
+			this.sensor = sensor;
+		}
+
+		public Brick getSensor() {
+			return sensor;
+		}
+	}
+
+	// blinks the error code on an actuator, blocking the loop
+	public static final class Blink extends Instruction {
+		private final Brick actuator;
+		private final int code;
+
+		public Blink(Brick actuator, int code) {
+			this.actuator = actuator;
+			this.code = code;
+		}
+
+		public Brick getActuator() {
+			return actuator;
+		}
+
+		public int getCode() {
+			return code;
+		}
+	}
+}
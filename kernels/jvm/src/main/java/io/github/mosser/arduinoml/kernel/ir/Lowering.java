@@ -0,0 +1,109 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.Sensor;
+import io.github.mosser.arduinoml.kernel.utils.Validator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers an App to a Program doing exactly what ToWiring's sketch does: each state writes its actions at every
+ * iteration, then tests its transitions one after the other, each condition of a guard being debounced on its own.
+ * Optimizations are left to the passes.
+ *
+ * Only the core language is lowered for now: digital sensors, actuators, states, error states, signal and time
+ * transitions. Regions, analog sensors and LCD displays are rejected.
+ */
+public class Lowering {
+
+	private Lowering() {
+	}
+
+	public static Program lower(App app) {
+		Validator.validatePinUsage(app);
+		if (app.getLCDDisplay() != null) {
+			throw new IllegalArgumentException("LCD displays cannot be lowered yet");
+		}
+		Program program = new Program(app.getName());
+		for (Brick brick : app.getBricks()) {
+			if (brick instanceof AnalogSensor) {
+				throw new IllegalArgumentException("Analog sensor " + brick.getName() + " cannot be lowered yet");
+			}
+			program.getBricks().add(brick);
+		}
+		Map<State, Block> blocks = new HashMap<>();
+		for (State state : app.getStates()) {
+			if (!state.getRegions().isEmpty()) {
+				throw new IllegalArgumentException("Regions of state " + state.getName() + " cannot be lowered yet");
+			}
+			Block block = new Block(state.getName());
+			blocks.put(state, block);
+			program.getBlocks().add(block);
+		}
+		for (State state : app.getStates()) {
+			lower(state, blocks);
+		}
+		State initial = app.getInitial() != null ? app.getInitial() : app.getStates().get(0);
+		program.setInitial(blocks.get(initial));
+		return program;
+	}
+
+	private static void lower(State state, Map<State, Block> blocks) {
+		List<Instruction> body = blocks.get(state).getBody();
+		for (Action action : state.getActions()) {
+			body.add(new Instruction.Write(action.getActuator(), action.getValue()));
+		}
+		if (state instanceof ErrorState) {
+			body.add(new Instruction.Blink(((ErrorState) state).getActuator(), ((ErrorState) state).getErrorCode()));
+			return;
+		}
+		for (Transition transition : state.getTransitions()) {
+			Block target = blocks.get(transition.getNext());
+			if (target == null) {
+				throw new IllegalArgumentException("Transition to " + transition.getNext().getName()
+						+ " leaves the states of the app");
+			}
+			List<Instruction> then = new ArrayList<>();
+			Guard guard;
+			if (transition instanceof TimeTransition) {
+				guard = new Guard.Elapsed(((TimeTransition) transition).getDelay());
+			} else {
+				Expression expression = ((SignalTransition) transition).getExpression();
+				guard = guard(expression);
+				// the window of every sensor of the guard restarts, one restart per condition
+				for (Expression leaf : expression.leaves()) {
+					then.add(new Instruction.Restart(((Condition) leaf).getSensor()));
+				}
+			}
+			then.add(new Instruction.Jump(target));
+			body.add(new Instruction.Branch(guard, then));
+		}
+	}
+
+	// chains of && and || become single nodes, so only alternations of them nest
+	private static Guard guard(Expression expression) {
+		if (expression instanceof BinaryExpression) {
+			List<Guard> operands = new ArrayList<>();
+			for (Expression operand : ((BinaryExpression) expression).operands()) {
+				operands.add(guard(operand));
+			}
+			return expression instanceof And ? Guard.and(operands) : Guard.or(operands);
+		}
+		if (expression instanceof Condition) {
+			Condition condition = (Condition) expression;
+			Sensor sensor = condition.getSensor();
+			List<Guard> operands = new ArrayList<>();
+			operands.add(condition.getEdge() != null ? new Guard.Edge(sensor, condition.getEdge())
+					: new Guard.Level(sensor, condition.getValue(), null));
+			operands.add(new Guard.Debounced(sensor));
+			return Guard.and(operands);
+		}
+		throw new IllegalArgumentException("Thresholds cannot be lowered yet");
+	}
+}
@@ -0,0 +1,13 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+/**
+ * Rewrites a program in place. A pass must keep the behavior of the sketch, and may rely on the passes run before
+ * it, but not on the ones run after it.
+ */
+public interface Pass {
+
+	// short name, e.g. in metrics and in the header of the sketch
+	String getName();
+
+	void run(Program program);
+}
@@ -0,0 +1,43 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of passes run on a program, each one timed as an "ir.name" phase (see Metrics).
+ */
+public class PassManager {
+
+	private final List<Pass> passes = new ArrayList<>();
+
+	// folding, then read and write elimination, then chaining
+	public static PassManager standard() {
+		return new PassManager()
+				.add(new ConstantFolding())
+				.add(new RedundantAccessElimination())
+				.add(new TransitionChaining());
+	}
+
+	public PassManager add(Pass pass) {
+		passes.add(pass);
+		return this;
+	}
+
+	public List<Pass> getPasses() {
+		return Collections.unmodifiableList(passes);
+	}
+
+	public Program run(Program program) {
+		for (Pass pass : passes) {
+			Phase phase = Metrics.start("ir." + pass.getName(), program.getName());
+			pass.run(program);
+			phase.close();
+			program.getPasses().add(pass.getName());
+		}
+		return program;
+	}
+}
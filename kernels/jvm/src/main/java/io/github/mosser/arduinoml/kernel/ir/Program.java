@@ -0,0 +1,53 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lowered form of an App (see Lowering): one block per state, made of explicit pin reads and writes, branches on
+ * guards, and jumps to other blocks. Passes (see PassManager) rewrite it before WiringEmitter prints it.
+ */
+public class Program {
+
+	private final String name;
+	private final List<Brick> bricks = new ArrayList<>();
+	private final List<Block> blocks = new ArrayList<>();
+	private Block initial;
+	// names of the passes run so far, in order
+	private final List<String> passes = new ArrayList<>();
+
+	public Program(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<Brick> getBricks() {
+		return bricks;
+	}
+
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	public Block getInitial() {
+		return initial;
+	}
+
+	public void setInitial(Block initial) {
+		this.initial = initial;
+	}
+
+	public List<String> getPasses() {
+		return passes;
+	}
+
+	// local holding the level of a sensor read by the current iteration, see Instruction.Read
+	public static String level(Brick sensor) {
+		return sensor.getName() + "Level";
+	}
+}
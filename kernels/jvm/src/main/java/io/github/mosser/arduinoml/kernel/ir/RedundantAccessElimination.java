@@ -0,0 +1,211 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the pin accesses that cannot change what the sketch does:
+ * - a sensor whose level is tested more than once by a block is read once, at the start of the block, and a sensor
+ *   with an edge is not read again at all, its level being sampled by every iteration for the edge;
+ * - a write followed by another write of the same actuator, with no branch in between, is removed, and so is a
+ *   restart of a debounce window already restarted by the same instructions;
+ * - the writes a state does before anything else, of actuators it does not write again, are done once when the
+ *   state is entered instead of at every iteration (nothing else writes them while the state is the current one).
+ */
+public class RedundantAccessElimination implements Pass {
+
+	@Override
+	public String getName() {
+		return "accesses";
+	}
+
+	@Override
+	public void run(Program program) {
+		Set<Brick> sampled = edgeSensors(program);
+		for (Block block : program.getBlocks()) {
+			removeDeadWrites(block.getEntry());
+			removeDeadWrites(block.getBody());
+			hoistWrites(block);
+			shareReads(block, sampled);
+		}
+	}
+
+	/*****************
+	 ** Pin reads **
+	 *****************/
+
+	private static Set<Brick> edgeSensors(Program program) {
+		Set<Brick> sensors = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Block block : program.getBlocks()) {
+			for (Guard guard : guards(block.getBody())) {
+				collectEdges(guard, sensors);
+			}
+		}
+		return sensors;
+	}
+
+	private static void shareReads(Block block, Set<Brick> sampled) {
+		Map<Brick, Integer> reads = new IdentityHashMap<>();
+		for (Guard guard : guards(block.getBody())) {
+			count(guard, reads);
+		}
+		Map<Brick, String> locals = new LinkedHashMap<>();
+		for (Map.Entry<Brick, Integer> read : reads.entrySet()) {
+			if (sampled.contains(read.getKey()) || read.getValue() > 1) {
+				locals.put(read.getKey(), Program.level(read.getKey()));
+			}
+		}
+		if (locals.isEmpty()) {
+			return;
+		}
+		List<Instruction> body = block.getBody();
+		for (Instruction instruction : body) {
+			if (instruction instanceof Instruction.Branch) {
+				Instruction.Branch branch = (Instruction.Branch) instruction;
+				branch.setGuard(readFrom(branch.getGuard(), locals));
+			}
+		}
+		int first = 0;
+		for (Brick sensor : locals.keySet()) {
+			if (!sampled.contains(sensor)) {
+				body.add(first++, new Instruction.Read(sensor, locals.get(sensor)));
+			}
+		}
+	}
+
+	private static void count(Guard guard, Map<Brick, Integer> reads) {
+		if (guard instanceof Guard.Level && ((Guard.Level) guard).getLocal() == null) {
+			reads.merge(((Guard.Level) guard).getSensor(), 1, Integer::sum);
+		}
+		for (Guard operand : operands(guard)) {
+			count(operand, reads);
+		}
+	}
+
+	private static Guard readFrom(Guard guard, Map<Brick, String> locals) {
+		if (guard instanceof Guard.Level) {
+			Guard.Level level = (Guard.Level) guard;
+			String local = locals.get(level.getSensor());
+			return level.getLocal() == null && local != null ? level.readFrom(local) : level;
+		}
+		if (guard instanceof Guard.And || guard instanceof Guard.Or) {
+			List<Guard> operands = new ArrayList<>();
+			for (Guard operand : operands(guard)) {
+				operands.add(readFrom(operand, locals));
+			}
+			return guard instanceof Guard.And ? Guard.and(operands) : Guard.or(operands);
+		}
+		return guard;
+	}
+
+	/****************
+	 ** Pin writes **
+	 ****************/
+
+	// in straight-line code, a write overwritten before the next branch, and a repeated restart
+	private static void removeDeadWrites(List<Instruction> instructions) {
+		List<Instruction> kept = new ArrayList<>();
+		Map<Brick, Integer> written = new IdentityHashMap<>();
+		Set<Brick> restarted = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Instruction instruction : instructions) {
+			if (instruction instanceof Instruction.Branch) {
+				removeDeadWrites(((Instruction.Branch) instruction).getThen());
+				written.clear();
+				restarted.clear();
+			} else if (instruction instanceof Instruction.Blink) {
+				written.clear();
+			} else if (instruction instanceof Instruction.Write) {
+				Integer previous = written.put(((Instruction.Write) instruction).getActuator(), kept.size());
+				if (previous != null) {
+					kept.set(previous, null);
+				}
+			} else if (instruction instanceof Instruction.Restart
+					&& !restarted.add(((Instruction.Restart) instruction).getSensor())) {
+				continue;
+			}
+			kept.add(instruction);
+		}
+		instructions.clear();
+		for (Instruction instruction : kept) {
+			if (instruction != null) {
+				instructions.add(instruction);
+			}
+		}
+	}
+
+	// an error state blinks its actuator at every iteration, its writes stay where they are
+	private static void hoistWrites(Block block) {
+		List<Instruction> body = block.getBody();
+		for (Instruction instruction : body) {
+			if (instruction instanceof Instruction.Blink) {
+				return;
+			}
+		}
+		Set<Brick> writtenLater = new HashSet<>();
+		int leading = 0;
+		while (leading < body.size() && body.get(leading) instanceof Instruction.Write) {
+			leading++;
+		}
+		for (Instruction instruction : body.subList(leading, body.size())) {
+			collectWrites(instruction, writtenLater);
+		}
+		for (Instruction instruction : new ArrayList<>(body.subList(0, leading))) {
+			if (!writtenLater.contains(((Instruction.Write) instruction).getActuator())) {
+				body.remove(instruction);
+				block.getEntry().add(instruction);
+			}
+		}
+	}
+
+	private static void collectWrites(Instruction instruction, Set<Brick> actuators) {
+		if (instruction instanceof Instruction.Write) {
+			actuators.add(((Instruction.Write) instruction).getActuator());
+		} else if (instruction instanceof Instruction.Branch) {
+			for (Instruction nested : ((Instruction.Branch) instruction).getThen()) {
+				collectWrites(nested, actuators);
+			}
+		}
+	}
+
+	/*************
+	 ** Helpers **
+	 *************/
+
+	private static List<Guard> guards(List<Instruction> instructions) {
+		List<Guard> guards = new ArrayList<>();
+		for (Instruction instruction : instructions) {
+			if (instruction instanceof Instruction.Branch) {
+				guards.add(((Instruction.Branch) instruction).getGuard());
+				guards.addAll(guards(((Instruction.Branch) instruction).getThen()));
+			}
+		}
+		return guards;
+	}
+
+	static List<Guard> operands(Guard guard) {
+		if (guard instanceof Guard.And) {
+			return ((Guard.And) guard).getOperands();
+		}
+		if (guard instanceof Guard.Or) {
+			return ((Guard.Or) guard).getOperands();
+		}
+		return Collections.emptyList();
+	}
+
+	private static void collectEdges(Guard guard, Set<Brick> sensors) {
+		if (guard instanceof Guard.Edge) {
+			sensors.add(((Guard.Edge) guard).getSensor());
+		}
+		for (Guard operand : operands(guard)) {
+			collectEdges(operand, sensors);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chains the consecutive transitions of a block with else if, so that the checks stop at the first one that fires.
+ * A transition is only chained to the ones before it when they can never fire in the same iteration (they need
+ * opposite levels or edges of a sensor), as the last one that fires wins otherwise.
+ */
+public class TransitionChaining implements Pass {
+
+	@Override
+	public String getName() {
+		return "chaining";
+	}
+
+	@Override
+	public void run(Program program) {
+		for (Block block : program.getBlocks()) {
+			// requirements of the branches of the current chain
+			List<Map<List<Object>, Object>> chain = new ArrayList<>();
+			for (Instruction instruction : block.getBody()) {
+				if (!isTransition(instruction)) {
+					chain.clear();
+					continue;
+				}
+				Instruction.Branch branch = (Instruction.Branch) instruction;
+				Map<List<Object>, Object> required = required(branch.getGuard());
+				boolean exclusive = !chain.isEmpty();
+				for (Map<List<Object>, Object> previous : chain) {
+					exclusive &= conflict(previous, required);
+				}
+				if (exclusive) {
+					branch.setChained(true);
+				} else if (!branch.isChained()) {
+					chain.clear();
+				}
+				chain.add(required);
+			}
+		}
+	}
+
+	// a branch ending with a jump
+	private static boolean isTransition(Instruction instruction) {
+		if (!(instruction instanceof Instruction.Branch)) {
+			return false;
+		}
+		List<Instruction> then = ((Instruction.Branch) instruction).getThen();
+		return !then.isEmpty() && then.get(then.size() - 1) instanceof Instruction.Jump;
+	}
+
+	private static boolean conflict(Map<List<Object>, Object> a, Map<List<Object>, Object> b) {
+		if (a == null || b == null) {
+			return true;
+		}
+		for (Map.Entry<List<Object>, Object> e : a.entrySet()) {
+			if (b.containsKey(e.getKey()) && b.get(e.getKey()) != e.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// level or edge of each sensor implied by a guard, null if it can never hold
+	private static Map<List<Object>, Object> required(Guard guard) {
+		Map<List<Object>, Object> required = new HashMap<>();
+		if (guard instanceof Guard.Level) {
+			required.put(key("level", ((Guard.Level) guard).getSensor()), ((Guard.Level) guard).getValue());
+		} else if (guard instanceof Guard.Edge) {
+			required.put(key("edge", ((Guard.Edge) guard).getSensor()), ((Guard.Edge) guard).getEdge());
+		} else if (guard.equals(Guard.FALSE)) {
+			return null;
+		} else if (guard instanceof Guard.And) {
+			for (Guard operand : ((Guard.And) guard).getOperands()) {
+				Map<List<Object>, Object> implied = required(operand);
+				if (implied == null || conflict(required, implied)) {
+					return null;
+				}
+				required.putAll(implied);
+			}
+		} else if (guard instanceof Guard.Or) {
+			required = null;
+			for (Guard operand : ((Guard.Or) guard).getOperands()) {
+				Map<List<Object>, Object> implied = required(operand);
+				if (implied == null) {
+					continue;
+				}
+				if (required == null) {
+					required = implied;
+				} else {
+					// only what every alternative implies
+					Map<List<Object>, Object> common = required;
+					common.entrySet().removeIf(e -> implied.get(e.getKey()) != e.getValue());
+				}
+			}
+		}
+		return required;
+	}
+
+	// levels of a sensor are compared whether they were read into a local or not, as ToWiring does
+	private static List<Object> key(String kind, Brick sensor) {
+		return Arrays.asList(kind, sensor);
+	}
+}
@@ -0,0 +1,240 @@
+package io.github.mosser.arduinoml.kernel.ir;
+
+import io.github.mosser.arduinoml.kernel.structural.Brick;
+import io.github.mosser.arduinoml.kernel.structural.EDGE;
+import io.github.mosser.arduinoml.kernel.structural.Sensor;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Prints a program as Wiring code, instruction by instruction: all the decisions are taken by the lowering and the
+ * passes. Entry instructions run at the end of the iteration that changed the current state, and in setup() for the
+ * initial state.
+ */
+public class WiringEmitter {
+
+	private final Program program;
+	private final StringBuilder out = new StringBuilder();
+	// sensors with a debounce window, sensors with edges, whether a guard waits for a delay
+	private final Set<Brick> debounced = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Set<Brick> edges = Collections.newSetFromMap(new IdentityHashMap<>());
+	private boolean timed = false;
+
+	private WiringEmitter(Program program) {
+		this.program = program;
+	}
+
+	public static String emit(Program program) {
+		WiringEmitter emitter = new WiringEmitter(program);
+		emitter.emit();
+		return emitter.out.toString();
+	}
+
+	private void emit() {
+		boolean entries = false;
+		for (Block block : program.getBlocks()) {
+			scan(block.getEntry());
+			scan(block.getBody());
+			entries |= !block.getEntry().isEmpty();
+		}
+
+		out.append("// Wiring code generated from an ArduinoML model\n");
+		out.append(String.format("// Application name: %s\n", program.getName()));
+		if (!program.getPasses().isEmpty()) {
+			out.append("// Passes: ").append(String.join(", ", program.getPasses())).append("\n");
+		}
+		out.append("\n");
+		if (!debounced.isEmpty()) {
+			out.append("long debounce = 200;\n");
+		}
+		out.append("\nenum STATE {");
+		String sep = "";
+		for (Block block : program.getBlocks()) {
+			out.append(sep).append(block.getName());
+			sep = ", ";
+		}
+		out.append("};\n");
+		out.append("STATE currentState = ").append(program.getInitial().getName()).append(";\n");
+		if (timed) {
+			out.append("unsigned long stateEnteredAt = 0;\n");
+		}
+		for (Brick brick : program.getBricks()) {
+			if (debounced.contains(brick) || edges.contains(brick)) {
+				out.append("\n");
+			}
+			if (debounced.contains(brick)) {
+				out.append(String.format("long %sLastDebounceTime = 0;\n", brick.getName()));
+			}
+			if (edges.contains(brick)) {
+				out.append(String.format("int %sPrevious = LOW;\n", brick.getName()));
+			}
+		}
+
+		out.append("\nvoid setup(){\n");
+		for (Brick brick : program.getBricks()) {
+			out.append(brick instanceof Sensor
+					? String.format("  pinMode(%d, INPUT);  // %s [Sensor]\n", brick.getPin(), brick.getName())
+					: String.format("  pinMode(%d, OUTPUT); // %s [Actuator]\n", brick.getPin(), brick.getName()));
+		}
+		instructions(program.getInitial().getEntry(), "  ");
+		out.append("}\n");
+
+		out.append("\nvoid loop() {\n");
+		for (Brick brick : program.getBricks()) {
+			if (edges.contains(brick)) {
+				String sensor = brick.getName();
+				out.append(String.format("\tint %s = digitalRead(%d);\n", Program.level(brick), brick.getPin()));
+				out.append(String.format("\tboolean %sRising = %s == HIGH && %sPrevious == LOW;\n",
+						sensor, Program.level(brick), sensor));
+				out.append(String.format("\tboolean %sFalling = %s == LOW && %sPrevious == HIGH;\n",
+						sensor, Program.level(brick), sensor));
+				out.append(String.format("\t%sPrevious = %s;\n", sensor, Program.level(brick)));
+			}
+		}
+		if (entries) {
+			out.append("\tSTATE previousState = currentState;\n");
+		}
+		out.append("\tswitch(currentState){\n");
+		for (Block block : program.getBlocks()) {
+			// a local read by the block needs a scope of its own
+			boolean scoped = block.getBody().stream().anyMatch(i -> i instanceof Instruction.Read);
+			out.append("\t\tcase ").append(block.getName()).append(scoped ? ": {\n" : ":\n");
+			instructions(block.getBody(), "\t\t\t");
+			out.append(scoped ? "\t\t}\n\t\tbreak;\n" : "\t\tbreak;\n");
+		}
+		out.append("\t}\n");
+		if (entries) {
+			out.append("\tif (currentState != previousState) {\n");
+			out.append("\t\tswitch(currentState){\n");
+			for (Block block : program.getBlocks()) {
+				if (!block.getEntry().isEmpty()) {
+					out.append("\t\t\tcase ").append(block.getName()).append(":\n");
+					instructions(block.getEntry(), "\t\t\t\t");
+					out.append("\t\t\tbreak;\n");
+				}
+			}
+			out.append("\t\t\tdefault:\n\t\t\tbreak;\n");
+			out.append("\t\t}\n");
+			out.append("\t}\n");
+		}
+		out.append("}");
+	}
+
+	private void scan(List<Instruction> instructions) {
+		for (Instruction instruction : instructions) {
+			if (instruction instanceof Instruction.Restart) {
+				debounced.add(((Instruction.Restart) instruction).getSensor());
+			} else if (instruction instanceof Instruction.Branch) {
+				scan(((Instruction.Branch) instruction).getGuard());
+				scan(((Instruction.Branch) instruction).getThen());
+			}
+		}
+	}
+
+	private void scan(Guard guard) {
+		if (guard instanceof Guard.Debounced) {
+			debounced.add(((Guard.Debounced) guard).getSensor());
+		} else if (guard instanceof Guard.Edge) {
+			edges.add(((Guard.Edge) guard).getSensor());
+		} else if (guard instanceof Guard.Elapsed) {
+			timed = true;
+		}
+		for (Guard operand : RedundantAccessElimination.operands(guard)) {
+			scan(operand);
+		}
+	}
+
+	private void instructions(List<Instruction> instructions, String indent) {
+		for (int i = 0; i < instructions.size(); i++) {
+			Instruction instruction = instructions.get(i);
+			if (!(instruction instanceof Instruction.Branch)) {
+				instruction(instruction, indent);
+				continue;
+			}
+			Instruction.Branch branch = (Instruction.Branch) instruction;
+			if (!branch.isChained()) {
+				out.append(indent);
+			}
+			if (branch.isChained() && branch.getGuard().equals(Guard.TRUE)) {
+				out.append(" else {\n");
+			} else {
+				out.append(branch.isChained() ? " else if( " : "if( ");
+				guard(branch.getGuard(), false);
+				out.append(" ) {\n");
+			}
+			instructions(branch.getThen(), indent + "\t");
+			out.append(indent).append("}");
+			boolean chainedNext = i + 1 < instructions.size() && instructions.get(i + 1) instanceof Instruction.Branch
+					&& ((Instruction.Branch) instructions.get(i + 1)).isChained();
+			if (!chainedNext) {
+				out.append("\n");
+			}
+		}
+	}
+
+	private void instruction(Instruction instruction, String indent) {
+		if (instruction instanceof Instruction.Write) {
+			Instruction.Write write = (Instruction.Write) instruction;
+			out.append(String.format("%sdigitalWrite(%d,%s);\n", indent, write.getActuator().getPin(), write.getValue()));
+		} else if (instruction instanceof Instruction.Read) {
+			Instruction.Read read = (Instruction.Read) instruction;
+			out.append(String.format("%sint %s = digitalRead(%d);\n", indent, read.getLocal(), read.getSensor().getPin()));
+		} else if (instruction instanceof Instruction.Restart) {
+			out.append(String.format("%s%sLastDebounceTime = millis();\n", indent,
+					((Instruction.Restart) instruction).getSensor().getName()));
+		} else if (instruction instanceof Instruction.Jump) {
+			out.append(indent).append("currentState = ").append(((Instruction.Jump) instruction).getTarget().getName())
+					.append(";\n");
+			if (timed) {
+				out.append(indent).append("stateEnteredAt = millis();\n");
+			}
+		} else if (instruction instanceof Instruction.Blink) {
+			Instruction.Blink blink = (Instruction.Blink) instruction;
+			int pin = blink.getActuator().getPin();
+			out.append(indent).append("// Error state: blink code ").append(blink.getCode()).append(" on pin ")
+					.append(pin).append("\n");
+			out.append(indent).append("for (int i = 0; i < ").append(blink.getCode()).append("; i++) {\n");
+			out.append(indent).append("\tdigitalWrite(").append(pin).append(", HIGH);\n");
+			out.append(indent).append("\tdelay(200);\n");
+			out.append(indent).append("\tdigitalWrite(").append(pin).append(", LOW);\n");
+			out.append(indent).append("\tdelay(200);\n");
+			out.append(indent).append("}\n");
+			out.append(indent).append("delay(800);\n");
+		} else {
+			throw new IllegalArgumentException("Unknown instruction " + instruction.getClass().getSimpleName());
+		}
+	}
+
+	// operands that are And or Or themselves are parenthesized
+	private void guard(Guard guard, boolean nested) {
+		if (guard instanceof Guard.And || guard instanceof Guard.Or) {
+			String operator = guard instanceof Guard.And ? " && " : " || ";
+			out.append(nested ? "(" : "");
+			String sep = "";
+			for (Guard operand : RedundantAccessElimination.operands(guard)) {
+				out.append(sep);
+				guard(operand, true);
+				sep = operator;
+			}
+			out.append(nested ? ")" : "");
+		} else if (guard instanceof Guard.Level) {
+			Guard.Level level = (Guard.Level) guard;
+			out.append(level.getLocal() != null ? level.getLocal() : "digitalRead(" + level.getSensor().getPin() + ")")
+					.append(" == ").append(level.getValue());
+		} else if (guard instanceof Guard.Edge) {
+			Guard.Edge edge = (Guard.Edge) guard;
+			out.append(edge.getSensor().getName())
+					.append(edge.getEdge() == EDGE.RISING ? "Rising" : "Falling");
+		} else if (guard instanceof Guard.Debounced) {
+			String sensor = ((Guard.Debounced) guard).getSensor().getName();
+			out.append("millis() - ").append(sensor).append("LastDebounceTime > debounce");
+		} else if (guard instanceof Guard.Elapsed) {
+			out.append("millis() - stateEnteredAt >= ").append(((Guard.Elapsed) guard).getMillis());
+		} else {
+			out.append(((Guard.Constant) guard).getValue());
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package io.github.mosser.arduinoml.kernel.json;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
+import io.github.mosser.arduinoml.kernel.structural.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Imports an App from a JSON document (as produced by AppJsonWriter) using the JsonReader pull parser.
+ *
+ * Model elements are built while the tokens are read. References to bricks and states are resolved once the
+ * whole document has been read, so they can point to elements declared later in the file.
+ */
+public class AppJsonReader {
+
+	private final JsonReader json;
+	private final App app = new App();
+
+	// symbol tables, filled while reading (states are scoped by the app or region they belong to)
+	private final Map<String, Brick> bricks = new HashMap<>();
+	private Map<String, State> states = new HashMap<>();
+
+	// references waiting for the end of the document
+	private final List<Reference> references = new ArrayList<>();
+
+	private AppJsonReader(Reader in) {
+		this.json = new JsonReader(in);
+	}
+
+	public static App read(Reader in) throws IOException {
+		try (Phase parse = Metrics.start("parse", null)) {
+			AppJsonReader reader = new AppJsonReader(in);
+			reader.app();
+			reader.resolve();
+			// conditions are built before their sensors are known, they are shared once complete
+			ExpressionFactory.share(reader.app);
+			parse.count(reader.app);
+			return reader.app;
+		}
+	}
+
+	/*********************
+	 ** Reading the App **
+	 *********************/
+
+	private void app() throws IOException {
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = json.nextName();
+			switch (name) {
+				case "name":
+					app.setName(json.nextString());
+					break;
+				case "initial":
+					String initial = json.nextString();
+					defer(initial, State.class, s -> app.setInitial((State) s));
+					break;
+				case "bricks":
+					json.beginArray();
+					while (json.hasNext()) {
+						brick();
+					}
+					json.endArray();
+					break;
+				case "lcd":
+					lcd();
+					break;
+				case "states":
+					json.beginArray();
+					while (json.hasNext()) {
+						app.getStates().add(state());
+					}
+					json.endArray();
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+		json.endObject();
+	}
+
+	private void brick() throws IOException {
+		String type = null, name = null;
+		int pin = 0, period = AnalogSensor.DEFAULT_PERIOD;
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "type": type = json.nextString(); break;
+				case "name": name = json.nextString(); break;
+				case "pin": pin = json.nextInt(); break;
+				case "period": period = json.nextInt(); break;
+				default: json.skipValue();
+			}
+		}
+		Brick brick;
+		if ("sensor".equals(type)) {
+			brick = new Sensor();
+		} else if ("analog".equals(type)) {
+			AnalogSensor analog = new AnalogSensor();
+			analog.setSamplingPeriod(period);
+			brick = analog;
+		} else if ("actuator".equals(type)) {
+			brick = new Actuator();
+		} else {
+			throw json.error("Unknown brick type [" + type + "]");
+		}
+		brick.setName(required(name, "brick name"));
+		brick.setPin(pin);
+		declare(bricks, brick.getName(), brick);
+		app.getBricks().add(brick);
+		json.endObject();
+	}
+
+	private void lcd() throws IOException {
+		LCDDisplay lcd = new LCDDisplay();
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "brick": defer(json.nextString(), Brick.class, b -> lcd.setBrick((Brick) b)); break;
+				case "prefix":
+					if (json.peek() == JsonReader.Token.NULL) {
+						json.nextNull();
+					} else {
+						lcd.setPrefix(json.nextString());
+					}
+					break;
+				case "bus": lcd.setBus(json.nextInt()); break;
+				default: json.skipValue();
+			}
+		}
+		json.endObject();
+		app.setLCDDisplay(lcd);
+	}
+
+	private State state() throws IOException {
+		String type = null, name = null, actuator = null;
+		int code = 0;
+		List<Action> actions = new ArrayList<>();
+		List<Transition> transitions = new ArrayList<>();
+		List<Region> regions = new ArrayList<>();
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "type": type = json.nextString(); break;
+				case "name": name = json.nextString(); break;
+				case "code": code = json.nextInt(); break;
+				case "actuator": actuator = json.nextString(); break;
+				case "actions":
+					json.beginArray();
+					while (json.hasNext()) {
+						actions.add(action());
+					}
+					json.endArray();
+					break;
+				case "transitions":
+					json.beginArray();
+					while (json.hasNext()) {
+						transitions.add(transition());
+					}
+					json.endArray();
+					break;
+				case "regions":
+					json.beginArray();
+					while (json.hasNext()) {
+						regions.add(region());
+					}
+					json.endArray();
+					break;
+				default: json.skipValue();
+			}
+		}
+
+		State state;
+		if ("error".equals(type)) {
+			ErrorState error = new ErrorState();
+			error.setErrorCode(code);
+			defer(required(actuator, "error state actuator"), Actuator.class, a -> error.setActuator((Actuator) a));
+			state = error;
+		} else if (type == null) {
+			state = new State();
+		} else {
+			throw json.error("Unknown state type [" + type + "]");
+		}
+		state.setName(required(name, "state name"));
+		state.setActions(actions);
+		for (Transition t : transitions) {
+			state.addTransition(t);
+		}
+		state.setRegions(regions);
+		declare(states, state.getName(), state);
+		json.endObject();
+		return state;
+	}
+
+	private Region region() throws IOException {
+		Region region = new Region();
+		Map<String, State> outer = states;
+		states = new HashMap<>();
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "name": region.setName(json.nextString()); break;
+				case "initial": defer(json.nextString(), State.class, s -> region.setInitial((State) s)); break;
+				case "states":
+					json.beginArray();
+					while (json.hasNext()) {
+						region.getStates().add(state());
+					}
+					json.endArray();
+					break;
+				default: json.skipValue();
+			}
+		}
+		required(region.getName(), "region name");
+		json.endObject();
+		states = outer;
+		return region;
+	}
+
+	private Action action() throws IOException {
+		Action action = new Action();
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "actuator": defer(json.nextString(), Actuator.class, a -> action.setActuator((Actuator) a)); break;
+				case "value": action.setValue(signal(json.nextString())); break;
+				default: json.skipValue();
+			}
+		}
+		json.endObject();
+		return action;
+	}
+
+	private Transition transition() throws IOException {
+		String next = null;
+		Integer delay = null;
+		Expression expression = null;
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "next": next = json.nextString(); break;
+				case "delay": delay = json.nextInt(); break;
+				case "expression": expression = expression(); break;
+				default: json.skipValue();
+			}
+		}
+		Transition transition;
+		if (delay != null) {
+			TimeTransition time = new TimeTransition();
+			time.setDelay(delay);
+			transition = time;
+		} else if (expression != null) {
+			SignalTransition signal = new SignalTransition();
+			signal.setExpression(expression);
+			transition = signal;
+		} else {
+			throw json.error("Transition needs either a delay or an expression");
+		}
+		defer(required(next, "transition target"), State.class, s -> transition.setNext((State) s));
+		json.endObject();
+		return transition;
+	}
+
+	private Expression expression() throws IOException {
+		Expression result = null;
+		Condition condition = null;
+		Threshold threshold = null;
+		String sensor = null;
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = json.nextName();
+			switch (name) {
+				case "sensor":
+					sensor = json.nextString();
+					break;
+				case "above":
+				case "below":
+					threshold = threshold == null ? new Threshold() : threshold;
+					threshold.setDirection("above".equals(name) ? Threshold.Direction.ABOVE : Threshold.Direction.BELOW);
+					threshold.setValue(json.nextInt());
+					break;
+				case "hysteresis":
+					threshold = threshold == null ? new Threshold() : threshold;
+					threshold.setHysteresis(json.nextInt());
+					break;
+				case "value":
+					condition = condition == null ? new Condition() : condition;
+					condition.setValue(signal(json.nextString()));
+					break;
+				case "edge":
+					condition = condition == null ? new Condition() : condition;
+					condition.setEdge(edge(json.nextString()));
+					break;
+				case "and":
+				case "or":
+					// operands are folded from the left: [a, b, c] gives ((a op b) op c)
+					json.beginArray();
+					while (json.hasNext()) {
+						Expression operand = expression();
+						if (result == null) {
+							result = operand;
+						} else {
+							BinaryExpression binary = "and".equals(name) ? new And() : new Or();
+							binary.setLeftExpression(result);
+							binary.setRightExpression(operand);
+							result = binary;
+						}
+					}
+					json.endArray();
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+		if (threshold != null) {
+			Threshold t = threshold;
+			defer(required(sensor, "threshold sensor"), AnalogSensor.class, s -> t.setSensor((AnalogSensor) s));
+			result = threshold;
+		} else if (condition != null || sensor != null) {
+			Condition c = condition == null ? new Condition() : condition;
+			defer(required(sensor, "condition sensor"), Sensor.class, s -> c.setSensor((Sensor) s));
+			result = c;
+		}
+		if (result == null) {
+			throw json.error("Empty expression");
+		}
+		json.endObject();
+		return result;
+	}
+
+	/****************************
+	 ** Symbols and references **
+	 ****************************/
+
+	private static class Reference {
+		final Map<String, ?> table;
+		final String name;
+		final Class<?> kind;
+		final Consumer<Object> binder;
+		final String position;
+
+		Reference(Map<String, ?> table, String name, Class<?> kind, Consumer<Object> binder, String position) {
+			this.table = table;
+			this.name = name;
+			this.kind = kind;
+			this.binder = binder;
+			this.position = position;
+		}
+	}
+
+	// states are looked up in the scope being read, that is the app or the region of the referring state
+	private void defer(String name, Class<?> kind, Consumer<Object> binder) {
+		Map<String, ?> table = State.class.equals(kind) ? states : bricks;
+		references.add(new Reference(table, name, kind, binder, json.position()));
+	}
+
+	private void resolve() {
+		for (Reference ref : references) {
+			Object target = ref.table.get(ref.name);
+			if (!ref.kind.isInstance(target)) {
+				throw new IllegalArgumentException("Unknown " + ref.kind.getSimpleName().toLowerCase()
+						+ ": [" + ref.name + "] at " + ref.position);
+			}
+			ref.binder.accept(target);
+		}
+		references.clear();
+	}
+
+	private <T> void declare(Map<String, T> table, String name, T element) {
+		if (table.put(name, element) != null) {
+			throw json.error("Duplicate declaration of [" + name + "]");
+		}
+	}
+
+	private String required(String value, String what) {
+		if (value == null) {
+			throw json.error("Missing " + what);
+		}
+		return value;
+	}
+
+	private SIGNAL signal(String value) {
+		try {
+			return SIGNAL.valueOf(value);
+		} catch (IllegalArgumentException iae) {
+			throw json.error("Unknown signal [" + value + "]");
+		}
+	}
+
+	private EDGE edge(String value) {
+		try {
+			return EDGE.valueOf(value);
+		} catch (IllegalArgumentException iae) {
+			throw json.error("Unknown edge [" + value + "]");
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package io.github.mosser.arduinoml.kernel.json;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.*;
+import io.github.mosser.arduinoml.kernel.structural.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Exports an App as a JSON document, streaming each element as it is visited.
+ *
+ * Bricks are written before states, so that a streaming reader knows every brick when it meets a reference.
+ */
+public class AppJsonWriter {
+
+	// end of the operands of an and / or, see expression()
+	private static final Object END = new Object();
+
+	private final JsonWriter json;
+
+	private AppJsonWriter(Writer out) {
+		this.json = new JsonWriter(out);
+	}
+
+	public static void write(App app, Writer out) throws IOException {
+		AppJsonWriter writer = new AppJsonWriter(out);
+		writer.app(app);
+		writer.json.flush();
+	}
+
+	private void app(App app) throws IOException {
+		json.beginObject();
+		json.name("name").value(app.getName());
+		if (app.getInitial() != null) {
+			json.name("initial").value(app.getInitial().getName());
+		}
+
+		json.name("bricks").beginArray();
+		for (Brick brick : app.getBricks()) {
+			json.beginObject();
+			json.name("type").value(brick instanceof AnalogSensor ? "analog"
+					: brick instanceof Sensor ? "sensor" : "actuator");
+			json.name("name").value(brick.getName());
+			json.name("pin").value(brick.getPin());
+			if (brick instanceof AnalogSensor) {
+				json.name("period").value(((AnalogSensor) brick).getSamplingPeriod());
+			}
+			json.endObject();
+		}
+		json.endArray();
+
+		LCDDisplay lcd = app.getLCDDisplay();
+		if (lcd != null) {
+			json.name("lcd").beginObject();
+			json.name("brick").value(lcd.getBrick().getName());
+			// no prefix: the field is left out
+			if (lcd.getPrefix() != null) {
+				json.name("prefix").value(lcd.getPrefix());
+			}
+			json.name("bus").value(lcd.getBus().ordinal() + 1);
+			json.endObject();
+		}
+
+		json.name("states").beginArray();
+		for (State state : app.getStates()) {
+			state(state);
+		}
+		json.endArray();
+		json.endObject();
+	}
+
+	private void state(State state) throws IOException {
+		json.beginObject();
+		json.name("name").value(state.getName());
+		if (state instanceof ErrorState) {
+			ErrorState error = (ErrorState) state;
+			json.name("type").value("error");
+			json.name("code").value(error.getErrorCode());
+			json.name("actuator").value(error.getActuator().getName());
+		}
+
+		json.name("actions").beginArray();
+		for (Action action : state.getActions()) {
+			json.beginObject();
+			json.name("actuator").value(action.getActuator().getName());
+			json.name("value").value(action.getValue().name());
+			json.endObject();
+		}
+		json.endArray();
+
+		json.name("transitions").beginArray();
+		for (Transition transition : state.getTransitions()) {
+			json.beginObject();
+			json.name("next").value(transition.getNext().getName());
+			if (transition instanceof TimeTransition) {
+				json.name("delay").value(((TimeTransition) transition).getDelay());
+			} else {
+				json.name("expression");
+				expression(((SignalTransition) transition).getExpression());
+			}
+			json.endObject();
+		}
+		json.endArray();
+
+		if (!state.getRegions().isEmpty()) {
+			json.name("regions").beginArray();
+			for (Region region : state.getRegions()) {
+				json.beginObject();
+				json.name("name").value(region.getName());
+				json.name("initial").value(region.getInitial().getName());
+				json.name("states").beginArray();
+				for (State nested : region.getStates()) {
+					state(nested);
+				}
+				json.endArray();
+				json.endObject();
+			}
+			json.endArray();
+		}
+		json.endObject();
+	}
+
+	// chains of the same operator are written as one array, {"and": [a, b, c]}, whatever their shape in the model;
+	// operands are written from an explicit stack, END closing the array of an operator
+	private void expression(Expression root) throws IOException {
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next == END) {
+				json.endArray();
+				json.endObject();
+				continue;
+			}
+			Expression expression = (Expression) next;
+			json.beginObject();
+			if (expression instanceof Condition) {
+				Condition condition = (Condition) expression;
+				json.name("sensor").value(condition.getSensor().getName());
+				if (condition.getEdge() != null) {
+					json.name("edge").value(condition.getEdge().name());
+				} else {
+					json.name("value").value(condition.getValue().name());
+				}
+			} else if (expression instanceof Threshold) {
+				Threshold threshold = (Threshold) expression;
+				json.name("sensor").value(threshold.getSensor().getName());
+				json.name(threshold.getDirection() == Threshold.Direction.ABOVE ? "above" : "below")
+						.value(threshold.getValue());
+				json.name("hysteresis").value(threshold.getHysteresis());
+			} else {
+				BinaryExpression binary = (BinaryExpression) expression;
+				json.name(binary instanceof And ? "and" : "or").beginArray();
+				List<Expression> operands = binary.operands();
+				pending.push(END);
+				for (int i = operands.size() - 1; i >= 0; i--) {
+					pending.push(operands.get(i));
+				}
+				continue;
+			}
+			json.endObject();
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package io.github.mosser.arduinoml.kernel.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Pull parser for JSON documents: the caller asks for the next token, nothing is materialized as a tree.
+ * Only a small character buffer and the nesting stack are kept in memory, whatever the document size.
+ */
+public class JsonReader {
+
+	public enum Token {BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT}
+
+	private enum Scope {EMPTY_DOCUMENT, NONEMPTY_DOCUMENT, EMPTY_OBJECT, DANGLING_NAME, NONEMPTY_OBJECT, EMPTY_ARRAY, NONEMPTY_ARRAY}
+
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+
+	private int line = 1;
+	private int column = 1;
+
+	private Scope[] stack = new Scope[32];
+	private int depth = 0;
+
+	// token looked ahead by peek(), consumed by the next* methods
+	private Token peeked = null;
+	private final StringBuilder text = new StringBuilder();
+
+	public JsonReader(Reader in) {
+		this.in = in;
+		push(Scope.EMPTY_DOCUMENT);
+	}
+
+	/**************
+	 ** Pull API **
+	 **************/
+
+	public Token peek() throws IOException {
+		if (peeked == null) {
+			peeked = advance();
+		}
+		return peeked;
+	}
+
+	public boolean hasNext() throws IOException {
+		Token t = peek();
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+	}
+
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+	}
+
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		return text.toString();
+	}
+
+	public String nextString() throws IOException {
+		expect(Token.STRING);
+		return text.toString();
+	}
+
+	public int nextInt() throws IOException {
+		expect(Token.NUMBER);
+		try {
+			return Integer.parseInt(text.toString());
+		} catch (NumberFormatException nfe) {
+			throw error("Expected an integer but was " + text);
+		}
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		return text.charAt(0) == 't';
+	}
+
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+	}
+
+	/**
+	 * Skips the next value, including all the nested objects and arrays it contains.
+	 */
+	public void skipValue() throws IOException {
+		int nesting = 0;
+		do {
+			Token t = peek();
+			peeked = null;
+			if (t == Token.BEGIN_OBJECT || t == Token.BEGIN_ARRAY) {
+				nesting++;
+			} else if (t == Token.END_OBJECT || t == Token.END_ARRAY) {
+				nesting--;
+			} else if (t == Token.END_DOCUMENT) {
+				throw error("Unexpected end of document");
+			}
+		} while (nesting > 0);
+	}
+
+	/**
+	 * Current position in the source, used to report errors found by the caller.
+	 */
+	public String position() {
+		return "line " + line + ", column " + column;
+	}
+
+	public IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + position());
+	}
+
+	/***********************
+	 ** Tokenizer helpers **
+	 ***********************/
+
+	private void expect(Token expected) throws IOException {
+		Token t = peek();
+		if (t != expected) {
+			throw error("Expected " + expected + " but was " + t);
+		}
+		peeked = null;
+	}
+
+	private Token advance() throws IOException {
+		Scope scope = stack[depth - 1];
+		int c;
+		switch (scope) {
+			case EMPTY_ARRAY:
+				stack[depth - 1] = Scope.NONEMPTY_ARRAY;
+				c = nextNonWhitespace();
+				if (c == ']') {
+					depth--;
+					return Token.END_ARRAY;
+				}
+				return value(c);
+			case NONEMPTY_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']') {
+					depth--;
+					return Token.END_ARRAY;
+				}
+				if (c != ',') {
+					throw error("Expected ',' or ']'");
+				}
+				return value(nextNonWhitespace());
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}') {
+					depth--;
+					return Token.END_OBJECT;
+				}
+				if (scope == Scope.NONEMPTY_OBJECT) {
+					if (c != ',') {
+						throw error("Expected ',' or '}'");
+					}
+					c = nextNonWhitespace();
+				}
+				if (c != '"') {
+					throw error("Expected a name");
+				}
+				readString();
+				stack[depth - 1] = Scope.DANGLING_NAME;
+				return Token.NAME;
+			case DANGLING_NAME:
+				if (nextNonWhitespace() != ':') {
+					throw error("Expected ':'");
+				}
+				stack[depth - 1] = Scope.NONEMPTY_OBJECT;
+				return value(nextNonWhitespace());
+			case EMPTY_DOCUMENT:
+				stack[depth - 1] = Scope.NONEMPTY_DOCUMENT;
+				return value(nextNonWhitespace());
+			default:
+				if (nextNonWhitespace() != -1) {
+					throw error("Expected end of document");
+				}
+				return Token.END_DOCUMENT;
+		}
+	}
+
+	private Token value(int c) throws IOException {
+		switch (c) {
+			case '{':
+				push(Scope.EMPTY_OBJECT);
+				return Token.BEGIN_OBJECT;
+			case '[':
+				push(Scope.EMPTY_ARRAY);
+				return Token.BEGIN_ARRAY;
+			case '"':
+				readString();
+				return Token.STRING;
+			case 't':
+				readKeyword("true");
+				return Token.BOOLEAN;
+			case 'f':
+				readKeyword("false");
+				return Token.BOOLEAN;
+			case 'n':
+				readKeyword("null");
+				return Token.NULL;
+			case -1:
+				throw error("Unexpected end of document");
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					readNumber((char) c);
+					return Token.NUMBER;
+				}
+				throw error("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private void readString() throws IOException {
+		text.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw error("Unterminated string");
+			}
+			if (c == '"') {
+				return;
+			}
+			if (c != '\\') {
+				text.append((char) c);
+				continue;
+			}
+			c = read();
+			switch (c) {
+				case '"': case '\\': case '/': text.append((char) c); break;
+				case 'b': text.append('\b'); break;
+				case 'f': text.append('\f'); break;
+				case 'n': text.append('\n'); break;
+				case 'r': text.append('\r'); break;
+				case 't': text.append('\t'); break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(read(), 16);
+						if (digit < 0) {
+							throw error("Malformed unicode escape");
+						}
+						code = (code << 4) | digit;
+					}
+					text.append((char) code);
+					break;
+				default:
+					throw error("Invalid escape sequence");
+			}
+		}
+	}
+
+	private void readNumber(char first) throws IOException {
+		text.setLength(0);
+		text.append(first);
+		while (true) {
+			int c = peekChar();
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				text.append((char) read());
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void readKeyword(String keyword) throws IOException {
+		text.setLength(0);
+		text.append(keyword.charAt(0));
+		for (int i = 1; i < keyword.length(); i++) {
+			if (read() != keyword.charAt(i)) {
+				throw error("Expected '" + keyword + "'");
+			}
+			text.append(keyword.charAt(i));
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c = read();
+		while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+			c = read();
+		}
+		return c;
+	}
+
+	private int peekChar() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos];
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		char c = buffer[pos++];
+		if (c == '\n') {
+			line++;
+			column = 1;
+		} else {
+			column++;
+		}
+		return c;
+	}
+
+	private boolean fill() throws IOException {
+		limit = in.read(buffer, 0, buffer.length);
+		pos = 0;
+		if (limit <= 0) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	private void push(Scope scope) {
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = scope;
+	}
+}
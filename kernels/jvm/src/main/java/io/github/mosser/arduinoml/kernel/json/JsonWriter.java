@@ -0,0 +1,125 @@
+package io.github.mosser.arduinoml.kernel.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer: tokens are written as soon as they are emitted, only the nesting stack is kept.
+ */
+public class JsonWriter {
+
+	private final Writer out;
+
+	// for each open object/array, tells if a value was already written (and thus a comma is needed)
+	private boolean[] nonEmpty = new boolean[32];
+	private int depth = 0;
+	private boolean afterName = false;
+
+	public JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	public JsonWriter name(String name) throws IOException {
+		separator();
+		string(name);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) throws IOException {
+		separator();
+		if (value == null) {
+			out.write("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	public JsonWriter value(int value) throws IOException {
+		separator();
+		out.write(Integer.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separator();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private JsonWriter open(char c) throws IOException {
+		separator();
+		out.write(c);
+		if (depth == nonEmpty.length) {
+			nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+		}
+		nonEmpty[depth++] = false;
+		return this;
+	}
+
+	private JsonWriter close(char c) throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("Nothing to close");
+		}
+		depth--;
+		out.write(c);
+		return this;
+	}
+
+	private void separator() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (depth > 0) {
+			if (nonEmpty[depth - 1]) {
+				out.write(',');
+			}
+			nonEmpty[depth - 1] = true;
+		}
+	}
+
+	private void string(String s) throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				default:
+					if (c < 0x20) {
+						out.write(String.format("\\u%04x", (int) c));
+					} else {
+						out.write(c);
+					}
+			}
+		}
+		out.write('"');
+	}
+}
@@ -0,0 +1,69 @@
+package io.github.mosser.arduinoml.kernel.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Timing of the phases of a build: compilation of a script, building of the model, validation, and each pass of the
+ * Wiring generation. Ended phases are given to the registered listeners, and committed as "arduinoml.Phase" Java
+ * Flight Recorder events when a recording enables them (jcmd pid JFR.start, or -XX:StartFlightRecording).
+ *
+ * Phases nest: "build" includes the generation of a script that exports its app. While no listener is registered and
+ * no recording enables the event, start() returns a phase that does nothing, so builds pay a check per phase.
+ *
+ * With -Darduinoml.metrics=true, each phase is printed on the standard error (see MetricsLog).
+ */
+public final class Metrics {
+
+	private static final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+	// jdk.jfr is only part of Java 8 runtimes since 8u262
+	private static final boolean JFR = available("jdk.jfr.Event");
+
+	static {
+		if (Boolean.getBoolean("arduinoml.metrics")) {
+			addListener(new MetricsLog(System.err));
+		}
+	}
+
+	private Metrics() {
+	}
+
+	public static void addListener(MetricsListener listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeListener(MetricsListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts measuring a phase of the build of an app (its name may be unknown yet, see Phase.app), to be closed
+	 * once done; phases that are never closed, e.g. because the build failed, are not reported.
+	 */
+	public static Phase start(String name, String app) {
+		Object event = JFR ? PhaseEvent.startIfEnabled() : null;
+		if (event == null && listeners.isEmpty()) {
+			return Phase.NONE;
+		}
+		return new Phase(name, app, event);
+	}
+
+	static void report(Phase phase) {
+		if (phase.event != null) {
+			PhaseEvent.report(phase.event, phase);
+		}
+		for (MetricsListener listener : listeners) {
+			listener.phaseEnded(phase);
+		}
+	}
+
+	private static boolean available(String className) {
+		try {
+			Class.forName(className, false, Metrics.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
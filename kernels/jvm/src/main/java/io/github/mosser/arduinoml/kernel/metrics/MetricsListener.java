@@ -0,0 +1,9 @@
+package io.github.mosser.arduinoml.kernel.metrics;
+
+/**
+ * Receives the phases of every build once they are ended, from the thread that ran them.
+ */
+public interface MetricsListener {
+
+	void phaseEnded(Phase phase);
+}
@@ -0,0 +1,20 @@
+package io.github.mosser.arduinoml.kernel.metrics;
+
+import java.io.PrintStream;
+
+/**
+ * Prints one line per ended phase, e.g. "[metrics] validation [blink] 0.031 ms bricks=2 states=2 transitions=2".
+ */
+public class MetricsLog implements MetricsListener {
+
+	private final PrintStream out;
+
+	public MetricsLog(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void phaseEnded(Phase phase) {
+		out.println("[metrics] " + phase);
+	}
+}
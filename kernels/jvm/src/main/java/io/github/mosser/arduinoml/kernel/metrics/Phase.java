@@ -0,0 +1,122 @@
+package io.github.mosser.arduinoml.kernel.metrics;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.Region;
+import io.github.mosser.arduinoml.kernel.behavioral.State;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A phase being measured, see Metrics.start. Counts describe what the phase worked on: "bricks", "states" and
+ * "transitions" of its app (regions included), and "chars" of generated code.
+ */
+public class Phase implements AutoCloseable {
+
+	// what Metrics.start returns when nobody listens: every method does nothing
+	static final Phase NONE = new Phase(null, null, null);
+
+	private final String name;
+	private String app;
+	private final long start;
+	private long nanos = -1;
+	final Object event;
+	private final Map<String, Long> counts = new LinkedHashMap<>();
+
+	Phase(String name, String app, Object event) {
+		this.name = name;
+		this.app = app;
+		this.event = event;
+		this.start = System.nanoTime();
+	}
+
+	// false for a phase nobody listens to, so that callers can skip computing its counts
+	public boolean isRecording() {
+		return this != NONE;
+	}
+
+	public Phase app(String app) {
+		if (this != NONE) {
+			this.app = app;
+		}
+		return this;
+	}
+
+	public Phase count(String what, long count) {
+		if (this != NONE) {
+			counts.put(what, count);
+		}
+		return this;
+	}
+
+	// bricks, states and transitions of the app
+	public Phase count(App app) {
+		if (this == NONE || app == null) {
+			return this;
+		}
+		long states = 0;
+		long transitions = 0;
+		Deque<State> pending = new ArrayDeque<>(app.getStates());
+		while (!pending.isEmpty()) {
+			State state = pending.pop();
+			states++;
+			transitions += state.getTransitions().size();
+			for (Region region : state.getRegions()) {
+				pending.addAll(region.getStates());
+			}
+		}
+		if (this.app == null) {
+			this.app = app.getName();
+		}
+		count("bricks", app.getBricks().size());
+		count("states", states);
+		return count("transitions", transitions);
+	}
+
+	@Override
+	public void close() {
+		if (this == NONE || nanos >= 0) {
+			return;
+		}
+		nanos = System.nanoTime() - start;
+		Metrics.report(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getApp() {
+		return app;
+	}
+
+	// duration of the phase, -1 while it runs
+	public long getNanos() {
+		return nanos;
+	}
+
+	// -1 when the phase has no such count
+	public long getCount(String what) {
+		Long count = counts.get(what);
+		return count == null ? -1 : count;
+	}
+
+	public Map<String, Long> getCounts() {
+		return Collections.unmodifiableMap(counts);
+	}
+
+	// e.g. generation.pass1 [blink] 1.250 ms bricks=2 states=2 transitions=2 chars=1042
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(name);
+		text.append(" [").append(app).append("] ");
+		text.append(String.format("%.3f ms", nanos / 1e6));
+		for (Map.Entry<String, Long> count : counts.entrySet()) {
+			text.append(' ').append(count.getKey()).append('=').append(count.getValue());
+		}
+		return text.toString();
+	}
+}
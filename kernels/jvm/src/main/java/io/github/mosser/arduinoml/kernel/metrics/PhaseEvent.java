@@ -0,0 +1,62 @@
+package io.github.mosser.arduinoml.kernel.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a phase. Only loaded when the runtime has jdk.jfr, hence the Object arguments of its
+ * helpers: Metrics and Phase never refer to the event type.
+ */
+@Name("arduinoml.Phase")
+@Label("ArduinoML Phase")
+@Category("ArduinoML")
+@Description("A phase of the build of an ArduinoML app: compile, build, parse, validation or generation")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("App")
+	String app;
+
+	@Label("Bricks")
+	long bricks;
+
+	@Label("States")
+	long states;
+
+	@Label("Transitions")
+	long transitions;
+
+	@Label("Generated Characters")
+	long chars;
+
+	// the started event, or null when no recording enables it
+	static Object startIfEnabled() {
+		PhaseEvent event = new PhaseEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void report(Object started, Phase phase) {
+		PhaseEvent event = (PhaseEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase.getName();
+			event.app = phase.getApp();
+			event.bricks = phase.getCount("bricks");
+			event.states = phase.getCount("states");
+			event.transitions = phase.getCount("transitions");
+			event.chars = phase.getCount("chars");
+			event.commit();
+		}
+	}
+}
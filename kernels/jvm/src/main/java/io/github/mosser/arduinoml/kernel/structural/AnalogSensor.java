@@ -0,0 +1,28 @@
+package io.github.mosser.arduinoml.kernel.structural;
+
+import io.github.mosser.arduinoml.kernel.generator.Visitor;
+
+/**
+ * Sensor plugged on an analog input (A0 to A5, that is pins 14 to 19, see Validator.convertPin), read with
+ * analogRead() every sampling period and compared to thresholds (see Threshold).
+ */
+public class AnalogSensor extends Sensor {
+
+	public static final int DEFAULT_PERIOD = 50;
+
+	// time between two samples, in milliseconds
+	private int samplingPeriod = DEFAULT_PERIOD;
+
+	public int getSamplingPeriod() {
+		return samplingPeriod;
+	}
+
+	public void setSamplingPeriod(int samplingPeriod) {
+		this.samplingPeriod = samplingPeriod;
+	}
+
+	@Override
+	public void accept(Visitor visitor) {
+		visitor.visit(this);
+	}
+}
@@ -0,0 +1,17 @@
+package io.github.mosser.arduinoml.kernel.structural;
+
+public enum EDGE {
+	RISING(SIGNAL.HIGH),
+	FALLING(SIGNAL.LOW);
+
+	// level of the sensor once the edge happened
+	private final SIGNAL level;
+
+	EDGE(SIGNAL level) {
+		this.level = level;
+	}
+
+	public SIGNAL getLevel() {
+		return level;
+	}
+}
@@ -0,0 +1,121 @@
+package io.github.mosser.arduinoml.kernel.telemetry;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the frames written on Serial by an instrumented sketch, from a live stream or a capture file.
+ *
+ * A frame is: the sync byte 0xA5, its type (1 byte), the payload length (2 bytes), the payload and a checksum
+ * (the xor of every byte from the type to the end of the payload). Integers are little-endian. The payload of a
+ * metrics frame is: loop count, longest and total loop time in micros (4 bytes each), the number of states (2
+ * bytes) followed by the micros spent in each one (4 bytes each), the number of transitions (2 bytes) followed
+ * by how many times each one fired (2 bytes each).
+ *
+ * Bytes that do not start a valid frame (a capture started in the middle of a frame, text printed on Serial, a
+ * corrupted frame) are skipped, the decoder resynchronizes on the next sync byte.
+ */
+public class TelemetryDecoder {
+
+	private static final int MAX_PAYLOAD = 0xFFFF;
+
+	private final InputStream in;
+	private long skipped = 0;
+
+	public TelemetryDecoder(InputStream in) {
+		this.in = new BufferedInputStream(in, MAX_PAYLOAD + 8);
+	}
+
+	/**
+	 * Returns the next valid frame, or null at the end of the stream.
+	 */
+	public TelemetryFrame next() throws IOException {
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b != TelemetryFrame.SYNC) {
+				skipped++;
+				continue;
+			}
+			// if the frame is not valid, the bytes after this sync byte are scanned again
+			in.mark(MAX_PAYLOAD + 8);
+			TelemetryFrame frame = frame();
+			if (frame != null) {
+				return frame;
+			}
+			in.reset();
+			skipped++;
+		}
+		return null;
+	}
+
+	// number of bytes that were not part of a valid frame
+	public long getSkipped() {
+		return skipped;
+	}
+
+	private TelemetryFrame frame() throws IOException {
+		byte[] header = read(3);
+		if (header == null || (header[0] & 0xFF) != TelemetryFrame.METRICS) {
+			return null;
+		}
+		int length = (header[1] & 0xFF) | (header[2] & 0xFF) << 8;
+		byte[] payload = read(length + 1);
+		if (payload == null) {
+			return null;
+		}
+		int checksum = 0;
+		for (byte h : header) {
+			checksum ^= h & 0xFF;
+		}
+		for (int i = 0; i < length; i++) {
+			checksum ^= payload[i] & 0xFF;
+		}
+		if (checksum != (payload[length] & 0xFF)) {
+			return null;
+		}
+		return metrics(ByteBuffer.wrap(payload, 0, length).order(ByteOrder.LITTLE_ENDIAN), length);
+	}
+
+	private static TelemetryFrame metrics(ByteBuffer payload, int length) {
+		if (length < TelemetryFrame.payloadLength(0, 0)) {
+			return null;
+		}
+		long loops = payload.getInt() & 0xFFFFFFFFL;
+		long maxMicros = payload.getInt() & 0xFFFFFFFFL;
+		long totalMicros = payload.getInt() & 0xFFFFFFFFL;
+		int states = payload.getShort() & 0xFFFF;
+		if (payload.remaining() < 4 * states + 2) {
+			return null;
+		}
+		long[] dwell = new long[states];
+		for (int i = 0; i < states; i++) {
+			dwell[i] = payload.getInt() & 0xFFFFFFFFL;
+		}
+		int transitions = payload.getShort() & 0xFFFF;
+		if (length != TelemetryFrame.payloadLength(states, transitions)) {
+			return null;
+		}
+		int[] fires = new int[transitions];
+		for (int i = 0; i < transitions; i++) {
+			fires[i] = payload.getShort() & 0xFFFF;
+		}
+		return new TelemetryFrame(loops, maxMicros, totalMicros, dwell, fires);
+	}
+
+	// null if the stream ends first
+	private byte[] read(int n) throws IOException {
+		byte[] bytes = new byte[n];
+		int done = 0;
+		while (done < n) {
+			int r = in.read(bytes, done, n - done);
+			if (r < 0) {
+				return null;
+			}
+			done += r;
+		}
+		return bytes;
+	}
+}
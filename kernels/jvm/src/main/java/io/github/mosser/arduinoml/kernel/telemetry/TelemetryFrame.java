@@ -0,0 +1,51 @@
+package io.github.mosser.arduinoml.kernel.telemetry;
+
+/**
+ * Metrics sent by an instrumented sketch for one period (see ToWiring.setInstrumented).
+ *
+ * Dwell times and fire counts are indexed as in TelemetryLayout.
+ */
+public class TelemetryFrame {
+
+	public static final int SYNC = 0xA5;
+	public static final int METRICS = 1;
+
+	private final long loops;
+	private final long maxMicros;
+	private final long totalMicros;
+	private final long[] dwellMicros;
+	private final int[] fires;
+
+	public TelemetryFrame(long loops, long maxMicros, long totalMicros, long[] dwellMicros, int[] fires) {
+		this.loops = loops;
+		this.maxMicros = maxMicros;
+		this.totalMicros = totalMicros;
+		this.dwellMicros = dwellMicros;
+		this.fires = fires;
+	}
+
+	// loops, max and total micros, state count, dwell times, transition count, fire counts
+	public static int payloadLength(int states, int transitions) {
+		return 3 * 4 + 2 + 4 * states + 2 + 2 * transitions;
+	}
+
+	public long getLoops() {
+		return loops;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public long getTotalMicros() {
+		return totalMicros;
+	}
+
+	public long[] getDwellMicros() {
+		return dwellMicros.clone();
+	}
+
+	public int[] getFires() {
+		return fires.clone();
+	}
+}
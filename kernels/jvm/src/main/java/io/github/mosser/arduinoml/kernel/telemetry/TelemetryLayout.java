@@ -0,0 +1,77 @@
+package io.github.mosser.arduinoml.kernel.telemetry;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.Region;
+import io.github.mosser.arduinoml.kernel.behavioral.State;
+import io.github.mosser.arduinoml.kernel.behavioral.Transition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbering of the states and transitions of an App in the telemetry frames, shared by the instrumented
+ * generator and the decoder.
+ *
+ * States are numbered as the app states, then the states of each region in turn, so that the states of a
+ * region are contiguous: the index of a state is the index of the first state of its region plus its value in
+ * the region enum. Transitions are numbered state after state, in declaration order.
+ */
+public class TelemetryLayout {
+
+	private final List<State> states = new ArrayList<>();
+	private final List<Transition> transitions = new ArrayList<>();
+	private final Map<State, Integer> stateIndex = new HashMap<>();
+	private final Map<Transition, Integer> transitionIndex = new HashMap<>();
+	private final Map<Transition, State> sources = new HashMap<>();
+	// name in the generated enum, e.g. on_blink_off for the state off of the region blink of the state on
+	private final Map<State, String> names = new HashMap<>();
+
+	public TelemetryLayout(App app) {
+		states.addAll(app.getStates());
+		for (State state : app.getStates()) {
+			names.put(state, state.getName());
+		}
+		for (int i = 0; i < states.size(); i++) {
+			State state = states.get(i);
+			stateIndex.put(state, i);
+			for (Transition transition : state.getTransitions()) {
+				transitionIndex.put(transition, transitions.size());
+				sources.put(transition, state);
+				transitions.add(transition);
+			}
+			for (Region region : state.getRegions()) {
+				for (State nested : region.getStates()) {
+					names.put(nested, names.get(state) + "_" + region.getName() + "_" + nested.getName());
+					states.add(nested);
+				}
+			}
+		}
+	}
+
+	public List<State> getStates() {
+		return Collections.unmodifiableList(states);
+	}
+
+	public int indexOf(State state) {
+		return stateIndex.getOrDefault(state, -1);
+	}
+
+	public String nameOf(State state) {
+		return names.get(state);
+	}
+
+	public List<Transition> getTransitions() {
+		return Collections.unmodifiableList(transitions);
+	}
+
+	public int indexOf(Transition transition) {
+		return transitionIndex.getOrDefault(transition, -1);
+	}
+
+	public State sourceOf(Transition transition) {
+		return sources.get(transition);
+	}
+}
@@ -0,0 +1,149 @@
+package io.github.mosser.arduinoml.kernel.telemetry;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.aml.AmlParser;
+import io.github.mosser.arduinoml.kernel.behavioral.State;
+import io.github.mosser.arduinoml.kernel.behavioral.Transition;
+import io.github.mosser.arduinoml.kernel.generator.TransitionProfile;
+import io.github.mosser.arduinoml.kernel.json.AppJsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Per-state metrics of an app, accumulated from the telemetry frames of its instrumented sketch.
+ *
+ * Usage: TelemetryReport app.json|app.aml capture.bin [profile.trace]
+ * prints the metrics, and writes the transition counts as a trace for ToWiring.setProfile.
+ */
+public class TelemetryReport {
+
+	private final TelemetryLayout layout;
+	private long frames = 0;
+	private long loops = 0;
+	private long maxMicros = 0;
+	private long totalMicros = 0;
+	private final long[] dwellMicros;
+	private final long[] fires;
+
+	public TelemetryReport(App app) {
+		this.layout = new TelemetryLayout(app);
+		this.dwellMicros = new long[layout.getStates().size()];
+		this.fires = new long[layout.getTransitions().size()];
+	}
+
+	public static TelemetryReport read(App app, InputStream in) throws IOException {
+		TelemetryReport report = new TelemetryReport(app);
+		TelemetryDecoder decoder = new TelemetryDecoder(in);
+		TelemetryFrame frame;
+		while ((frame = decoder.next()) != null) {
+			report.add(frame);
+		}
+		return report;
+	}
+
+	public void add(TelemetryFrame frame) {
+		long[] dwell = frame.getDwellMicros();
+		int[] fired = frame.getFires();
+		if (dwell.length != dwellMicros.length || fired.length != fires.length) {
+			throw new IllegalArgumentException("Frame for " + dwell.length + " states and " + fired.length
+					+ " transitions, the app has " + dwellMicros.length + " states and " + fires.length + " transitions");
+		}
+		frames++;
+		loops += frame.getLoops();
+		maxMicros = Math.max(maxMicros, frame.getMaxMicros());
+		totalMicros += frame.getTotalMicros();
+		for (int i = 0; i < dwell.length; i++) {
+			dwellMicros[i] += dwell[i];
+		}
+		for (int i = 0; i < fired.length; i++) {
+			fires[i] += fired[i];
+		}
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getLoops() {
+		return loops;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public double getAverageMicros() {
+		return loops == 0 ? 0 : (double) totalMicros / loops;
+	}
+
+	public long getDwellMicros(State state) {
+		return dwellMicros[layout.indexOf(state)];
+	}
+
+	public long getFires(Transition transition) {
+		return fires[layout.indexOf(transition)];
+	}
+
+	public TransitionProfile toProfile() {
+		TransitionProfile profile = TransitionProfile.empty();
+		for (Transition transition : layout.getTransitions()) {
+			long count = getFires(transition);
+			if (count > 0) {
+				profile.record(layout.nameOf(layout.sourceOf(transition)), layout.nameOf(transition.getNext()), count);
+			}
+		}
+		return profile;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d frame(s), %d loop(s), %.1f us per loop on average, %d us at most%n",
+				frames, loops, getAverageMicros(), maxMicros));
+		long total = 0;
+		for (long dwell : dwellMicros) {
+			total += dwell;
+		}
+		sb.append(String.format("%nState%n"));
+		for (State state : layout.getStates()) {
+			long dwell = getDwellMicros(state);
+			sb.append(String.format("  %-30s %12.3f s  %5.1f %%%n", layout.nameOf(state), dwell / 1e6,
+					total == 0 ? 0 : 100.0 * dwell / total));
+		}
+		sb.append(String.format("%nTransition%n"));
+		for (Transition transition : layout.getTransitions()) {
+			sb.append(String.format("  %-30s %12d%n", layout.nameOf(layout.sourceOf(transition)) + " -> "
+					+ layout.nameOf(transition.getNext()), getFires(transition)));
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("/!\\ Usage: TelemetryReport app.json|app.aml capture.bin [profile.trace]");
+			return;
+		}
+		App app;
+		try (Reader source = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+			app = args[0].endsWith(".json") ? AppJsonReader.read(source) : AmlParser.parse(source);
+		}
+		TelemetryReport report;
+		try (InputStream capture = Files.newInputStream(Paths.get(args[1]))) {
+			report = read(app, capture);
+		}
+		System.out.print(report);
+		if (args.length > 2) {
+			Path trace = Paths.get(args[2]);
+			try (Writer out = Files.newBufferedWriter(trace, StandardCharsets.UTF_8)) {
+				report.toProfile().write(out);
+			}
+		}
+	}
+}
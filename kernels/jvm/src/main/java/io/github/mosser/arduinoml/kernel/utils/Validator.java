@@ -1,41 +1,106 @@
 package io.github.mosser.arduinoml.kernel.utils;
 
 import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.metrics.Metrics;
+import io.github.mosser.arduinoml.kernel.metrics.Phase;
+import io.github.mosser.arduinoml.kernel.structural.AnalogSensor;
 import io.github.mosser.arduinoml.kernel.structural.BUS;
 import io.github.mosser.arduinoml.kernel.structural.Brick;
 import io.github.mosser.arduinoml.kernel.structural.LCDDisplay;
+import io.github.mosser.arduinoml.kernel.structural.Sensor;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class Validator {
     private Validator() {}
 
     public static void validatePinUsage(App app) {
-        Set<Integer> usedPins = new HashSet<>();
+        // closed on errors too, so that a failed validation is still timed
+        try (Phase validation = Metrics.start("validation", app.getName()).count(app)) {
+            Set<Integer> usedPins = new HashSet<>();
 
-        for (Brick brick : app.getBricks()) {
-            int pin = brick.getPin();
-            checkPinUsed(pin, usedPins, "Brick " + brick.getName());
+            for (Brick brick : app.getBricks()) {
+                int pin = brick.getPin();
+                checkPinUsed(pin, usedPins, "Brick " + brick.getName());
+                if (brick instanceof AnalogSensor && (pin < ANALOG_FIRST || pin > ANALOG_LAST)) {
+                    throw new IllegalArgumentException("Pin analogique invalide: " + pin + " (Brick "
+                            + brick.getName() + ", A0 a A5 attendu)");
+                }
+            }
+
+            if (app.getLCDDisplay() != null) {
+                LCDDisplay lcd = app.getLCDDisplay();
+                BUS bus = lcd.getBus();
+                for (String pinStr : bus.getPins()) {
+                    int pin = convertPin(pinStr);
+                    checkPinUsed(pin, usedPins, "LCD [" + lcd.getBrick().getName() + "] sur bus " + bus.name() + " pin " + pinStr + "\nBus pin : " + app.getLCDDisplay().getBus());
+                }
+            }
         }
+    }
+
+    /**
+     * Checks apps meant to run together on the same board: each app must be valid on its own, and a pin can only be
+     * shared between apps if every one of them reads it as a sensor.
+     */
+    public static void validatePinUsage(List<App> apps) {
+        // pin -> "app / brick" of its first user, and whether every user reads it
+        Map<Integer, String> owners = new HashMap<>();
+        Set<Integer> sharedInputs = new HashSet<>();
 
-        if (app.getLCDDisplay() != null) {
-            LCDDisplay lcd = app.getLCDDisplay();
-            BUS bus = lcd.getBus();
-            for (String pinStr : bus.getPins()) {
-                int pin = convertPin(pinStr);
-                checkPinUsed(pin, usedPins, "LCD [" + lcd.getBrick().getName() + "] sur bus " + bus.name() + " pin " + pinStr + "\nBus pin : " + app.getLCDDisplay().getBus());
+        for (App app : apps) {
+            validatePinUsage(app);
+            Map<Integer, String> pins = new HashMap<>();
+            Set<Integer> inputs = new HashSet<>();
+            for (Brick brick : app.getBricks()) {
+                pins.put(brick.getPin(), app.getName() + " / " + brick.getName());
+                if (brick instanceof Sensor) {
+                    inputs.add(brick.getPin());
+                }
+            }
+            if (app.getLCDDisplay() != null) {
+                for (String pinStr : app.getLCDDisplay().getBus().getPins()) {
+                    pins.put(convertPin(pinStr), app.getName() + " / LCD pin " + pinStr);
+                }
+            }
+            for (Map.Entry<Integer, String> pin : pins.entrySet()) {
+                String owner = owners.get(pin.getKey());
+                if (owner == null) {
+                    owners.put(pin.getKey(), pin.getValue());
+                    if (inputs.contains(pin.getKey())) {
+                        sharedInputs.add(pin.getKey());
+                    }
+                } else if (!sharedInputs.contains(pin.getKey()) || !inputs.contains(pin.getKey())) {
+                    throw new IllegalArgumentException("Pin deja utilisee: " + pin.getKey()
+                            + " (" + pin.getValue() + ", deja utilisee par " + owner + ")");
+                }
             }
         }
     }
 
-    private static int convertPin(String pinStr) {
+    // A0 to A5 are numbered after the 14 digital pins
+    private static final int ANALOG_FIRST = 14;
+    private static final int ANALOG_LAST = 19;
+
+    public static int convertPin(String pinStr) {
         if (pinStr.startsWith("A")) {
-            return 14 + Integer.parseInt(pinStr.substring(1));
+            return ANALOG_FIRST + Integer.parseInt(pinStr.substring(1));
         }
         return Integer.parseInt(pinStr);
     }
 
+    // inverse of convertPin, as written in the generated code (e.g. 14 -> A0)
+    public static String pinName(int pin) {
+        if (pin >= ANALOG_FIRST && pin <= ANALOG_LAST) {
+            return "A" + (pin - ANALOG_FIRST);
+        }
+        return Integer.toString(pin);
+    }
+
     private static void checkPinUsed(int pin, Set<Integer> usedPins, String context) {
         if (usedPins.contains(pin)) {
             throw new IllegalArgumentException("Pin deja utilisee: " + pin + " (" + context + ")");
@@ -0,0 +1,75 @@
+package io.github.mosser.arduinoml.kernel.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import io.github.mosser.arduinoml.kernel.App;
+import io.github.mosser.arduinoml.kernel.behavioral.Action;
+import io.github.mosser.arduinoml.kernel.behavioral.State;
+import io.github.mosser.arduinoml.kernel.structural.Actuator;
+import io.github.mosser.arduinoml.kernel.structural.LCDDisplay;
+import io.github.mosser.arduinoml.kernel.structural.SIGNAL;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class AppJsonTest {
+
+	// an LCD without prefix, which ToWiring accepts
+	private static App appWithLcd(String prefix) {
+		App app = new App();
+		app.setName("lcd");
+		Actuator led = new Actuator();
+		led.setName("led");
+		led.setPin(9);
+		app.getBricks().add(led);
+		Action on = new Action();
+		on.setActuator(led);
+		on.setValue(SIGNAL.HIGH);
+		State state = new State();
+		state.setName("on");
+		state.getActions().add(on);
+		app.getStates().add(state);
+		app.setInitial(state);
+		LCDDisplay lcd = new LCDDisplay();
+		lcd.setBrick(led);
+		lcd.setPrefix(prefix);
+		lcd.setBus(1);
+		app.setLCDDisplay(lcd);
+		return app;
+	}
+
+	private static String write(App app) throws IOException {
+		StringWriter json = new StringWriter();
+		AppJsonWriter.write(app, json);
+		return json.toString();
+	}
+
+	@Test
+	public void lcdWithoutPrefixRoundTrips() throws IOException {
+		String json = write(appWithLcd(null));
+		assertFalse(json.contains("prefix"));
+		App back = AppJsonReader.read(new StringReader(json));
+		assertNull(back.getLCDDisplay().getPrefix());
+		assertEquals(json, write(back));
+	}
+
+	@Test
+	public void lcdWithPrefixRoundTrips() throws IOException {
+		String json = write(appWithLcd("LED: "));
+		App back = AppJsonReader.read(new StringReader(json));
+		assertEquals("LED: ", back.getLCDDisplay().getPrefix());
+		assertEquals(json, write(back));
+	}
+
+	// files written before the prefix was left out
+	@Test
+	public void nullPrefixIsRead() throws IOException {
+		String json = write(appWithLcd("x")).replace("\"x\"", "null");
+		assertNull(AppJsonReader.read(new StringReader(json)).getLCDDisplay().getPrefix());
+	}
+}